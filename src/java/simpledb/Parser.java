@@ -5,6 +5,8 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -212,8 +214,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         List<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAggregate = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.get(i);
@@ -223,16 +224,23 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
+                // Zql hands COUNT(DISTINCT x) over as count("distinct x")
+                if (aggField.toLowerCase().startsWith("distinct ")) {
+                    if (!aggFun.equalsIgnoreCase("count")) {
+                        throw new simpledb.ParsingException(
+                                "DISTINCT is only supported in COUNT.");
+                    }
+                    aggField = aggField.substring("distinct ".length()).trim();
+                    aggFun = Aggregator.Op.COUNT_DISTINCT.toString();
+                }
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField, groupByField);
+                hasAggregate = true;
             } else {
                 if (groupByField != null
                         && !(groupByField.equals(si.getTable() + "."
@@ -246,13 +254,9 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (groupByField != null && !hasAggregate) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
-
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
-        }
         // sort the data
 
         if (q.getOrderBy() != null) {
@@ -278,12 +282,44 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    /**
+     * A LIMIT clause at the end of a statement. Zql does not know LIMIT, so
+     * it is cut off before the statement is handed to Zql.
+     */
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "(?is)^(.*\\S)\\s+limit\\s+(\\d{1,9})\\s*;?\\s*$");
+
+    /** LIMIT of the statement being processed, or -1 if it has none */
+    private int limit = -1;
+
+    /**
+     * Removes a trailing LIMIT clause from s and remembers its value for
+     * {@link #applyLimit}.
+     *
+     * @return the statement without the LIMIT clause
+     */
+    private String stripLimit(String s) {
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.matches()) {
+            limit = -1;
+            return s;
+        }
+        limit = Integer.parseInt(m.group(2));
+        return m.group(1) + ";";
+    }
+
+    private void applyLimit(LogicalPlan lp) {
+        if (limit >= 0)
+            lp.addLimit(limit);
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws IOException,
             simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        applyLimit(lp);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -361,7 +397,7 @@ public class Parser {
                     IntField f = new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
                                 + " is a string, expected an integer.");
@@ -383,6 +419,7 @@ public class Parser {
         } else {
             ZQuery zq = s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
+            applyLimit(lp);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
@@ -465,12 +502,14 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                return parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                applyLimit(lp);
+                return lp;
             }
         } catch (Zql.ParseException e) {
             throw new simpledb.ParsingException(
@@ -493,9 +532,34 @@ public class Parser {
         processNextStatement(new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)));
     }
 
+    /**
+     * Reads the next statement from is, up to and including the first ';'
+     * outside a quoted string, or up to the end of the stream. Reads one byte
+     * at a time, so the rest of the stream is left for the next statement.
+     */
+    private static String readStatement(InputStream is) throws IOException {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        int quote = 0;
+        for (int c = is.read(); c >= 0; c = is.read()) {
+            text.write(c);
+            if (quote != 0) {
+                if (c == quote)
+                    quote = 0;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ';') {
+                break;
+            }
+        }
+        return new String(text.toByteArray(), StandardCharsets.UTF_8);
+    }
+
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            // only the statement Zql reads may lose its LIMIT clause
+            String sql = stripLimit(readStatement(is));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    sql.getBytes(StandardCharsets.UTF_8)));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -567,7 +631,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "limit" };
 
     public static void main(String[] argv) throws IOException {
 
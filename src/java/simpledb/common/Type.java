@@ -41,20 +41,76 @@ public enum Type implements Serializable {
                 byte[] bs = new byte[strLen];
                 dis.read(bs);
                 dis.skipBytes(STRING_LEN-strLen);
-                return new StringField(new String(bs), STRING_LEN);
+                return new StringField(new String(bs, StringField.CHARSET), STRING_LEN);
             } catch (IOException e) {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+    }, VARCHAR_TYPE() {
+        /**
+         * @return the length of the longest value; stored values take only
+         *         4 bytes more than their length, on pages of the slotted
+         *         layout (see HeapPage)
+         */
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public int getMinLen() {
+            return 4;
+        }
+
+        @Override
+        public int getEstimatedLen() {
+            return VARCHAR_ESTIMATED_LEN+4;
+        }
+
+        /**
+         * Reads a value serialized by StringField.serialize, padded like a
+         * STRING_TYPE value; only slotted heap pages store values unpadded.
+         */
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            return STRING_TYPE.parse(dis);
+        }
     };
     
     public static final int STRING_LEN = 128;
 
+    /** the length assumed for VARCHAR_TYPE values when estimating costs */
+    public static final int VARCHAR_ESTIMATED_LEN = STRING_LEN / 4;
+
   /**
-   * @return the number of bytes required to store a field of this type.
+   * @return the number of bytes required to store a field of this type, or
+   *   the most a value of a variable-length type can take.
    */
     public abstract int getLen();
 
+  /**
+   * @return the fewest bytes a stored value of this type can take; less
+   *   than getLen() for variable-length types only.
+   */
+    public int getMinLen() {
+        return getLen();
+    }
+
+  /**
+   * @return the number of bytes a stored value of this type is expected to
+   *   take on average, for costing.
+   */
+    public int getEstimatedLen() {
+        return getLen();
+    }
+
+  /**
+   * @return true if every stored value of this type takes getLen() bytes.
+   */
+    public boolean isFixedLen() {
+        return getMinLen() == getLen();
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
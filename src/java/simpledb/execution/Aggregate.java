@@ -2,31 +2,96 @@ package simpledb.execution;
 
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.index.BTreeScan;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.NoSuchElementException;
 
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). Note that we only support grouping by a single column.
+ * <p>
+ * Several aggregates, each over a single column, can be computed in the same
+ * pass over the child; the result has one column for each after the group
+ * column. COUNT_DISTINCT counts the distinct values of its column, as in
+ * COUNT(DISTINCT x).
+ * <p>
+ * Groups are aggregated in a hash table of at most {@link #getMemoryBudget()}
+ * groups. When it is full, the partial aggregate of each group is written
+ * to one of {@link #FANOUT} spill files by the hash of its key and the
+ * table is cleared; at the end of the input each file is merged on its own.
+ * A file whose groups still do not fit is partitioned again on other bits
+ * of the hash, up to {@link #MAX_LEVEL} levels deep. The distinct values
+ * behind a COUNT_DISTINCT cannot be spilled that way, so an aggregation
+ * with a COUNT_DISTINCT keeps all of its groups in memory.
+ * <p>
+ * If the child is already ordered on the group field, such as an OrderBy
+ * or an index scan on that field, the groups are aggregated one at a time
+ * as they stream by instead.
+ * <p>
+ * For parallel aggregation, the input can be split among threads that each
+ * compute a {@link PartialAggregate}; {@link #mergePartials} creates the
+ * Aggregate that merges their partial states into the final result.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
     private OpIterator children[];
     private OpIterator child;
-    private int afield;
+    private final int[] afields;
     private int gfield;
-    private Aggregator.Op aop;
+    private final Aggregator.Op[] aops;
     private TupleDesc td;
-    private Aggregator aggr;
-    private OpIterator it;
     private Type gbFieldType;
+    /**
+     * schema of the tuples being aggregated if the child returns partial
+     * states of them, null if the child returns the tuples themselves
+     */
+    private final TupleDesc partialsOf;
+
+    /** Default number of groups held in memory before partial aggregates are spilled */
+    public final static int DEFAULT_MEMORY_BUDGET = 100000;
+    /** Bits of the key hash consumed by each level of partitioning */
+    private final static int PARTITION_BITS = 4;
+    /** Number of files the partial aggregates are split into when spilling */
+    public final static int FANOUT = 1 << PARTITION_BITS;
+    /** Number of times the partial aggregates may be repartitioned */
+    public final static int MAX_LEVEL = 4;
+
+    private int memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    /** spilled partial aggregates not merged yet, with the level they were partitioned at */
+    private static class Partition {
+        final SpillFile file;
+        final int level;
+
+        Partition(SpillFile file, int level) {
+            this.file = file;
+            this.level = level;
+        }
+    }
+
+    /** the groups in memory */
+    transient private AggregateHashTable groups = null;
+    /** next group of groups to return */
+    transient private int outGroup;
+    transient private TupleDesc stateTD = null;
+    /** files the input is being spilled to, or null */
+    transient private SpillFile[] spillFiles = null;
+    transient private Deque<Partition> partitions = null;
+    /** true if the child is ordered on the group field */
+    transient private boolean streaming = false;
+    /** key of the group being streamed, or null */
+    transient private Field streamKey = null;
 
     /**
      * Constructor.
@@ -42,16 +107,70 @@ public class Aggregate extends Operator {
      * @param aop    The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, null, new int[]{afield}, gfield, new Aggregator.Op[]{aop});
+    }
+
+    /**
+     * Creates an Aggregate computing several aggregates in one pass.
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param afields The column of each aggregate
+     * @param gfield  The column over which we are grouping the result, or -1
+     *                if there is no grouping
+     * @param aops    The aggregation operator of each aggregate
+     * @throws IllegalArgumentException if an aggregate other than COUNT or
+     *                                  COUNT_DISTINCT is over a non-INT column
+     */
+    public Aggregate(OpIterator child, int[] afields, int gfield, Aggregator.Op[] aops) {
+        this(child, null, afields, gfield, aops);
+    }
+
+    /**
+     * Creates the final phase of a parallel aggregation, which merges the
+     * partial states returned by one or more {@link PartialAggregate}s of
+     * the same aggregate.
+     *
+     * @param partials the partial states, e.g. a Gather of PartialAggregates
+     * @param inputTd  the schema of the tuples being aggregated, see
+     *                 {@link PartialAggregate#getInputTupleDesc()}
+     */
+    public static Aggregate mergePartials(OpIterator partials, TupleDesc inputTd,
+                                          int afield, int gfield, Aggregator.Op aop) {
+        return mergePartials(partials, inputTd, new int[]{afield}, gfield,
+                new Aggregator.Op[]{aop});
+    }
+
+    /**
+     * Creates the final phase of a parallel aggregation of several
+     * aggregates, in the same order as the PartialAggregates computed them.
+     *
+     * @see #mergePartials(OpIterator, TupleDesc, int, int, Aggregator.Op)
+     */
+    public static Aggregate mergePartials(OpIterator partials, TupleDesc inputTd,
+                                          int[] afields, int gfield, Aggregator.Op[] aops) {
+        return new Aggregate(partials, inputTd, afields, gfield, aops);
+    }
+
+    private Aggregate(OpIterator child, TupleDesc partialsOf, int[] afields, int gfield,
+                      Aggregator.Op[] aops) {
         // some code goes here
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException("need one operator for each aggregate field");
+        this.partialsOf = partialsOf;
         this.children = new OpIterator[1];
         this.children[0] = child;
         this.child = child;
-        this.afield = afield;
+        this.afields = afields.clone();
         this.gfield = gfield;
-        this.aop = aop;
+        this.aops = aops.clone();
+        TupleDesc inputTd = inputTupleDesc();
+        for (int i = 0; i < afields.length; i++) {
+            if (inputTd.getFieldType(afields[i]) != Type.INT_TYPE
+                    && aops[i] != Aggregator.Op.COUNT && aops[i] != Aggregator.Op.COUNT_DISTINCT)
+                throw new IllegalArgumentException(aops[i] + " needs an INT field");
+        }
         this.td = getTupleDesc();
-        this.it = null;
-        this.gbFieldType = (gfield == Aggregator.NO_GROUPING) ? null : child.getTupleDesc().getFieldType(gfield);
+        this.gbFieldType = (gfield == Aggregator.NO_GROUPING) ? null : inputTupleDesc().getFieldType(gfield);
     }
 
     /**
@@ -74,7 +193,7 @@ public class Aggregate extends Operator {
         // some code goes here
         if(gfield == Aggregator.NO_GROUPING)
             return null;
-        return child.getTupleDesc().getFieldName(gfield);
+        return inputTupleDesc().getFieldName(gfield);
         // return null;
     }
 
@@ -83,7 +202,7 @@ public class Aggregate extends Operator {
      */
     public int aggregateField() {
         // some code goes here
-        return afield;
+        return afields[0];
         // return -1;
     }
 
@@ -93,7 +212,7 @@ public class Aggregate extends Operator {
      */
     public String aggregateFieldName() {
         // some code goes here
-        return child.getTupleDesc().getFieldName(afield);
+        return aggregateFieldName(0);
         // return null;
     }
 
@@ -102,50 +221,230 @@ public class Aggregate extends Operator {
      */
     public Aggregator.Op aggregateOp() {
         // some code goes here
-        return aop;
+        return aops[0];
         // return null;
     }
 
+    /** @return the number of aggregates computed */
+    public int numAggregates() {
+        return aops.length;
+    }
+
+    /** @return the input column of aggregate i */
+    public int aggregateField(int i) {
+        return afields[i];
+    }
+
+    /** @return the name of the input column of aggregate i */
+    public String aggregateFieldName(int i) {
+        return inputTupleDesc().getFieldName(afields[i]);
+    }
+
+    /** @return the operator of aggregate i */
+    public Aggregator.Op aggregateOp(int i) {
+        return aops[i];
+    }
+
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
         return aop.toString();
     }
 
+    /**
+     * Sets how many groups may be held in memory before partial aggregates
+     * are spilled to disk. Takes effect at the next open().
+     */
+    public void setMemoryBudget(int groups) {
+        this.memoryBudget = Math.max(1, groups);
+    }
+
+    public int getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /** @return the schema of the tuples being aggregated */
+    private TupleDesc inputTupleDesc() {
+        return partialsOf != null ? partialsOf : child.getTupleDesc();
+    }
+
+    /**
+     * @return true if the tuples of it are known to come out ordered on field
+     */
+    private static boolean isOrderedOn(OpIterator it, int field) {
+        while (it instanceof Filter)
+            it = ((Filter) it).getChildren()[0];
+        if (it instanceof OrderBy)
+            return ((OrderBy) it).getOrderByField() == field;
+        if (it instanceof BTreeScan)
+            return ((BTreeScan) it).getKeyField() == field;
+        return false;
+    }
+
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
         // some code goes here
         super.open();
-        Type aftype = child.getTupleDesc().getFieldType(afield);
-        if (aftype == Type.INT_TYPE) {
-            aggr = new IntegerAggregator(gfield, gbFieldType, afield, aop);
-        }
-        else
-            aggr = new StringAggregator(gfield, gbFieldType, afield, aop);
+        groups = new AggregateHashTable(gbFieldType, aops);
+        outGroup = 0;
         child.open();
-        while (child.hasNext()) {
-            aggr.mergeTupleIntoGroup(child.next());
+        streaming = false;
+        if (partialsOf != null) {
+            while (child.hasNext()) {
+                groups.mergeState(child.next());
+                spillIfFull();
+            }
+        } else if (gfield != Aggregator.NO_GROUPING && isOrderedOn(child, gfield)) {
+            streaming = true;
+            streamKey = null;
+            return;
+        } else {
+            BatchOpIterator in = RowToBatch.wrap(child);
+            TupleBatch batch;
+            while ((batch = in.nextBatch()) != null) {
+                groups.mergeBatch(batch, gfield, afields);
+                spillIfFull();
+            }
         }
         child.close();
-        it = aggr.iterator();
-        it.open();
+        if (spillFiles != null) {
+            spill(spillFiles, 0);
+            partitions = new ArrayDeque<>();
+            for (SpillFile f : spillFiles)
+                partitions.push(new Partition(f, 0));
+            spillFiles = null;
+        }
+    }
+
+    private void spillIfFull() throws DbException {
+        if (gfield != Aggregator.NO_GROUPING && groups.size() > memoryBudget
+                && groups.mergeable()) {
+            if (spillFiles == null)
+                spillFiles = newSpillFiles();
+            spill(spillFiles, 0);
+        }
+    }
+
+    private SpillFile[] newSpillFiles() throws DbException {
+        if (stateTD == null)
+            stateTD = AggregateHashTable.stateDesc(gbFieldType, aops.length);
+        SpillFile[] files = new SpillFile[FANOUT];
+        for (int i = 0; i < FANOUT; i++)
+            files[i] = new SpillFile(stateTD);
+        return files;
+    }
+
+    /**
+     * Each level takes a different group of bits of the same hash, so a
+     * partition repartitioned at the next level splits evenly again.
+     */
+    private static int partitionOf(Field key, int level) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h >>> (32 - PARTITION_BITS * (level + 1))) & (FANOUT - 1);
+    }
+
+    /** Writes the partial aggregates of all groups in memory to files and clears them. */
+    private void spill(SpillFile[] files, int level) throws DbException {
+        for (int g = 0; g < groups.size(); g++) {
+            Field key = groups.key(g);
+            files[partitionOf(key, level)].add(groups.state(g, stateTD));
+        }
+        groups.clear();
+    }
+
+    /**
+     * Merges the next spilled partition that fits in memory into groups,
+     * repartitioning those that do not.
+     *
+     * @return false if there are no more partitions
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        while (!partitions.isEmpty()) {
+            Partition p = partitions.pop();
+            groups.clear();
+            outGroup = 0;
+            SpillFile[] split = null;
+            OpIterator states = p.file.iterator();
+            states.open();
+            while (states.hasNext()) {
+                groups.mergeState(states.next());
+                if (groups.size() > memoryBudget && p.level < MAX_LEVEL) {
+                    if (split == null)
+                        split = newSpillFiles();
+                    spill(split, p.level + 1);
+                }
+            }
+            states.close();
+            p.file.delete();
+            if (split == null)
+                return true;
+            spill(split, p.level + 1);
+            for (SpillFile f : split)
+                partitions.push(new Partition(f, p.level + 1));
+        }
+        return false;
+    }
+
+    private Tuple resultTuple(int g) {
+        Tuple t = new Tuple(td);
+        int f = 0;
+        if (gfield != Aggregator.NO_GROUPING)
+            t.setField(f++, groups.key(g));
+        for (int i = 0; i < aops.length; i++)
+            t.setField(f++, new IntField(groups.result(g, i)));
+        return t;
+    }
+
+    /**
+     * Aggregates the next run of equal group keys of an ordered child.
+     */
+    private Tuple nextStreamed() throws DbException, TransactionAbortedException {
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            Field key = t.getField(gfield);
+            Tuple result = null;
+            if (streamKey != null && !key.equals(streamKey)) {
+                result = resultTuple(0);
+                groups.clear();
+            }
+            streamKey = key;
+            groups.mergeTuple(t, gfield, afields);
+            if (result != null)
+                return result;
+        }
+        if (groups.size() == 0)
+            return null;
+        Tuple result = resultTuple(0);
+        groups.clear();
+        return result;
     }
 
     /**
      * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate. If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
+     * field is the field by which we are grouping, and the following fields
+     * are the results of computing the aggregates. If there is no group by
+     * field, then the result tuple should contain one field for each
      * aggregate. Should return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
         // System.out.println("fetchnext: ");
-        if (it != null && it.hasNext()) {
-            Tuple t = it.next();
-            // System.out.println("ttt: " + t.toString());
-            return t;
+        if (groups == null)
+            return null;
+        if (streaming)
+            return nextStreamed();
+        while (outGroup == groups.size()) {
+            if (partitions == null || !nextPartition())
+                return null;
         }
-        return null;
-        // return null;
+        return resultTuple(outGroup++);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!hasNext())
+            return null;
+        TupleBatch batch = new TupleBatch(td);
+        while (!batch.isFull() && hasNext())
+            batch.addTuple(next());
+        return batch;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -156,9 +455,9 @@ public class Aggregate extends Operator {
 
     /**
      * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * this will have one field for each aggregate column. If there is a group
+     * by field, the first field will be the group by field, and the others
+     * will be the aggregate value columns.
      * <p>
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -167,20 +466,36 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
     // some code goes here
-        TupleDesc child_td = child.getTupleDesc();
-        if (this.gfield == Aggregator.NO_GROUPING) {
-            return new TupleDesc(new Type[]{Type.INT_TYPE},
-                                 new String[]{aop.toString() + "(" + child_td.getFieldName(afield) + ")"});
-        } else {
-            return new TupleDesc(new Type[]{child_td.getFieldType(gfield), Type.INT_TYPE},
-                                 new String[]{child_td.getFieldName(gfield), aop.toString() + "(" + child_td.getFieldName(afield) + ")"});
+        TupleDesc child_td = inputTupleDesc();
+        int grouped = this.gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        Type[] types = new Type[grouped + aops.length];
+        String[] names = new String[types.length];
+        if (grouped == 1) {
+            types[0] = child_td.getFieldType(gfield);
+            names[0] = child_td.getFieldName(gfield);
+        }
+        for (int i = 0; i < aops.length; i++) {
+            types[grouped + i] = Type.INT_TYPE;
+            names[grouped + i] = aops[i].toString() + "(" + child_td.getFieldName(afields[i]) + ")";
         }
+        return new TupleDesc(types, names);
     }
 
     public void close() {
         // some code goes here
-        aggr = null;
-        it = null;
+        groups = null;
+        if (spillFiles != null)
+            for (SpillFile f : spillFiles)
+                f.delete();
+        spillFiles = null;
+        if (partitions != null)
+            for (Partition p : partitions)
+                p.file.delete();
+        partitions = null;
+        if (streaming)
+            child.close();
+        streaming = false;
+        streamKey = null;
         super.close();
     }
 
@@ -195,6 +510,7 @@ public class Aggregate extends Operator {
     public void setChildren(OpIterator[] children) {
         // some code goes here
         this.children = children;
+        this.child = children[0];
     }
 
 }
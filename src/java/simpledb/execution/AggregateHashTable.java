@@ -0,0 +1,490 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Dictionary;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Hash table of groups and their running aggregates, used by Aggregate,
+ * IntegerAggregator and StringAggregator. A table computes one or more
+ * aggregates at once, each with its own accumulator per group.
+ * <p>
+ * Groups are numbered 0, 1, 2, ... in the order they are first seen, and
+ * their keys and accumulators are kept in parallel primitive arrays indexed
+ * by group number. A linear-probing table of group numbers finds the group
+ * of a key. INT keys are stored and compared as ints, so grouping on an
+ * INT field allocates nothing except when an array has to grow; other keys
+ * are kept as the Field of the first tuple of their group. The group of
+ * each code of a dictionary encoded column of a batch is remembered, so the
+ * key of a row of such a column is only decoded the first time its code is
+ * seen.
+ * <p>
+ * COUNT_DISTINCT remembers every (group, value) pair it has seen, so its
+ * memory grows with the number of distinct values rather than of groups.
+ * <p>
+ * The running aggregates of a group can be written out as a partial state
+ * tuple and merged back into a table later, so that aggregations with too
+ * many groups can spill their states to disk. This is not possible for
+ * COUNT_DISTINCT, whose state is its set of values; see {@link #mergeable()}.
+ */
+class AggregateHashTable {
+
+    private static final int EMPTY = -1;
+
+    private final Aggregator.Op[] ops;
+    /** false for the single group of an ungrouped aggregate */
+    private final boolean grouped;
+    /** true if keys are INT_TYPE, stored in intKeys instead of keys */
+    private final boolean intKeyed;
+
+    /** group number in each slot, or EMPTY */
+    private int[] slots;
+    private int mask;
+
+    /**
+     * per group: key and hash of the key; per aggregate and group:
+     * accumulator, and count for AVG
+     */
+    private int[] intKeys;
+    private Field[] keys;
+    private int[] hashes;
+    private long[][] acc;
+    private long[][] counts;
+    /** values seen by each COUNT_DISTINCT, null for the other aggregates */
+    private final DistinctValues[] distinct;
+    private int groups;
+    private int capacity;
+    /** the group of each code of codeDict, or EMPTY if not seen yet */
+    private Dictionary codeDict;
+    private int[] codeGroups;
+
+    /**
+     * @param keyType the type of the group keys, or null for a single group
+     * @param ops     the aggregates to compute; MIN, MAX, SUM, AVG, COUNT
+     *                or COUNT_DISTINCT
+     */
+    AggregateHashTable(Type keyType, Aggregator.Op... ops) {
+        for (Aggregator.Op op : ops) {
+            switch (op) {
+                case MIN: case MAX: case SUM: case AVG: case COUNT: case COUNT_DISTINCT:
+                    break;
+                default:
+                    throw new IllegalArgumentException("unsupported aggregate " + op);
+            }
+        }
+        this.ops = ops.clone();
+        this.grouped = keyType != null;
+        this.intKeyed = keyType == Type.INT_TYPE;
+        slots = new int[64];
+        Arrays.fill(slots, EMPTY);
+        mask = slots.length - 1;
+        capacity = 32;
+        if (intKeyed)
+            intKeys = new int[capacity];
+        else
+            keys = new Field[capacity];
+        hashes = new int[capacity];
+        acc = new long[ops.length][capacity];
+        counts = new long[ops.length][];
+        distinct = new DistinctValues[ops.length];
+        for (int i = 0; i < ops.length; i++) {
+            if (ops[i] == Aggregator.Op.AVG)
+                counts[i] = new long[capacity];
+            if (ops[i] == Aggregator.Op.COUNT_DISTINCT)
+                distinct[i] = new DistinctValues();
+        }
+    }
+
+    /** @return the number of aggregates computed for each group */
+    int numAggregates() {
+        return ops.length;
+    }
+
+    /**
+     * @return true if groups can be written out and merged as partial
+     *         states, which is the case unless there is a COUNT_DISTINCT
+     */
+    boolean mergeable() {
+        for (Aggregator.Op op : ops)
+            if (op == Aggregator.Op.COUNT_DISTINCT)
+                return false;
+        return true;
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the number of the group of an INT key, adding the group if
+     *         it is new
+     */
+    int groupOf(int key) {
+        int hash = mix(key);
+        int slot = hash & mask;
+        int g;
+        while ((g = slots[slot]) != EMPTY) {
+            if (intKeys[g] == key)
+                return g;
+            slot = (slot + 1) & mask;
+        }
+        g = newGroup(slot, hash);
+        intKeys[g] = key;
+        return g;
+    }
+
+    /**
+     * @return the number of the group of a key, adding the group if it is
+     *         new; a null key is the single group of an ungrouped aggregate
+     */
+    int groupOf(Field key) {
+        if (intKeyed)
+            return groupOf(((IntField) key).getValue());
+        int hash = key == null ? 0 : mix(key.hashCode());
+        int slot = hash & mask;
+        int g;
+        while ((g = slots[slot]) != EMPTY) {
+            if (hashes[g] == hash && (key == null ? keys[g] == null : key.equals(keys[g])))
+                return g;
+            slot = (slot + 1) & mask;
+        }
+        g = newGroup(slot, hash);
+        keys[g] = key;
+        return g;
+    }
+
+    private int newGroup(int slot, int hash) {
+        int g = groups++;
+        if (g == capacity) {
+            capacity = g * 2;
+            if (intKeyed)
+                intKeys = Arrays.copyOf(intKeys, capacity);
+            else
+                keys = Arrays.copyOf(keys, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            for (int i = 0; i < ops.length; i++) {
+                acc[i] = Arrays.copyOf(acc[i], capacity);
+                if (counts[i] != null)
+                    counts[i] = Arrays.copyOf(counts[i], capacity);
+            }
+        }
+        hashes[g] = hash;
+        for (int i = 0; i < ops.length; i++) {
+            acc[i][g] = ops[i] == Aggregator.Op.MIN ? Long.MAX_VALUE
+                    : ops[i] == Aggregator.Op.MAX ? Long.MIN_VALUE : 0;
+            if (counts[i] != null)
+                counts[i][g] = 0;
+        }
+        slots[slot] = g;
+        if (groups * 2 > slots.length)
+            rehash(slots.length * 2);
+        return g;
+    }
+
+    /** Adds the value val of aggregate i to group g. */
+    void add(int g, int i, int val) {
+        long[] a = acc[i];
+        switch (ops[i]) {
+            case MIN:
+                if (val < a[g])
+                    a[g] = val;
+                break;
+            case MAX:
+                if (val > a[g])
+                    a[g] = val;
+                break;
+            case SUM:
+                a[g] += val;
+                break;
+            case AVG:
+                a[g] += val;
+                counts[i][g]++;
+                break;
+            case COUNT:
+                a[g]++;
+                break;
+            case COUNT_DISTINCT:
+                if (distinct[i].add(g, val))
+                    a[g]++;
+                break;
+        }
+    }
+
+    /** Adds the value val of a COUNT or COUNT_DISTINCT i of any type to group g. */
+    private void addField(int g, int i, Field val) {
+        if (ops[i] == Aggregator.Op.COUNT)
+            acc[i][g]++;
+        else if (distinct[i].add(g, val))
+            acc[i][g]++;
+    }
+
+    /**
+     * @return the number of the group of a row of a batch whose key column
+     *         is dictionary encoded, adding the group if it is new
+     */
+    private int groupOfCode(TupleBatch batch, int gfield, int row) {
+        Dictionary dict = batch.getDictionary(gfield);
+        int code = batch.getInt(gfield, row);
+        if (dict != codeDict) {
+            codeDict = dict;
+            codeGroups = new int[Math.max(dict.size(), code + 1)];
+            Arrays.fill(codeGroups, EMPTY);
+        } else if (code >= codeGroups.length) {
+            int old = codeGroups.length;
+            codeGroups = Arrays.copyOf(codeGroups, Math.max(old * 2, code + 1));
+            Arrays.fill(codeGroups, old, codeGroups.length, EMPTY);
+        }
+        int g = codeGroups[code];
+        if (g == EMPTY) {
+            g = groupOf(batch.getField(gfield, row));
+            codeGroups[code] = g;
+        }
+        return g;
+    }
+
+    private int groupOf(Tuple t, int gfield) {
+        if (!grouped)
+            return groupOf(null);
+        if (intKeyed)
+            return groupOf(t.getInt(gfield));
+        return groupOf(t.getField(gfield));
+    }
+
+    /**
+     * Adds a tuple to its group.
+     *
+     * @param gfield  the group field of t, ignored without grouping
+     * @param afields the field of t that each aggregate is computed over
+     */
+    void mergeTuple(Tuple t, int gfield, int[] afields) {
+        int g = groupOf(t, gfield);
+        for (int i = 0; i < ops.length; i++) {
+            if (t.getTupleDesc().getFieldType(afields[i]) == Type.INT_TYPE)
+                add(g, i, t.getInt(afields[i]));
+            else
+                addField(g, i, t.getField(afields[i]));
+        }
+    }
+
+    /**
+     * Adds every row of a batch to its group, reading INT keys and values
+     * straight from the int columns of the batch, and the keys of encoded
+     * columns by their codes. The groups of the rows
+     * are found first, then each aggregate runs over its whole column.
+     *
+     * @see #mergeTuple
+     */
+    void mergeBatch(TupleBatch batch, int gfield, int[] afields) {
+        int n = batch.size();
+        int[] rowGroups = new int[n];
+        if (!grouped) {
+            Arrays.fill(rowGroups, groupOf(null));
+        } else if (intKeyed) {
+            int[] keys = batch.intColumn(gfield);
+            for (int row = 0; row < n; row++)
+                rowGroups[row] = groupOf(keys[row]);
+        } else if (batch.isEncoded(gfield)) {
+            for (int row = 0; row < n; row++)
+                rowGroups[row] = groupOfCode(batch, gfield, row);
+        } else {
+            for (int row = 0; row < n; row++)
+                rowGroups[row] = groupOf(batch.getField(gfield, row));
+        }
+        TupleDesc td = batch.getTupleDesc();
+        for (int i = 0; i < ops.length; i++) {
+            if (td.getFieldType(afields[i]) == Type.INT_TYPE) {
+                int[] vals = batch.intColumn(afields[i]);
+                for (int row = 0; row < n; row++)
+                    add(rowGroups[row], i, vals[row]);
+            } else if (ops[i] == Aggregator.Op.COUNT) {
+                for (int row = 0; row < n; row++)
+                    acc[i][rowGroups[row]]++;
+            } else {
+                for (int row = 0; row < n; row++)
+                    addField(rowGroups[row], i, batch.getField(afields[i], row));
+            }
+        }
+    }
+
+    /**
+     * Merges a partial state, as returned by {@link #state}, into the group
+     * of its key.
+     */
+    void mergeState(Tuple state) {
+        int g = grouped ? groupOf(state.getField(0)) : groupOf(null);
+        for (int i = 0; i < ops.length; i++) {
+            int f = 1 + 3 * i;
+            long a = ((long) state.getInt(f) << 32) | (state.getInt(f + 1) & 0xFFFFFFFFL);
+            switch (ops[i]) {
+                case MIN:
+                    acc[i][g] = Math.min(acc[i][g], a);
+                    break;
+                case MAX:
+                    acc[i][g] = Math.max(acc[i][g], a);
+                    break;
+                case AVG:
+                    counts[i][g] += state.getInt(f + 2);
+                    acc[i][g] += a;
+                    break;
+                case COUNT_DISTINCT:
+                    throw new UnsupportedOperationException("COUNT_DISTINCT has no partial state");
+                default:
+                    acc[i][g] += a;
+            }
+        }
+    }
+
+    /**
+     * @param keyType the type of the group keys, or null for a single group
+     * @param n       the number of aggregates
+     * @return the schema of partial states of groups with keys of the given
+     *         type: the key (0 without grouping), then for each aggregate its
+     *         accumulator as two INT halves and the count of AVG
+     */
+    static TupleDesc stateDesc(Type keyType, int n) {
+        Type[] types = new Type[1 + 3 * n];
+        Arrays.fill(types, Type.INT_TYPE);
+        if (keyType != null)
+            types[0] = keyType;
+        return new TupleDesc(types);
+    }
+
+    /**
+     * @param td the schema returned by {@link #stateDesc}
+     * @return the partial state of group g
+     */
+    Tuple state(int g, TupleDesc td) {
+        Tuple t = new Tuple(td);
+        t.setField(0, grouped ? key(g) : new IntField(0));
+        for (int i = 0; i < ops.length; i++) {
+            int f = 1 + 3 * i;
+            t.setField(f, new IntField((int) (acc[i][g] >>> 32)));
+            t.setField(f + 1, new IntField((int) acc[i][g]));
+            t.setField(f + 2, new IntField(counts[i] == null ? 0 : (int) counts[i][g]));
+        }
+        return t;
+    }
+
+    /** Removes all groups. */
+    void clear() {
+        Arrays.fill(slots, EMPTY);
+        if (keys != null)
+            Arrays.fill(keys, 0, groups, null);
+        for (DistinctValues d : distinct)
+            if (d != null)
+                d.clear();
+        groups = 0;
+        codeDict = null;
+        codeGroups = null;
+    }
+
+    /** @return the number of groups */
+    int size() {
+        return groups;
+    }
+
+    /** @return the key of group g, null for the group of an ungrouped aggregate */
+    Field key(int g) {
+        return intKeyed ? new IntField(intKeys[g]) : keys[g];
+    }
+
+    /** @return aggregate i of group g */
+    int result(int g, int i) {
+        if (ops[i] == Aggregator.Op.AVG)
+            return (int) (acc[i][g] / counts[i][g]);
+        return (int) acc[i][g];
+    }
+
+    private void rehash(int size) {
+        slots = new int[size];
+        Arrays.fill(slots, EMPTY);
+        mask = size - 1;
+        for (int g = 0; g < groups; g++) {
+            int slot = hashes[g] & mask;
+            while (slots[slot] != EMPTY)
+                slot = (slot + 1) & mask;
+            slots[slot] = g;
+        }
+    }
+
+    /**
+     * The (group, value) pairs seen by a COUNT_DISTINCT. INT values are
+     * packed with their group into a long in an open-addressing set; other
+     * values go to a HashSet of pairs.
+     */
+    private static class DistinctValues {
+        private static final long FREE = Long.MIN_VALUE;
+
+        private long[] pairs = newPairs(64);
+        private int size;
+        private Set<Object> others = null;
+
+        private static long[] newPairs(int n) {
+            long[] a = new long[n];
+            Arrays.fill(a, FREE);
+            return a;
+        }
+
+        private static int slotOf(long pair, int mask) {
+            long h = pair * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        /** @return true if val had not been seen in group g before */
+        boolean add(int g, int val) {
+            long pair = ((long) g << 32) | (val & 0xFFFFFFFFL);
+            // group numbers are never negative, so no pair is FREE
+            int mask = pairs.length - 1;
+            int slot = slotOf(pair, mask);
+            long p;
+            while ((p = pairs[slot]) != FREE) {
+                if (p == pair)
+                    return false;
+                slot = (slot + 1) & mask;
+            }
+            pairs[slot] = pair;
+            if (++size * 2 > pairs.length)
+                grow();
+            return true;
+        }
+
+        /** @return true if val had not been seen in group g before */
+        boolean add(int g, Field val) {
+            if (val instanceof IntField)
+                return add(g, ((IntField) val).getValue());
+            if (others == null)
+                others = new HashSet<>();
+            return others.add(new AbstractMap.SimpleImmutableEntry<>(g, val));
+        }
+
+        private void grow() {
+            long[] old = pairs;
+            pairs = newPairs(old.length * 2);
+            int mask = pairs.length - 1;
+            for (long p : old) {
+                if (p == FREE)
+                    continue;
+                int slot = slotOf(p, mask);
+                while (pairs[slot] != FREE)
+                    slot = (slot + 1) & mask;
+                pairs[slot] = p;
+            }
+        }
+
+        void clear() {
+            if (size > 0)
+                pairs = newPairs(64);
+            size = 0;
+            others = null;
+        }
+    }
+}
@@ -28,7 +28,12 @@ public interface Aggregator extends Serializable {
          * SC_AVG: compute the avg of a set of SUM_COUNT tuples,
          * will be used to compute distributed avg in lab7.
          * */
-        SC_AVG;
+        SC_AVG,
+        /**
+         * COUNT_DISTINCT: the number of distinct values in a group, as in
+         * COUNT(DISTINCT x).
+         * */
+        COUNT_DISTINCT;
 
         /**
          * Interface to access operations by a string containing an integer
@@ -66,6 +71,8 @@ public interface Aggregator extends Serializable {
         		return "count";
         	if (this==SC_AVG)
     			return "sc_avg";
+        	if (this==COUNT_DISTINCT)
+        		return "count_distinct";
         	throw new IllegalStateException("impossible to reach here");
         }
     }
@@ -79,6 +86,18 @@ public interface Aggregator extends Serializable {
      */
     void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge every row of a batch into the aggregate. The default
+     * implementation materializes each row and calls
+     * {@link #mergeTupleIntoGroup}.
+     *
+     * @param batch the rows containing an aggregate field and a group-by field
+     */
+    default void mergeBatchIntoGroup(TupleBatch batch) {
+        for (int row = 0; row < batch.size(); row++)
+            mergeTupleIntoGroup(batch.getTuple(row));
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see TupleIterator for a possible helper
@@ -0,0 +1,25 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchOpIterator is implemented by operators that can produce their output
+ * a {@link TupleBatch} at a time instead of a Tuple at a time. This saves one
+ * chain of virtual hasNext/next calls per row and lets operators work
+ * directly on primitive column arrays.
+ * <p>
+ * An open iterator should be consumed either through
+ * {@link #nextBatch} or through hasNext/next, not both. Children that do not
+ * implement this interface can be wrapped with {@link RowToBatch#wrap}.
+ */
+public interface BatchOpIterator extends OpIterator {
+
+    /**
+     * Returns the next batch of tuples, or null if the iteration is finished.
+     * A returned batch is never empty.
+     *
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
@@ -0,0 +1,63 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Adapter that drives a BatchOpIterator with {@link BatchOpIterator#nextBatch}
+ * and hands its rows out one Tuple at a time. Placed at the root of a plan it
+ * makes the whole pipeline below it run in batch mode.
+ */
+public class BatchToRow implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchOpIterator child;
+    private TupleBatch batch;
+    private int row;
+
+    public BatchToRow(BatchOpIterator child) {
+        this.child = child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        row = 0;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        while (batch == null || row == batch.size()) {
+            batch = child.nextBatch();
+            row = 0;
+            if (batch == null)
+                return false;
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException("no more tuples");
+        return batch.getTuple(row++);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+        row = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
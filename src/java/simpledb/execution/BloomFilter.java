@@ -0,0 +1,75 @@
+package simpledb.execution;
+
+/**
+ * A blocked Bloom filter over int keys (the hashCode of a Field for other
+ * types). Each key maps to one block of eight 64-bit words, a single cache
+ * line, and sets one bit in each word of it, so adding or testing a key
+ * touches one cache line whatever the size of the filter. With the default
+ * of 16 bits per key, about 0.5% of absent keys pass.
+ * <p>
+ * Filters are filled by one thread and may then be read by any number.
+ */
+public class BloomFilter {
+
+    /** words per block: 8 longs, 64 bytes */
+    private static final int BLOCK_WORDS = 8;
+    /** multipliers picking the bit of each word of a block */
+    private static final int[] SALT = {
+            0x47b6137b, 0x44974d91, 0x8824ad5b, 0xa2b7289d,
+            0x705495c7, 0x2df1424b, 0x9efc4947, 0x5c6bfb31};
+    public static final int DEFAULT_BITS_PER_KEY = 16;
+
+    private final long[] words;
+    private final int blocks;
+
+    /**
+     * @param expectedKeys the number of keys that will be added
+     */
+    public BloomFilter(int expectedKeys) {
+        this(expectedKeys, DEFAULT_BITS_PER_KEY);
+    }
+
+    public BloomFilter(int expectedKeys, int bitsPerKey) {
+        long bits = (long) Math.max(expectedKeys, 1) * bitsPerKey;
+        blocks = (int) Math.max(1, Math.min(Integer.MAX_VALUE / BLOCK_WORDS,
+                (bits + 64 * BLOCK_WORDS - 1) / (64 * BLOCK_WORDS)));
+        words = new long[blocks * BLOCK_WORDS];
+    }
+
+    private static long hash(int key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    /** @return the first word of the block of hash h */
+    private int blockOf(long h) {
+        return (int) (((h >>> 32) * blocks) >>> 32) * BLOCK_WORDS;
+    }
+
+    public void add(int key) {
+        long h = hash(key);
+        int base = blockOf(h);
+        int x = (int) h;
+        for (int i = 0; i < BLOCK_WORDS; i++)
+            words[base + i] |= 1L << ((x * SALT[i]) >>> 26);
+    }
+
+    /**
+     * @return false if key was certainly not added, true if it may have
+     *         been
+     */
+    public boolean mightContain(int key) {
+        long h = hash(key);
+        int base = blockOf(h);
+        int x = (int) h;
+        for (int i = 0; i < BLOCK_WORDS; i++)
+            if ((words[base + i] & (1L << ((x * SALT[i]) >>> 26))) == 0)
+                return false;
+        return true;
+    }
+
+    /** @return the size of the filter in bytes */
+    public int sizeInBytes() {
+        return words.length * 8;
+    }
+}
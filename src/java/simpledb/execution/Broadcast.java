@@ -0,0 +1,67 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleDesc;
+
+/**
+ * One output of a broadcast: every tuple of the inputs is sent to each of n
+ * consumers. Used to replicate the small side of a join to every thread
+ * that probes a part of the large side. {@link #broadcast} returns the n
+ * operators; as the inputs run once for all of them, they cannot be
+ * rewound.
+ */
+public class Broadcast extends Consumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Shuffle shuffle;
+    private final int partition;
+
+    private Broadcast(Shuffle shuffle, int partition) {
+        this.shuffle = shuffle;
+        this.partition = partition;
+    }
+
+    /**
+     * @param n      the number of consumers
+     * @param inputs subplans with the same schema, each run on its own thread
+     * @return n operators that each return the union of the inputs
+     */
+    public static Broadcast[] broadcast(int n, OpIterator... inputs) {
+        Shuffle shuffle = new Shuffle(inputs, -1, n);
+        Broadcast[] parts = new Broadcast[n];
+        for (int i = 0; i < n; i++)
+            parts[i] = new Broadcast(shuffle, i);
+        return parts;
+    }
+
+    public String getName() {
+        return "broadcast[" + partition + "/" + shuffle.partitions + "]";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return shuffle.inputs[0].getTupleDesc();
+    }
+
+    TupleChannel startProducers() {
+        return shuffle.open(partition);
+    }
+
+    void stopProducers() {
+        shuffle.close(partition);
+    }
+
+    public void rewind() throws DbException {
+        throw new DbException("a broadcast cannot be rewound");
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return shuffle.inputs;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        System.arraycopy(children, 0, shuffle.inputs, 0, shuffle.inputs.length);
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+/**
+ * A {@link JoinPredicate} compiled, for the schemas of the two inputs, into
+ * an evaluator specialized for its operator: comparisons of two INT fields
+ * read both values unboxed and compare them without a switch on the
+ * operator. See {@link CompiledPredicate}.
+ */
+public abstract class CompiledJoinPredicate {
+
+    /**
+     * @return true if t1 and t2 satisfy the predicate
+     */
+    public abstract boolean test(Tuple t1, Tuple t2);
+
+    /**
+     * @param td1 the schema of the first tuples the predicate is applied to
+     * @param td2 the schema of the second tuples
+     * @return the evaluator of p
+     */
+    public static CompiledJoinPredicate compile(JoinPredicate p, TupleDesc td1, TupleDesc td2) {
+        int f1 = p.getField1(), f2 = p.getField2();
+        if (td1.getFieldType(f1) == Type.INT_TYPE && td2.getFieldType(f2) == Type.INT_TYPE) {
+            switch (p.getOperator()) {
+                case EQUALS:
+                case LIKE:
+                    return new CompiledJoinPredicate() {
+                        public boolean test(Tuple t1, Tuple t2) {
+                            return t1.getInt(f1) == t2.getInt(f2);
+                        }
+                    };
+                case NOT_EQUALS:
+                    return new CompiledJoinPredicate() {
+                        public boolean test(Tuple t1, Tuple t2) {
+                            return t1.getInt(f1) != t2.getInt(f2);
+                        }
+                    };
+                case GREATER_THAN:
+                    return new CompiledJoinPredicate() {
+                        public boolean test(Tuple t1, Tuple t2) {
+                            return t1.getInt(f1) > t2.getInt(f2);
+                        }
+                    };
+                case GREATER_THAN_OR_EQ:
+                    return new CompiledJoinPredicate() {
+                        public boolean test(Tuple t1, Tuple t2) {
+                            return t1.getInt(f1) >= t2.getInt(f2);
+                        }
+                    };
+                case LESS_THAN:
+                    return new CompiledJoinPredicate() {
+                        public boolean test(Tuple t1, Tuple t2) {
+                            return t1.getInt(f1) < t2.getInt(f2);
+                        }
+                    };
+                case LESS_THAN_OR_EQ:
+                    return new CompiledJoinPredicate() {
+                        public boolean test(Tuple t1, Tuple t2) {
+                            return t1.getInt(f1) <= t2.getInt(f2);
+                        }
+                    };
+            }
+        }
+        Predicate.Op op = p.getOperator();
+        return new CompiledJoinPredicate() {
+            public boolean test(Tuple t1, Tuple t2) {
+                return t1.getField(f1).compare(op, t2.getField(f2));
+            }
+        };
+    }
+}
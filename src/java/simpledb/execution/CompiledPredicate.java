@@ -0,0 +1,425 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link Predicate}, or a conjunction of them, compiled into an evaluator
+ * specialized for its operator and operand type. The operator is resolved
+ * once, when the predicate is compiled, so testing a tuple is a field read
+ * and a single comparison: there is no switch on the operator and no
+ * virtual call to {@link Field#compare} for INT comparisons. Each evaluator
+ * class has its own loop over the int column of a batch, so the JIT sees
+ * one comparison per loop.
+ * <p>
+ * The evaluator classes are written ahead of time, one per operator and
+ * operand type, rather than generated per query and loaded as hidden
+ * classes: the runtime supports that, but the tree has no class-file
+ * writer to produce the bytecode, and the fixed set of operators and types
+ * gives the JIT the same monomorphic code.
+ * <p>
+ * Evaluators are stateless and may be shared between threads.
+ */
+public abstract class CompiledPredicate {
+
+    /**
+     * @return the fields the predicate reads, each once
+     */
+    public abstract int[] getFields();
+
+    /**
+     * @return true if t passes the predicate
+     */
+    public abstract boolean test(Tuple t);
+
+    /**
+     * Keeps the rows of sel[0, n) of batch that pass the predicate.
+     *
+     * @param sel candidate row indices, in order; the passing ones are
+     *            moved to the front, still in order
+     * @return the number of rows that pass
+     */
+    public abstract int refine(TupleBatch batch, int[] sel, int n);
+
+    /**
+     * Tests whether any tuple of a page can pass, given the range of each
+     * of its INT fields (see {@link simpledb.storage.ZoneMap}).
+     *
+     * @param min the minimum of each field over the tuples of the page
+     * @param max the maximum of each field
+     * @return false if no tuple in those ranges passes the predicate
+     */
+    public boolean mayMatch(int[] min, int[] max) {
+        return true;
+    }
+
+    /**
+     * Applies the predicate to every row of a batch.
+     *
+     * @param sel receives the indices of the rows that pass, in order; must
+     *            have room for batch.size() entries
+     * @return the number of rows that pass
+     */
+    public int filter(TupleBatch batch, int[] sel) {
+        int n = batch.size();
+        for (int i = 0; i < n; i++)
+            sel[i] = i;
+        return refine(batch, sel, n);
+    }
+
+    /**
+     * @return the evaluator of p
+     */
+    public static CompiledPredicate compile(Predicate p) {
+        int f = p.getField();
+        Predicate.Op op = p.getOp();
+        Field operand = p.getOperand();
+        if (operand instanceof IntField) {
+            int v = ((IntField) operand).getValue();
+            switch (op) {
+                case EQUALS:
+                case LIKE:
+                    return new IntEquals(f, v);
+                case NOT_EQUALS:
+                    return new IntNotEquals(f, v);
+                case GREATER_THAN:
+                    return new IntGreaterThan(f, v);
+                case GREATER_THAN_OR_EQ:
+                    return new IntGreaterThanOrEq(f, v);
+                case LESS_THAN:
+                    return new IntLessThan(f, v);
+                case LESS_THAN_OR_EQ:
+                    return new IntLessThanOrEq(f, v);
+            }
+        }
+        if (operand instanceof StringField && (op == Predicate.Op.EQUALS || op == Predicate.Op.NOT_EQUALS))
+            return new StringEquals(f, ((StringField) operand).getValue(), op == Predicate.Op.EQUALS);
+        return new FieldCompare(f, op, operand);
+    }
+
+    /**
+     * @return one evaluator for the conjunction of preds, which are tested
+     *         in order
+     */
+    public static CompiledPredicate and(List<Predicate> preds) {
+        if (preds.size() == 1)
+            return compile(preds.get(0));
+        CompiledPredicate[] parts = new CompiledPredicate[preds.size()];
+        for (int i = 0; i < parts.length; i++)
+            parts[i] = compile(preds.get(i));
+        return new And(parts);
+    }
+
+    /**
+     * @return one evaluator for the conjunction of parts, which are tested
+     *         in order
+     */
+    public static CompiledPredicate all(List<? extends CompiledPredicate> parts) {
+        if (parts.size() == 1)
+            return parts.get(0);
+        return new And(parts.toArray(new CompiledPredicate[0]));
+    }
+
+    private static final class And extends CompiledPredicate {
+        private final CompiledPredicate[] parts;
+
+        And(CompiledPredicate[] parts) {
+            this.parts = parts;
+        }
+
+        public int[] getFields() {
+            List<Integer> fields = new ArrayList<>();
+            for (CompiledPredicate p : parts)
+                for (int f : p.getFields())
+                    if (!fields.contains(f))
+                        fields.add(f);
+            int[] out = new int[fields.size()];
+            for (int i = 0; i < out.length; i++)
+                out[i] = fields.get(i);
+            return out;
+        }
+
+        public boolean test(Tuple t) {
+            for (CompiledPredicate p : parts)
+                if (!p.test(t))
+                    return false;
+            return true;
+        }
+
+        public int refine(TupleBatch batch, int[] sel, int n) {
+            for (int i = 0; i < parts.length && n > 0; i++)
+                n = parts[i].refine(batch, sel, n);
+            return n;
+        }
+
+        public boolean mayMatch(int[] min, int[] max) {
+            for (CompiledPredicate p : parts)
+                if (!p.mayMatch(min, max))
+                    return false;
+            return true;
+        }
+    }
+
+    private static final class IntEquals extends CompiledPredicate {
+        private final int field, value;
+
+        IntEquals(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public int[] getFields() {
+            return new int[]{field};
+        }
+
+        public boolean test(Tuple t) {
+            return t.getInt(field) == value;
+        }
+
+        public int refine(TupleBatch batch, int[] sel, int n) {
+            int[] col = batch.intColumn(field);
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (col[row] == value) sel[k++] = row;
+            }
+            return k;
+        }
+
+        public boolean mayMatch(int[] min, int[] max) {
+            return min[field] <= value && value <= max[field];
+        }
+    }
+
+    private static final class IntNotEquals extends CompiledPredicate {
+        private final int field, value;
+
+        IntNotEquals(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public int[] getFields() {
+            return new int[]{field};
+        }
+
+        public boolean test(Tuple t) {
+            return t.getInt(field) != value;
+        }
+
+        public int refine(TupleBatch batch, int[] sel, int n) {
+            int[] col = batch.intColumn(field);
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (col[row] != value) sel[k++] = row;
+            }
+            return k;
+        }
+
+        public boolean mayMatch(int[] min, int[] max) {
+            return min[field] != value || max[field] != value;
+        }
+    }
+
+    private static final class IntGreaterThan extends CompiledPredicate {
+        private final int field, value;
+
+        IntGreaterThan(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public int[] getFields() {
+            return new int[]{field};
+        }
+
+        public boolean test(Tuple t) {
+            return t.getInt(field) > value;
+        }
+
+        public int refine(TupleBatch batch, int[] sel, int n) {
+            int[] col = batch.intColumn(field);
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (col[row] > value) sel[k++] = row;
+            }
+            return k;
+        }
+
+        public boolean mayMatch(int[] min, int[] max) {
+            return max[field] > value;
+        }
+    }
+
+    private static final class IntGreaterThanOrEq extends CompiledPredicate {
+        private final int field, value;
+
+        IntGreaterThanOrEq(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public int[] getFields() {
+            return new int[]{field};
+        }
+
+        public boolean test(Tuple t) {
+            return t.getInt(field) >= value;
+        }
+
+        public int refine(TupleBatch batch, int[] sel, int n) {
+            int[] col = batch.intColumn(field);
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (col[row] >= value) sel[k++] = row;
+            }
+            return k;
+        }
+
+        public boolean mayMatch(int[] min, int[] max) {
+            return max[field] >= value;
+        }
+    }
+
+    private static final class IntLessThan extends CompiledPredicate {
+        private final int field, value;
+
+        IntLessThan(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public int[] getFields() {
+            return new int[]{field};
+        }
+
+        public boolean test(Tuple t) {
+            return t.getInt(field) < value;
+        }
+
+        public int refine(TupleBatch batch, int[] sel, int n) {
+            int[] col = batch.intColumn(field);
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (col[row] < value) sel[k++] = row;
+            }
+            return k;
+        }
+
+        public boolean mayMatch(int[] min, int[] max) {
+            return min[field] < value;
+        }
+    }
+
+    private static final class IntLessThanOrEq extends CompiledPredicate {
+        private final int field, value;
+
+        IntLessThanOrEq(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public int[] getFields() {
+            return new int[]{field};
+        }
+
+        public boolean test(Tuple t) {
+            return t.getInt(field) <= value;
+        }
+
+        public int refine(TupleBatch batch, int[] sel, int n) {
+            int[] col = batch.intColumn(field);
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (col[row] <= value) sel[k++] = row;
+            }
+            return k;
+        }
+
+        public boolean mayMatch(int[] min, int[] max) {
+            return min[field] <= value;
+        }
+    }
+
+    /** = or <> on strings; batches compare the encoded bytes without decoding them */
+    private static final class StringEquals extends CompiledPredicate {
+        private final int field;
+        private final String value;
+        private final byte[] bytes;
+        private final boolean equals;
+
+        StringEquals(int field, String value, boolean equals) {
+            this.field = field;
+            this.value = value;
+            this.bytes = value.getBytes(StringField.CHARSET);
+            this.equals = equals;
+        }
+
+        public int[] getFields() {
+            return new int[]{field};
+        }
+
+        public boolean test(Tuple t) {
+            return value.equals(t.getString(field)) == equals;
+        }
+
+        /** compares the codes of an encoded column with the code of value */
+        public int refine(TupleBatch batch, int[] sel, int n) {
+            int k = 0;
+            if (batch.isEncoded(field)) {
+                int code = batch.getDictionary(field).code(value);
+                int[] col = batch.intColumn(field);
+                for (int i = 0; i < n; i++) {
+                    int row = sel[i];
+                    if ((col[row] == code) == equals) sel[k++] = row;
+                }
+                return k;
+            }
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if ((batch.compareString(field, row, bytes) == 0) == equals) sel[k++] = row;
+            }
+            return k;
+        }
+    }
+
+    /** any other comparison, through Field.compare */
+    private static final class FieldCompare extends CompiledPredicate {
+        private final int field;
+        private final Predicate.Op op;
+        private final Field operand;
+
+        FieldCompare(int field, Predicate.Op op, Field operand) {
+            this.field = field;
+            this.op = op;
+            this.operand = operand;
+        }
+
+        public int[] getFields() {
+            return new int[]{field};
+        }
+
+        public boolean test(Tuple t) {
+            return t.getField(field).compare(op, operand);
+        }
+
+        public int refine(TupleBatch batch, int[] sel, int n) {
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (batch.getField(field, row).compare(op, operand)) sel[k++] = row;
+            }
+            return k;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An exchange read through a {@link TupleChannel} that producer tasks fill
+ * from other threads. Subclasses decide which producers feed the channel.
+ */
+public abstract class Consumer extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient TupleChannel channel = null;
+    private transient List<Tuple> batch = null;
+    private transient int pos;
+
+    /**
+     * Starts the producers of this exchange.
+     *
+     * @return the channel they write the tuples of this consumer to
+     */
+    abstract TupleChannel startProducers() throws DbException,
+            TransactionAbortedException;
+
+    /**
+     * Called after the channel has been cancelled; returns once the
+     * producers no longer use their inputs.
+     */
+    abstract void stopProducers();
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        channel = startProducers();
+        batch = null;
+        super.open();
+    }
+
+    private void stop() {
+        if (channel != null) {
+            channel.cancel();
+            stopProducers();
+        }
+        channel = null;
+        batch = null;
+    }
+
+    public void close() {
+        super.close();
+        stop();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        channel = startProducers();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || pos == batch.size()) {
+            batch = channel.take();
+            pos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.get(pos++);
+    }
+}
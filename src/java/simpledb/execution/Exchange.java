@@ -0,0 +1,138 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Base class of the operators that move tuples between threads, so that
+ * parts of a plan run in parallel. The subplans below an exchange are run
+ * by producer tasks on a shared thread pool; the exchange operator itself
+ * is read by a single consumer. See {@link Gather}, {@link HashPartition}
+ * and {@link Broadcast}.
+ * <p>
+ * The pool grows as needed, so exchanges nested in the subplans of other
+ * exchanges cannot starve each other of threads; the degree of parallelism
+ * is set by how many subplans the planner creates, {@link #getParallelism()}
+ * by default.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ExecutorService pool = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "simpledb-exchange-" + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @return the number of threads the planner splits large scans, joins
+     *         and aggregations into
+     */
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of threads the planner uses for one operator; 1 turns
+     * parallel plans off.
+     */
+    public static void setParallelism(int n) {
+        parallelism = Math.max(1, n);
+    }
+
+    /**
+     * @return a short description of this exchange, shown in query plans
+     */
+    public abstract String getName();
+
+    /**
+     * @return the output partition, out of n, of the tuple t when
+     *         partitioning on field. Equal keys of INT or STRING type always
+     *         go to the same partition, whichever input they come from.
+     */
+    static int partitionOf(Tuple t, int field, int n) {
+        int h = t.getTupleDesc().getFieldType(field) == Type.INT_TYPE
+                ? t.getInt(field)
+                : t.getField(field).hashCode();
+        // mixed differently from the partitioning of HashEquiJoin, so that a
+        // join of one partition still spreads over its spill files
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return Math.floorMod(h, n);
+    }
+
+    /**
+     * Starts a task that reads all of input and sends every tuple to
+     * outputs[0] if there is one output, to outputs[partitionOf(t, field)]
+     * if field is not negative, and to all outputs otherwise.
+     */
+    static Future<?> startProducer(OpIterator input, TupleChannel[] outputs, int field) {
+        return pool.submit(() -> produce(input, outputs, field));
+    }
+
+    private static void produce(OpIterator input, TupleChannel[] outputs, int field) {
+        int n = outputs.length;
+        List<List<Tuple>> batches = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            batches.add(new ArrayList<>(TupleChannel.BATCH_SIZE));
+        try {
+            try {
+                input.open();
+                while (input.hasNext() && !allCancelled(outputs)) {
+                    Tuple t = input.next();
+                    if (n == 1 || field >= 0) {
+                        int out = n == 1 ? 0 : partitionOf(t, field, n);
+                        append(batches, outputs, out, t);
+                    } else {
+                        for (int out = 0; out < n; out++)
+                            append(batches, outputs, out, t);
+                    }
+                }
+                for (int out = 0; out < n; out++)
+                    if (!batches.get(out).isEmpty())
+                        outputs[out].put(batches.get(out));
+            } finally {
+                input.close();
+            }
+            for (TupleChannel c : outputs)
+                c.producerDone();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            try {
+                for (TupleChannel c : outputs)
+                    c.fail(e);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void append(List<List<Tuple>> batches, TupleChannel[] outputs,
+                                    int out, Tuple t) throws InterruptedException {
+        List<Tuple> batch = batches.get(out);
+        batch.add(t);
+        if (batch.size() == TupleChannel.BATCH_SIZE) {
+            outputs[out].put(batch);
+            batches.set(out, new ArrayList<>(TupleChannel.BATCH_SIZE));
+        }
+    }
+
+    private static boolean allCancelled(TupleChannel[] outputs) {
+        for (TupleChannel c : outputs)
+            if (!c.isCancelled())
+                return false;
+        return true;
+    }
+}
@@ -10,14 +10,25 @@ import java.util.*;
 
 /**
  * Filter is an operator that implements a relational select.
+ * <p>
+ * A chain of Filters directly above each other is run as one: when opened,
+ * the top Filter compiles the predicates of the whole chain into a single
+ * {@link CompiledPredicate} and reads the child of the bottom Filter
+ * itself, so a tuple goes through one evaluator instead of one operator
+ * per predicate. The Filters below it are left closed; the plan keeps its
+ * shape for the optimizer and for explain.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
     private Predicate p;
     private OpIterator children[];
     private OpIterator child;
+    private transient int[] sel;
+    /** the input below the chain of Filters this Filter runs, and their conjunction */
+    private transient OpIterator input;
+    private transient CompiledPredicate pred;
     // private Iterator<Tuple> it;
 
     /**
@@ -53,24 +64,36 @@ public class Filter extends Operator {
             TransactionAbortedException {
         // some code goes here
         super.open();
-        child.open();
+        List<Predicate> preds = new ArrayList<>();
+        preds.add(p);
+        input = child;
+        while (input instanceof Filter) {
+            Filter f = (Filter) input;
+            preds.add(0, f.getPredicate());
+            input = f.getChildren()[0];
+        }
+        pred = CompiledPredicate.and(preds);
+        input.open();
     }
 
     public void close() {
         // some code goes here
-        child.close();
+        if (input != null)
+            input.close();
+        input = null;
         super.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        child.rewind();
+        input.rewind();
     }
 
     /**
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
      * child operator, applying the predicate to them and returning those that
-     * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * pass the predicate (i.e. for which the Predicate.filter() returns true),
+     * and those of the Filters below it.
      * 
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
@@ -81,15 +104,34 @@ public class Filter extends Operator {
         // some code goes here
         // if(child == null) return null;
         
-        while(child.hasNext()){
-            Tuple t = child.next();
-            if(p.filter(t)){
+        while(input.hasNext()){
+            Tuple t = input.next();
+            if(pred.test(t)){
                 return t;
             }
         }
         return null;
     }
 
+    /**
+     * Filters the child a batch at a time, see {@link CompiledPredicate#filter}.
+     *
+     * @return the next non-empty batch of tuples that pass the predicate, or
+     *         null if there are no more tuples
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        BatchOpIterator in = RowToBatch.wrap(input);
+        TupleBatch b;
+        while ((b = in.nextBatch()) != null) {
+            if (sel == null || sel.length < b.size())
+                sel = new int[b.capacity()];
+            int n = pred.filter(b, sel);
+            if (n > 0)
+                return b.select(sel, n);
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
@@ -101,6 +143,7 @@ public class Filter extends Operator {
     public void setChildren(OpIterator[] children) {
         // some code goes here
         this.children = children;
+        this.child = children[0];
     }
 
 }
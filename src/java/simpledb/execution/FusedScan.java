@@ -0,0 +1,77 @@
+package simpledb.execution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A SeqScan, the Filters above it and optionally a Project, run as one
+ * scan. Instead of each tuple going through the hasNext/next calls of three
+ * operators, the predicates and the projection are folded into the scan
+ * itself (see {@link SeqScan#addPredicate} and {@link SeqScan#setOutFields}),
+ * whose file iterator walks the stored tuples of each page in one loop,
+ * tests them with the compiled conjunction of the predicates (see
+ * {@link CompiledPredicate}) and copies only the projected fields of those
+ * that pass. Batches are filled straight from the pages.
+ * <p>
+ * A FusedScan is a SeqScan of the same table and pages as the scan it
+ * replaces, so reading it costs no more than reading a scan with the same
+ * pushdowns; the scan it replaces is left as it was. The planner builds
+ * FusedScans out of the pipelines of a finished plan; see
+ * {@link simpledb.optimizer.LogicalPlan#physicalPlan}.
+ */
+public class FusedScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Predicate> fusedPredicates;
+    /** the field of the replaced scan for each output field */
+    private final int[] fusedFields;
+
+    /**
+     * @param scan       the scan to replace; it must not return record ids
+     * @param predicates the predicates the tuples must pass, applied in
+     *                   order, over the fields of scan
+     * @param outFields  the fields of scan to return, or null for all of
+     *                   them
+     */
+    public FusedScan(SeqScan scan, List<Predicate> predicates, int[] outFields) {
+        super(scan.getTransactionId(), scan.getTableId(), scan.getAlias(),
+                scan.getFromPage(), scan.getToPage());
+        if (scan.hasRidField())
+            throw new IllegalArgumentException("cannot fuse a scan that returns record ids");
+        this.fusedPredicates = new ArrayList<>(predicates);
+        int numFields = scan.getTupleDesc().numFields();
+        if (outFields == null) {
+            outFields = new int[numFields];
+            for (int i = 0; i < outFields.length; i++)
+                outFields[i] = i;
+        }
+        this.fusedFields = outFields.clone();
+
+        // the fields of scan are fields of the table, possibly projected
+        int[] tableFields = scan.getOutFields();
+        if (tableFields == null) {
+            tableFields = new int[numFields];
+            for (int i = 0; i < tableFields.length; i++)
+                tableFields[i] = i;
+        }
+        pushDown(scan);
+        for (Predicate p : predicates)
+            addPredicate(new Predicate(tableFields[p.getField()], p.getOp(), p.getOperand()));
+        int[] fields = new int[outFields.length];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = tableFields[outFields[i]];
+        setOutFields(fields);
+    }
+
+    /** @return the fused predicates, in order, over the replaced scan */
+    public List<Predicate> getFusedPredicates() {
+        return Collections.unmodifiableList(fusedPredicates);
+    }
+
+    /** @return the field of the replaced scan for each output field */
+    public int[] getFusedFields() {
+        return fusedFields.clone();
+    }
+}
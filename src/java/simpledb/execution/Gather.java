@@ -0,0 +1,81 @@
+package simpledb.execution;
+
+import simpledb.storage.TupleDesc;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Gather runs each of its children on its own thread and returns the union
+ * of their tuples, in no particular order. The children are typically the
+ * same subplan over different parts of the input, such as the page ranges
+ * of {@link SeqScan#split}, or over the partitions of a
+ * {@link HashPartition}.
+ */
+public class Gather extends Consumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator[] children;
+    private final TupleDesc td;
+    private transient Future<?>[] tasks = null;
+
+    /**
+     * @param children subplans with the same schema, to run in parallel
+     */
+    public Gather(OpIterator... children) {
+        if (children.length == 0)
+            throw new IllegalArgumentException("nothing to gather");
+        this.children = children;
+        this.td = children[0].getTupleDesc();
+        for (OpIterator child : children)
+            if (!child.getTupleDesc().equals(td))
+                throw new IllegalArgumentException("children of a gather differ in schema");
+    }
+
+    public String getName() {
+        return "gather(" + children.length + ")";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    TupleChannel startProducers() {
+        TupleChannel channel = new TupleChannel(children.length);
+        tasks = new Future<?>[children.length];
+        for (int i = 0; i < children.length; i++)
+            tasks[i] = startProducer(children[i], new TupleChannel[]{channel}, -1);
+        return channel;
+    }
+
+    void stopProducers() {
+        if (tasks != null)
+            awaitAll(tasks);
+        tasks = null;
+    }
+
+    /** Waits for the given producer tasks to finish; they report errors through their channels */
+    static void awaitAll(Future<?>[] tasks) {
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return children;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.children = children;
+    }
+}
@@ -1,7 +1,13 @@
 package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.CompactTuple;
+import simpledb.storage.Dictionary;
+import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -9,8 +15,27 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * child1 is the build side. If it has more tuples than the memory budget,
+ * both children are hash partitioned into {@link #FANOUT} spill files each
+ * and matching partition pairs are joined one at a time (a grace hash join).
+ * A partition that is still too large is partitioned again on other bits of
+ * the hash, up to {@link #MAX_LEVEL} levels deep; past that (e.g. one key
+ * with more duplicates than the budget) the pair is joined chunk by chunk,
+ * rescanning the probe partition once per chunk.
+ * <p>
+ * When child2 is a heap file scan, the join can push a Bloom filter of its
+ * build keys down into it (see {@link #pushDownJoinFilter}), so that probe
+ * tuples without a match are dropped by the scan. The filter is built
+ * once the build side is loaded, before child2 is opened, and only if all
+ * of child1 fits in memory.
+ * <p>
+ * A batch of child2 rows whose join field is dictionary encoded (see
+ * {@link TupleBatch#isEncoded}) is probed by code: the build tuples matching
+ * each code are looked up once per code and remembered until the next block
+ * of child1 is loaded.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchOpIterator, JoinOperator {
 
     private static final long serialVersionUID = 1L;
     private final JoinPredicate pred;
@@ -19,6 +44,21 @@ public class HashEquiJoin extends Operator {
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
+    /** Maximum number of build tuples held in memory at once */
+    private int memoryBudget = MAP_SIZE;
+    /** Partitioning depth of this join, 0 for the top level */
+    private final int level;
+    transient private SpillFile[] leftParts = null;
+    transient private SpillFile[] rightParts = null;
+    transient private int part;
+    /** join of the current partition pair */
+    transient private HashEquiJoin current = null;
+    /** the filter pushed into the scan of child2, or null */
+    private JoinFilter probeFilter = null;
+    /** the build tuples matching each code of codeDict, null if not looked up yet */
+    transient private Dictionary codeDict = null;
+    transient private List<List<Tuple>> codeMatches = null;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -31,16 +71,84 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, 0);
+    }
+
+    private HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int level) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.level = level;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
+    /**
+     * Sets how many tuples of child1 may be held in memory before the join
+     * spills both inputs to disk. Takes effect at the next open().
+     */
+    public void setMemoryBudget(int tuples) {
+        this.memoryBudget = Math.max(1, tuples);
+    }
+
+    public int getMemoryBudget() {
+        return memoryBudget;
+    }
+
     public JoinPredicate getJoinPredicate() {
         return pred;
     }
 
+    /**
+     * Pushes a Bloom filter of the join keys of child1 down into child2, if
+     * it is a heap file scan, possibly under Filters or fused with them into
+     * a {@link FusedScan}, that returns its join field from the table. Call
+     * before open().
+     *
+     * @return true if a filter was pushed down
+     */
+    public boolean pushDownJoinFilter() {
+        if (pred.getOperator() != Predicate.Op.EQUALS || probeFilter != null)
+            return false;
+        OpIterator probe = child2;
+        while (probe instanceof Filter)
+            probe = ((Filter) probe).getChildren()[0];
+        if (!(probe instanceof SeqScan))
+            return false;
+        SeqScan scan = (SeqScan) probe;
+        int key = pred.getField2();
+        int[] outFields = scan.getOutFields();
+        int tableFields = Database.getCatalog().getTupleDesc(scan.getTableId()).numFields();
+        if (outFields != null)
+            key = key < outFields.length ? outFields[key] : -1;
+        else if (key >= tableFields)
+            key = -1;
+        if (key < 0) // the record id field
+            return false;
+        probeFilter = new JoinFilter(key, child2.getTupleDesc().getFieldType(pred.getField2()));
+        scan.addJoinFilter(probeFilter);
+        return true;
+    }
+
+    /** @return the filter pushed down into child2, or null */
+    public JoinFilter getJoinFilter() {
+        return probeFilter;
+    }
+
+    /** @return a Bloom filter of the keys of the build tuples loaded */
+    private BloomFilter buildFilter() {
+        BloomFilter f;
+        if (intMap != null) {
+            f = new BloomFilter(intMap.size());
+            for (int row = 0; row < intMap.size(); row++)
+                f.add(intRows[row].getInt(pred.getField1()));
+        } else {
+            f = new BloomFilter(map.size());
+            for (Object key : map.keySet())
+                f.add(key.hashCode());
+        }
+        return f;
+    }
+
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
@@ -58,44 +166,248 @@ public class HashEquiJoin extends Operator {
     final Map<Object, List<Tuple>> map = new HashMap<>();
     public final static int MAP_SIZE = 20000;
 
+    /** Used instead of map when both join fields are INT_TYPE */
+    transient private IntHashTable intMap = null;
+    /** build tuples, indexed by their IntHashTable row number */
+    transient private Tuple[] intRows = null;
+    /** next matching row in intMap, or -1 */
+    transient private int intMatch = -1;
+
+    /** Bits of the key hash consumed by each level of partitioning */
+    private final static int PARTITION_BITS = 4;
+    /** Number of partitions each input is split into when spilling */
+    public final static int FANOUT = 1 << PARTITION_BITS;
+    /** Number of times an input may be repartitioned */
+    public final static int MAX_LEVEL = 4;
+
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
+        codeDict = null;
+        codeMatches = null;
+        if (intMap != null)
+            intMap.clear();
         while (child1.hasNext()) {
             t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
+            if (intMap != null) {
+                int row = intMap.add(t1.getInt(pred.getField1()));
+                if (row == intRows.length)
+                    intRows = Arrays.copyOf(intRows, row * 2);
+                intRows[row] = t1;
+            } else {
+                List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
+                list.add(t1);
+            }
+            if (++cnt == memoryBudget)
                 return true;
         }
         return cnt > 0;
 
     }
 
+    /**
+     * Looks up the build tuples matching an INT_TYPE probe key.
+     *
+     * @return true if there is at least one
+     */
+    private boolean findMatches(int key) {
+        intMatch = intMap.first(key);
+        return intMatch >= 0;
+    }
+
+    /**
+     * Looks up the build tuples matching a probe key.
+     *
+     * @return true if there is at least one
+     */
+    private boolean findMatches(Field key) {
+        List<Tuple> l = map.get(key);
+        listIt = l == null ? null : l.iterator();
+        return listIt != null;
+    }
+
+    /**
+     * Looks up the build tuples matching the join field of a probe row.
+     *
+     * @return true if there is at least one
+     */
+    private boolean findMatches(TupleBatch probe, int row) {
+        int f = pred.getField2();
+        if (intMap != null)
+            return findMatches(probe.getInt(f, row));
+        if (!probe.isEncoded(f))
+            return findMatches(probe.getField(f, row));
+        Dictionary dict = probe.getDictionary(f);
+        int code = probe.getInt(f, row);
+        if (dict != codeDict) {
+            codeDict = dict;
+            codeMatches = new ArrayList<>(Math.max(dict.size(), code + 1));
+        }
+        while (code >= codeMatches.size())
+            codeMatches.add(null);
+        List<Tuple> l = codeMatches.get(code);
+        if (l == null) {
+            l = map.get(probe.getField(f, row));
+            if (l == null)
+                l = Collections.emptyList();
+            codeMatches.set(code, l);
+        }
+        listIt = l.isEmpty() ? null : l.iterator();
+        return listIt != null;
+    }
+
+    private boolean hasMatch() {
+        if (intMap != null)
+            return intMatch >= 0;
+        return listIt != null && listIt.hasNext();
+    }
+
+    private Tuple nextMatch() {
+        if (intMap != null) {
+            Tuple t = intRows[intMatch];
+            intMatch = intMap.next(intMatch);
+            return t;
+        }
+        return listIt.next();
+    }
+
+    /**
+     * Each level takes a different group of bits of the same hash, so a
+     * partition repartitioned at the next level splits evenly again.
+     */
+    private int partitionOf(Tuple t, int field) {
+        int h = t.getTupleDesc().getFieldType(field) == Type.INT_TYPE
+                ? t.getInt(field) // same as IntField.hashCode
+                : t.getField(field).hashCode();
+        h *= 0x9E3779B9;
+        return (h >>> (32 - PARTITION_BITS * (level + 1))) & (FANOUT - 1);
+    }
+
+    /**
+     * Writes the build tuples loaded so far, the rest of child1 and all of
+     * child2 to partition files.
+     */
+    private void partition() throws DbException, TransactionAbortedException {
+        leftParts = new SpillFile[FANOUT];
+        rightParts = new SpillFile[FANOUT];
+        for (int i = 0; i < FANOUT; i++) {
+            leftParts[i] = new SpillFile(child1.getTupleDesc());
+            rightParts[i] = new SpillFile(child2.getTupleDesc());
+        }
+        if (intMap != null) {
+            for (int row = 0; row < intMap.size(); row++)
+                leftParts[partitionOf(intRows[row], pred.getField1())].add(intRows[row]);
+            intMap = null;
+            intRows = null;
+        }
+        for (List<Tuple> list : map.values())
+            for (Tuple t : list)
+                leftParts[partitionOf(t, pred.getField1())].add(t);
+        map.clear();
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            leftParts[partitionOf(t, pred.getField1())].add(t);
+        }
+        while (child2.hasNext()) {
+            Tuple t = child2.next();
+            rightParts[partitionOf(t, pred.getField2())].add(t);
+        }
+        part = -1;
+    }
+
+    /**
+     * Moves current to the join of the next pair of partitions that can
+     * produce output.
+     *
+     * @return false if there are no more partitions
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        while (++part < FANOUT) {
+            if (leftParts[part].size() == 0 || rightParts[part].size() == 0)
+                continue;
+            current = new HashEquiJoin(pred, leftParts[part].iterator(),
+                    rightParts[part].iterator(), level + 1);
+            current.memoryBudget = memoryBudget;
+            current.open();
+            return true;
+        }
+        return false;
+    }
+
+    private void deletePartitions() {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        if (leftParts != null) {
+            for (int i = 0; i < FANOUT; i++) {
+                leftParts[i].delete();
+                rightParts[i].delete();
+            }
+        }
+        leftParts = null;
+        rightParts = null;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        if (probeFilter != null)
+            probeFilter.publish(null);
         child1.open();
-        child2.open();
+        if (child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE) {
+            intMap = new IntHashTable(Math.min(memoryBudget, 1024));
+            intRows = new Tuple[Math.min(memoryBudget, 1024)];
+        }
         loadMap();
+        // the filter must hold every key of child1; child2 is opened after
+        // it is published so that the scan drops tuples from the start
+        if (probeFilter != null && !child1.hasNext())
+            probeFilter.publish(buildFilter());
+        child2.open();
+        if (child1.hasNext() && level < MAX_LEVEL)
+            partition();
         super.open();
     }
 
     public void close() {
         super.close();
+        deletePartitions();
         child2.close();
         child1.close();
         this.t1=null;
         this.t2=null;
         this.listIt=null;
+        this.probe=null;
         this.map.clear();
+        this.intMap=null;
+        this.intRows=null;
+        this.intMatch=-1;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        listIt = null;
+        intMatch = -1;
+        probe = null;
+        if (leftParts != null) {
+            if (current != null)
+                current.close();
+            current = null;
+            part = -1;
+            return;
+        }
         child1.rewind();
         child2.rewind();
+        loadMap();
     }
 
     transient Iterator<Tuple> listIt = null;
+    transient private TupleBatch probe = null;
+    transient private int probeRow = 0;
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -116,23 +428,23 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     private Tuple processList() {
-        t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
+        t1 = nextMatch();
 
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+        // copy both tuples' bytes into the combined tuple
+        return CompactTuple.concat(comboTD, t1, t2);
 
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
+        if (leftParts != null) {
+            while (current == null || !current.hasNext()) {
+                if (!nextPartition())
+                    return null;
+            }
+            return current.next();
+        }
+
+        if (hasMatch()) {
             return processList();
         }
 
@@ -142,24 +454,68 @@ public class HashEquiJoin extends Operator {
 
             // if match, create a combined tuple and fill it with the values
             // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+            boolean found = intMap != null
+                    ? findMatches(t2.getInt(pred.getField2()))
+                    : findMatches(t2.getField(pred.getField2()));
+            if (!found)
                 continue;
-            listIt = l.iterator();
 
             return processList();
 
         }
 
-        // child2 is done: advance child1
-        child2.rewind();
+        // child2 is done: advance child1, and probe with child2 again only
+        // if there is another block of it (child2 may be an exchange that
+        // cannot be rewound)
         if (loadMap()) {
+            child2.rewind();
             return fetchNext();
         }
 
         return null;
     }
 
+    /**
+     * Probes the in-memory table with a batch of child2 rows at a time. The
+     * build side (child1) is still loaded tuple by tuple by loadMap.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (leftParts != null) {
+            while (true) {
+                if (current != null) {
+                    TupleBatch b = current.nextBatch();
+                    if (b != null)
+                        return b;
+                }
+                if (!nextPartition())
+                    return null;
+            }
+        }
+
+        BatchOpIterator in = RowToBatch.wrap(child2);
+        TupleBatch out = new TupleBatch(comboTD);
+        while (!out.isFull()) {
+            if (hasMatch()) {
+                out.addJoinedRow(nextMatch(), probe, probeRow);
+                continue;
+            }
+            if (probe == null || probeRow + 1 >= probe.size()) {
+                probe = in.nextBatch();
+                probeRow = -1;
+                if (probe == null) {
+                    // child2 is done: advance child1
+                    if (!loadMap())
+                        break;
+                    child2.rewind();
+                    continue;
+                }
+            }
+            probeRow++;
+            findMatches(probe, probeRow);
+        }
+        return out.size() > 0 ? out : null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child1, this.child2};
@@ -0,0 +1,80 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleDesc;
+
+/**
+ * One output of a hash repartitioning. The tuples of all inputs are split
+ * into n partitions by the hash of one field, so that equal keys from any
+ * input meet in the same partition; {@link #partition} returns the n
+ * operators that read them. Each partition is then typically joined or
+ * aggregated on its own thread under a {@link Gather}.
+ * <p>
+ * The inputs run once for all partitions, so a partition cannot be
+ * rewound, and the partitions must be read concurrently: a producer waits
+ * while the channel of any partition is full.
+ */
+public class HashPartition extends Consumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Shuffle shuffle;
+    private final int partition;
+
+    private HashPartition(Shuffle shuffle, int partition) {
+        this.shuffle = shuffle;
+        this.partition = partition;
+    }
+
+    /**
+     * @param field  the field to partition on
+     * @param n      the number of partitions
+     * @param inputs subplans with the same schema, each run on its own thread
+     * @return the n partitions of the union of the inputs
+     */
+    public static HashPartition[] partition(int field, int n, OpIterator... inputs) {
+        Shuffle shuffle = new Shuffle(inputs, field, n);
+        HashPartition[] parts = new HashPartition[n];
+        for (int i = 0; i < n; i++)
+            parts[i] = new HashPartition(shuffle, i);
+        return parts;
+    }
+
+    /**
+     * @return the field the tuples are partitioned on
+     */
+    public int getField() {
+        return shuffle.field;
+    }
+
+    public String getName() {
+        return "hash(" + getTupleDesc().getFieldName(shuffle.field) + ")["
+                + partition + "/" + shuffle.partitions + "]";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return shuffle.inputs[0].getTupleDesc();
+    }
+
+    TupleChannel startProducers() {
+        return shuffle.open(partition);
+    }
+
+    void stopProducers() {
+        shuffle.close(partition);
+    }
+
+    public void rewind() throws DbException {
+        throw new DbException("a hash partition cannot be rewound");
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return shuffle.inputs;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        System.arraycopy(children, 0, shuffle.inputs, 0, shuffle.inputs.length);
+    }
+}
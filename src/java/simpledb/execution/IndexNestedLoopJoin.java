@@ -0,0 +1,146 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.CompactTuple;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Index nested-loop equi-join. The inner relation is a B+ tree keyed on its
+ * join field; instead of scanning it, each outer tuple is looked up with
+ * {@link BTreeFile#indexIterator(simpledb.transaction.TransactionId, IndexPredicate, Map)}.
+ * The root pointer and internal pages are cached across lookups, so a probe
+ * costs about one leaf page read, which makes this the cheapest join when the
+ * outer input is small compared to the inner table.
+ * <p>
+ * The inner BTreeScan only describes the table: it is never opened. If it
+ * has an index predicate, that predicate is applied to the matches.
+ */
+public class IndexNestedLoopJoin extends Operator implements JoinOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1;
+    private BTreeScan child2;
+    private final TupleDesc comboTD;
+
+    transient private BTreeFile file = null;
+    /** internal pages read by the probes of this open() */
+    transient private Map<PageId, Page> pageCache = null;
+    transient private Tuple t1 = null;
+    transient private DbFileIterator matches = null;
+
+    /**
+     * Constructor.
+     *
+     * @param p      The predicate to use to join the children; must be EQUALS
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Scan of the right(inner) relation, whose key field must
+     *               be the join field of p
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, BTreeScan child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("index nested-loop join needs an EQUALS predicate");
+        if (p.getField2() != child2.getKeyField())
+            throw new IllegalArgumentException("inner relation is not indexed on its join field");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        file = (BTreeFile) Database.getCatalog().getDatabaseFile(child2.getTableId());
+        pageCache = new HashMap<>();
+        t1 = null;
+        super.open();
+    }
+
+    private void closeMatches() {
+        if (matches != null)
+            matches.close();
+        matches = null;
+    }
+
+    public void close() {
+        super.close();
+        closeMatches();
+        child1.close();
+        pageCache = null;
+        file = null;
+        t1 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeMatches();
+        child1.rewind();
+        t1 = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Tuples come out in outer order.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        IndexPredicate filter = child2.getIndexPredicate();
+        while (true) {
+            if (matches != null) {
+                while (matches.hasNext()) {
+                    Tuple t2 = matches.next();
+                    if (filter == null || t2.getField(pred.getField2())
+                            .compare(filter.getOp(), filter.getField()))
+                        return CompactTuple.concat(comboTD, t1, t2);
+                }
+                closeMatches();
+            }
+            if (!child1.hasNext())
+                return null;
+            t1 = child1.next();
+            matches = file.indexIterator(child2.getTransactionId(),
+                    new IndexPredicate(Predicate.Op.EQUALS, t1.getField(pred.getField1())),
+                    pageCache);
+            matches.open();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = (BTreeScan) children[1];
+    }
+}
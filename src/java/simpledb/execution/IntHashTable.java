@@ -0,0 +1,120 @@
+package simpledb.execution;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing multimap from int keys to row numbers, used by
+ * HashEquiJoin for INT_TYPE join keys instead of a HashMap of IntFields.
+ * <p>
+ * Rows are numbered 0, 1, 2, ... in the order they are added, so the caller
+ * keeps the row payloads in a plain array. Distinct keys live in a
+ * linear-probing table of parallel int arrays; the rows sharing a key are
+ * chained through a per-row int array. Adding and looking up keys allocates
+ * nothing except when an array has to grow.
+ */
+class IntHashTable {
+
+    private static final int EMPTY = -1;
+
+    /** key stored in each slot */
+    private int[] keys;
+    /** most recently added row for the key in each slot, or EMPTY */
+    private int[] heads;
+    /** for each row, the previously added row with the same key, or EMPTY */
+    private int[] chain;
+    private int mask;
+    private int usedSlots;
+    private int rows;
+
+    IntHashTable() {
+        this(1024);
+    }
+
+    /**
+     * @param expectedRows hint for the number of rows that will be added
+     */
+    IntHashTable(int expectedRows) {
+        int slots = Integer.highestOneBit(Math.max(expectedRows, 8) * 2 - 1) << 1;
+        keys = new int[slots];
+        heads = new int[slots];
+        Arrays.fill(heads, EMPTY);
+        chain = new int[Math.max(expectedRows, 8)];
+        mask = slots - 1;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** @return the slot holding key, or the empty slot where it would go */
+    private int slotOf(int key) {
+        int slot = hash(key) & mask;
+        while (heads[slot] != EMPTY && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * Adds a row with the given key.
+     *
+     * @return the number of the new row
+     */
+    int add(int key) {
+        if ((usedSlots + 1) * 2 > keys.length)
+            rehash(keys.length * 2);
+        if (rows == chain.length)
+            chain = Arrays.copyOf(chain, rows * 2);
+        int slot = slotOf(key);
+        if (heads[slot] == EMPTY) {
+            keys[slot] = key;
+            usedSlots++;
+        }
+        chain[rows] = heads[slot];
+        heads[slot] = rows;
+        return rows++;
+    }
+
+    /**
+     * @return some row added with the given key, or -1 if there is none.
+     *         Use {@link #next} to get the others.
+     */
+    int first(int key) {
+        return heads[slotOf(key)];
+    }
+
+    /**
+     * @return another row with the same key as row, or -1 if there are no
+     *         more
+     */
+    int next(int row) {
+        return chain[row];
+    }
+
+    /** @return the number of rows added since the last clear */
+    int size() {
+        return rows;
+    }
+
+    void clear() {
+        Arrays.fill(heads, EMPTY);
+        usedSlots = 0;
+        rows = 0;
+    }
+
+    private void rehash(int slots) {
+        int[] oldKeys = keys;
+        int[] oldHeads = heads;
+        keys = new int[slots];
+        heads = new int[slots];
+        Arrays.fill(heads, EMPTY);
+        mask = slots - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldHeads[i] == EMPTY)
+                continue;
+            int slot = slotOf(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            heads[slot] = oldHeads[i];
+        }
+    }
+}
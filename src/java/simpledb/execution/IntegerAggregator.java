@@ -1,17 +1,13 @@
 package simpledb.execution;
 
-import javax.lang.model.element.TypeElement;
-
 import simpledb.common.Type;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
-import simpledb.storage.Field;
 import simpledb.storage.IntField;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.concurrent.ConcurrentHashMap;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 
@@ -20,30 +16,14 @@ import simpledb.common.DbException;
  */
 public class IntegerAggregator implements Aggregator {
 
-    private class Group {
-        public Field key; // group field
-        public double result;
-        // for avg
-        public int count;
-        public int sum;
-
-        public Group(Field key) {
-            this.key = key;
-            this.result = 1;
-            this.count = 1;
-            this.sum = 0;
-        }
-    }
-
     private static final long serialVersionUID = 1L;
 
     private int gbfield;
     private Type gbfieldtype;
-    private int afield;
-    private Op op;
 
-    private ConcurrentHashMap<Integer, ArrayList<Group>> group; // {hashcode: tuple}
-    private int code; // used for no grouping
+    private final AggregateHashTable groups;
+    /** the aggregate field, as the table takes one field per aggregate */
+    private final int[] afields;
 
     /**
      * Aggregate constructor
@@ -65,61 +45,8 @@ public class IntegerAggregator implements Aggregator {
         // System.out.println("IntegerAggregator");
         this.gbfield = gbfield;
         this.gbfieldtype = gbfieldtype;
-        this.afield = afield;
-        this.op = what;
-        this.group = new ConcurrentHashMap<>();
-        this.code = 0;
-    }
-
-    public Group initGroup(Field f, int val) {
-        Group g = new Group(f);
-        switch (op) {
-            case SUM:
-                g.result = val;
-                break;
-            case COUNT:
-                g.result = 1;
-                break;
-            case MAX:
-                g.result = val;
-                break;
-            case MIN:
-                g.result = val;
-                break;
-            case AVG:
-                g.count = 1;
-                g.sum = val;
-                g.result = g.sum * 1.0 / g.count;
-                break;
-            default:
-                ;
-        }
-        return g;
-    }
-
-    public Group work(Group g, int val) {
-        switch (op) {
-            case SUM:
-                g.result += val;
-                break;
-            case COUNT:
-                g.result += 1;
-                break;
-            case MAX:
-                g.result = Math.max(g.result, val);
-                break;
-            case MIN:
-                g.result = Math.min(g.result, val);
-                break;
-            case AVG:
-                g.count += 1;
-                g.sum += val;
-                g.result = g.sum * 1.0 / g.count;
-                break;
-            default:
-                return null;
-        }
-        return g;
+        this.afields = new int[]{afield};
+        this.groups = new AggregateHashTable(gbfield == NO_GROUPING ? null : gbfieldtype, what);
     }
 
     /**
@@ -135,42 +62,16 @@ public class IntegerAggregator implements Aggregator {
         if (tup == null) {
             throw new NoSuchElementException("tup is not valid");
         }
-        int key;
-        Field gfield = null;
-        if (gbfield != NO_GROUPING) {
-            gfield = tup.getField(gbfield);
-            key = gfield.hashCode();
-        }
-        else{
-            gfield = new IntField(code);
-            key = code;
-            // code++;
-        }
-        IntField a = (IntField)tup.getField(afield);
-        if (group.containsKey(key)) {
-            ArrayList<Group> list = group.get(key);
-            Group g = null;
-            int i;
-            for (i = 0; i < list.size(); ++i) {
-                g = list.get(i);
-                if(g.key.equals(gfield)){
-                    Group ng = work(g, a.getValue());
-                    list.set(i, ng);
-                    break;
-                }
-            }
-            if(i == list.size()){
-                g = initGroup(gfield, a.getValue());
-                list.add(g);
-            }
-            group.put(key, list);
-        }
-        else {
-            Group g = initGroup(gfield, a.getValue());
-            ArrayList<Group> list = new ArrayList<>();
-            list.add(g);
-            group.put(key, list);
-        }
+        groups.mergeTuple(tup, gbfield, afields);
+    }
+
+    /**
+     * Merge a batch of rows, reading the aggregate values, and INT group
+     * keys, straight from the int columns instead of materializing tuples.
+     */
+    @Override
+    public void mergeBatchIntoGroup(TupleBatch batch) {
+        groups.mergeBatch(batch, gbfield, afields);
     }
 
     /**
@@ -215,27 +116,17 @@ public class IntegerAggregator implements Aggregator {
          * @throws DbException when there are problems opening/accessing the database.
          */
         public void open() throws DbException, TransactionAbortedException {
-            Iterator<ConcurrentHashMap.Entry<Integer, ArrayList<Group>>> entries = group.entrySet().iterator();
-            while (entries.hasNext()) {
-                ConcurrentHashMap.Entry<Integer, ArrayList<Group>> entry = entries.next();
-                ArrayList<Group> list = entry.getValue();
-                for (int i = 0; i < list.size(); ++i) {
-                    Group g = list.get(i);
-                    int val = (int) (g.result);
-                    Tuple t = new Tuple(td);
-                    if (gbfield == NO_GROUPING) {
-                        t.setField(0, new IntField(val));
-                    } else {
-                        t.setField(0, g.key);
-                        t.setField(1, new IntField(val));
-                    }
-                    tupleList.add(t);
+            for (int g = 0; g < groups.size(); g++) {
+                Tuple t = new Tuple(td);
+                IntField val = new IntField(groups.result(g, 0));
+                if (gbfield == NO_GROUPING) {
+                    t.setField(0, val);
+                } else {
+                    t.setField(0, groups.key(g));
+                    t.setField(1, val);
                 }
+                tupleList.add(t);
             }
-            // for(Tuple t: tupleList){
-            //     System.out.println("t: " + t.toString());
-            // }
-            // System.out.println("size: " + tupleList.size());
             it = tupleList.iterator();
         }
 
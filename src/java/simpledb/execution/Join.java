@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.CompactTuple;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -9,8 +10,13 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * This is a block nested-loop join: it reads as many outer tuples as fit in
+ * the block (see {@link #setBlockSize}) and then scans the inner child once
+ * for the whole block, so the inner is rescanned once per block instead of
+ * once per outer tuple.
  */
-public class Join extends Operator {
+public class Join extends Operator implements JoinOperator {
 
     private static final long serialVersionUID = 1L;
 
@@ -18,11 +24,21 @@ public class Join extends Operator {
     private OpIterator children[];
     private OpIterator child1;
     private OpIterator child2;
-    private Tuple t1;
     private Tuple t2;
-    private Tuple t; // new tuple
-    private int len1;
-    private int len2;
+    private TupleDesc td; // schema of joined tuples
+
+    /** Default size of the outer block, in bytes */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+    /** the current block of outer tuples is block[0, blockLen) */
+    private transient Tuple[] block;
+    private transient int blockLen;
+    /** next block tuple to compare with t2 */
+    private transient int blockPos;
+    /** false until the inner has been scanned once */
+    private transient boolean innerUsed;
+    /** p compiled for the schemas of the children */
+    private transient CompiledJoinPredicate pred;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -43,10 +59,27 @@ public class Join extends Operator {
         this.children[1] = child2;
         this.child1 = child1;
         this.child2 = child2;
-        this.t1 = null;
         this.t2 = null;
-        this.len1 = child1.getTupleDesc().numFields();
-        this.len2 = child2.getTupleDesc().numFields();
+    }
+
+    /**
+     * Sets how much memory is used to buffer outer tuples, in bytes of
+     * serialized tuple data. Takes effect at the next open().
+     */
+    public void setBlockSize(int bytes) {
+        this.blockSize = bytes;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return the number of outer tuples of the given size that fit in a
+     *         block of the given number of bytes
+     */
+    public static int blockTuples(int blockSize, int tupleSize) {
+        return Math.max(1, blockSize / Math.max(1, tupleSize));
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -94,7 +127,13 @@ public class Join extends Operator {
         super.open();
         child1.open();
         child2.open();
-        t = new Tuple(getTupleDesc());
+        td = getTupleDesc();
+        pred = CompiledJoinPredicate.compile(p, child1.getTupleDesc(), child2.getTupleDesc());
+        block = new Tuple[Math.min(blockTuples(blockSize, child1.getTupleDesc().getMaxSize()), 1024)];
+        blockLen = 0;
+        blockPos = 0;
+        innerUsed = false;
+        t2 = null;
     }
 
     public void close() {
@@ -102,6 +141,7 @@ public class Join extends Operator {
         child1.close();
         child2.close();
         super.close();
+        block = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -110,8 +150,6 @@ public class Join extends Operator {
         // child2.rewind();
         close();
         open();
-        t1 = null;
-        t2 = null;
     }
 
     /**
@@ -134,25 +172,43 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        while(t1 != null || child1.hasNext()){
-            if(t1 == null)
-                t1 = child1.next();
-            while(child2.hasNext()){
-                t2 = child2.next();
-                if(p.filter(t1, t2)){
-                    for(int i = 0; i < len1; ++i){
-                        t.setField(i, t1.getField(i));
-                    }
-                    for(int i = 0; i < len2; ++i){
-                        t.setField(i+len1, t2.getField(i));
-                    }
-                    return t;
+        while (true) {
+            if (t2 != null) {
+                while (blockPos < blockLen) {
+                    Tuple t1 = block[blockPos++];
+                    if (pred.test(t1, t2))
+                        return CompactTuple.concat(td, t1, t2);
                 }
+                t2 = null;
+            }
+            if (blockLen > 0 && child2.hasNext()) {
+                t2 = child2.next();
+                blockPos = 0;
+                continue;
             }
-            t1 = null;
-            child2.rewind();
+            // the inner is done with this block: load the next one
+            if (!fillBlock())
+                return null;
+            if (innerUsed)
+                child2.rewind();
+            innerUsed = true;
+        }
+    }
+
+    /**
+     * Reads the next block of outer tuples.
+     *
+     * @return false if the outer child is exhausted
+     */
+    private boolean fillBlock() throws DbException, TransactionAbortedException {
+        int max = blockTuples(blockSize, child1.getTupleDesc().getMaxSize());
+        blockLen = 0;
+        while (blockLen < max && child1.hasNext()) {
+            if (blockLen == block.length)
+                block = Arrays.copyOf(block, Math.min(max, block.length * 2));
+            block[blockLen++] = child1.next();
         }
-        return null;
+        return blockLen > 0;
     }
 
     @Override
@@ -166,6 +222,8 @@ public class Join extends Operator {
     public void setChildren(OpIterator[] children) {
         // some code goes here
         this.children = children;
+        this.child1 = children[0];
+        this.child2 = children[1];
     }
 
 }
@@ -0,0 +1,80 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+
+/**
+ * A semi-join filter pushed from a {@link HashEquiJoin} down into the scan
+ * of its probe side: once the join has loaded its build side, it publishes
+ * a {@link BloomFilter} of the build keys, and the scan drops the tuples
+ * whose key is certainly not among them before they are copied or reach
+ * the join.
+ * <p>
+ * Until a filter is published every tuple passes, so a scan that runs
+ * before the build is done, or a join whose build side does not fit in
+ * memory and never publishes one, returns the same tuples as without it.
+ */
+public class JoinFilter extends CompiledPredicate {
+
+    /** the key field, of the table read by the scan */
+    private final int field;
+    private final boolean intKey;
+    private volatile BloomFilter filter = null;
+
+    /**
+     * @param field the field of the table read by the probe scan holding
+     *              the join key
+     * @param type  the type of that field
+     */
+    public JoinFilter(int field, Type type) {
+        this.field = field;
+        this.intKey = type == Type.INT_TYPE;
+    }
+
+    public int getField() {
+        return field;
+    }
+
+    public int[] getFields() {
+        return new int[]{field};
+    }
+
+    /** @return the published filter, or null */
+    public BloomFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Starts dropping the tuples whose key filter does not contain. The
+     * filter must hold every key of the build side.
+     */
+    public void publish(BloomFilter filter) {
+        this.filter = filter;
+    }
+
+    public boolean test(Tuple t) {
+        BloomFilter f = filter;
+        // the hash of a string is that of its StringField
+        return f == null || f.mightContain(intKey ? t.getInt(field) : t.getString(field).hashCode());
+    }
+
+    public int refine(TupleBatch batch, int[] sel, int n) {
+        BloomFilter f = filter;
+        if (f == null)
+            return n;
+        int k = 0;
+        if (intKey) {
+            int[] col = batch.intColumn(field);
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (f.mightContain(col[row])) sel[k++] = row;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (f.mightContain(batch.getField(field, row).hashCode())) sel[k++] = row;
+            }
+        }
+        return k;
+    }
+}
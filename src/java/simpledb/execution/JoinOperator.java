@@ -0,0 +1,24 @@
+package simpledb.execution;
+
+/**
+ * Implemented by the operators that join two children on a JoinPredicate,
+ * so that plan utilities such as OperatorCardinality and
+ * QueryPlanVisualizer can treat the different join algorithms alike. The
+ * children are returned by getChildren(), outer first.
+ */
+public interface JoinOperator extends OpIterator {
+
+    JoinPredicate getJoinPredicate();
+
+    /**
+     * @return the name of the join field of the outer child, qualified by
+     *         alias or table name
+     */
+    String getJoinField1Name();
+
+    /**
+     * @return the name of the join field of the inner child, qualified by
+     *         alias or table name
+     */
+    String getJoinField2Name();
+}
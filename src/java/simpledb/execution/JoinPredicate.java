@@ -1,5 +1,6 @@
 package simpledb.execution;
 
+import simpledb.common.Type;
 import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 
@@ -49,6 +50,9 @@ public class JoinPredicate implements Serializable {
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
         if(t1 == null || t2 == null) return false;
+        if (t1.getTupleDesc().getFieldType(fieldId1) == Type.INT_TYPE
+                && t2.getTupleDesc().getFieldType(fieldId2) == Type.INT_TYPE)
+            return Predicate.compare(op, t1.getInt(fieldId1), t2.getInt(fieldId2));
         Field f1 = t1.getField(fieldId1);
         Field f2 = t2.getField(fieldId2);
         return f1.compare(op, f2);
@@ -0,0 +1,88 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Comparator;
+
+/**
+ * Merges k sorted inputs with a tournament tree of losers, as used by the
+ * merge phase of an external sort.
+ * <p>
+ * Each internal node remembers the input that lost the match played there,
+ * and the overall winner is kept apart. After the winner's tuple is taken,
+ * only the matches on the path from its leaf to the root are replayed, so
+ * each output tuple costs about log2(k) comparisons instead of the
+ * 2 log2(k) of a binary heap. Ties are won by the input with the lower
+ * index, so equal tuples come out in input order.
+ */
+class LoserTree {
+
+    private final OpIterator[] inputs;
+    private final Comparator<Tuple> cmp;
+    /** current tuple of each input, or null once it is exhausted */
+    private final Tuple[] heads;
+    /** tree[0] is the winner; tree[1, k) the losers of the internal nodes */
+    private final int[] tree;
+
+    /**
+     * @param inputs the inputs to merge, each open and sorted by cmp
+     * @param cmp    the order of the inputs
+     */
+    LoserTree(OpIterator[] inputs, Comparator<Tuple> cmp)
+            throws DbException, TransactionAbortedException {
+        this.inputs = inputs;
+        this.cmp = cmp;
+        int k = inputs.length;
+        heads = new Tuple[k];
+        tree = new int[Math.max(k, 1)];
+        for (int i = 0; i < k; i++)
+            heads[i] = inputs[i].hasNext() ? inputs[i].next() : null;
+        tree[0] = k == 0 ? -1 : build(1);
+    }
+
+    /** Plays the matches below node; leaves are the nodes k .. 2k-1. */
+    private int build(int node) {
+        int k = inputs.length;
+        if (node >= k)
+            return node - k;
+        int a = build(2 * node), b = build(2 * node + 1);
+        if (beats(a, b)) {
+            tree[node] = b;
+            return a;
+        }
+        tree[node] = a;
+        return b;
+    }
+
+    private boolean beats(int a, int b) {
+        if (heads[a] == null)
+            return false;
+        if (heads[b] == null)
+            return true;
+        int c = cmp.compare(heads[a], heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    /**
+     * @return the smallest remaining tuple of all inputs, or null if they
+     *         are all exhausted
+     */
+    Tuple next() throws DbException, TransactionAbortedException {
+        int w = tree[0];
+        if (w < 0 || heads[w] == null)
+            return null;
+        Tuple t = heads[w];
+        heads[w] = inputs[w].hasNext() ? inputs[w].next() : null;
+        for (int node = (w + inputs.length) / 2; node > 0; node /= 2) {
+            if (beats(tree[node], w)) {
+                int loser = w;
+                w = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = w;
+        return t;
+    }
+}
@@ -0,0 +1,135 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.storage.CompactTuple;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Materialize fetches fields of a heap file table that were left out of its
+ * scan, for late materialization: the scan returns only the fields a join
+ * needs plus the record id of each tuple (see {@link SeqScan#setRidField}),
+ * so the join copies narrow tuples, and the other fields are read back from
+ * the table once the join is done, for the tuples that are left.
+ * <p>
+ * Each child tuple is returned with the fetched fields appended, named
+ * tableAlias.fieldName. Consecutive tuples of the same page read it only
+ * once.
+ */
+public class Materialize extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    /** the fields of the table fetched */
+    private final int[] fields;
+    /** the field of the child holding the record id */
+    private final int ridField;
+    private final TupleDesc fetchedTd;
+    private final TupleDesc td;
+
+    transient private HeapFile file = null;
+    transient private HeapPage page = null;
+
+    /**
+     * @param tid        the transaction this operator runs as a part of
+     * @param tableid    the table to fetch the fields of, a HeapFile
+     * @param tableAlias the alias of the table; child must have the field
+     *                   tableAlias.{@value HeapFile#RID_FIELD}
+     * @param fields     the fields of the table to fetch
+     * @param child      the operator to read tuples from
+     */
+    public Materialize(TransactionId tid, int tableid, String tableAlias, int[] fields,
+                       OpIterator child) {
+        this.child = child;
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.fields = fields.clone();
+        this.ridField = child.getTupleDesc().fieldNameToIndex(tableAlias + "." + HeapFile.RID_FIELD);
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableid);
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = tableTd.getFieldType(fields[i]);
+            names[i] = tableAlias + "." + tableTd.getFieldName(fields[i]);
+        }
+        this.fetchedTd = new TupleDesc(types, names);
+        this.td = TupleDesc.merge(child.getTupleDesc(), fetchedTd);
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the fields of the table fetched */
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    /** @return the TupleDesc of the fetched fields */
+    public TupleDesc getFetchedTupleDesc() {
+        return fetchedTd;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        file = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        page = null;
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        page = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (!child.hasNext())
+            return null;
+        Tuple t = child.next();
+        RecordId rid = file.decodeRecordId(t.getInt(ridField));
+        if (page == null || !page.getId().equals(rid.getPageId()))
+            page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(),
+                    Permissions.READ_ONLY);
+        Tuple stored = page.getSlotTuple(rid.getTupleNumber());
+        if (stored == null)
+            throw new DbException("tuple " + rid + " is no longer in its table");
+        Tuple out = CompactTuple.concat(td, t, CompactTuple.project(fetchedTd, stored, fields));
+        out.setRecordId(t.getRecordId());
+        return out;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
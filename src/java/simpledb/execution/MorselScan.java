@@ -0,0 +1,84 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.BatchFileIterator;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.MorselCursor;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * The scan of one worker of a {@link ParallelSeqScan}: reads the morsels it
+ * claims from the scan's cursor one after the other. As the morsels are
+ * shared with the other workers, it cannot be rewound on its own.
+ */
+class MorselScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ParallelSeqScan owner;
+    private final int worker;
+    private transient MorselCursor cursor = null;
+    private transient DbFileIterator it = null;
+
+    MorselScan(ParallelSeqScan owner, int worker) {
+        super(owner.getTransactionId(), owner.getTableId(), owner.getAlias());
+        this.owner = owner;
+        this.worker = worker;
+    }
+
+    public void open() {
+        cursor = owner.openWorker();
+        it = null;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (cursor == null)
+            throw new IllegalStateException("scan not open");
+        while (it == null || !it.hasNext()) {
+            if (it != null)
+                it.close();
+            int[] morsel = cursor.claim(worker);
+            if (morsel == null) {
+                it = null;
+                return false;
+            }
+            it = iterator(morsel[0], morsel[1]);
+            it.open();
+        }
+        return true;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException("No element");
+        return it.next();
+    }
+
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (!hasNext())
+            return null;
+        if (it instanceof BatchFileIterator)
+            return ((BatchFileIterator) it).nextBatch(getTupleDesc());
+        TupleBatch batch = new TupleBatch(getTupleDesc());
+        while (!batch.isFull() && hasNext())
+            batch.addTuple(it.next());
+        return batch;
+    }
+
+    public void close() {
+        if (it != null)
+            it.close();
+        it = null;
+        if (cursor != null)
+            owner.closeWorker();
+        cursor = null;
+    }
+
+    public void rewind() throws DbException {
+        throw new DbException("the scan of one worker cannot be rewound");
+    }
+}
@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -10,10 +11,23 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * An input of at most {@link #getMemoryBudget()} tuples is sorted in memory.
+ * A larger input is sorted externally: replacement selection writes sorted
+ * runs to {@link SpillFile}s, which average twice the memory budget in
+ * length (and a single run if the input is already nearly sorted), and the
+ * runs are then merged with a {@link LoserTree}, in several passes if there
+ * are more than {@link #MERGE_FANIN} of them.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default maximum number of tuples held in memory */
+    public static final int DEFAULT_MEMORY_BUDGET = 100000;
+    /** Maximum number of runs merged at once */
+    public static final int MERGE_FANIN = 64;
+
     private OpIterator child;
     private final TupleDesc td;
     private final List<Tuple> childTups = new ArrayList<>();
@@ -21,6 +35,12 @@ public class OrderBy extends Operator {
     private final String orderByFieldName;
     private Iterator<Tuple> it;
     private final boolean asc;
+    private int memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    /** sorted runs of a spilled sort; empty if the input fit in memory */
+    private final List<SpillFile> runs = new ArrayList<>();
+    private transient OpIterator[] runIts;
+    private transient LoserTree merger;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -55,6 +75,18 @@ public class OrderBy extends Operator {
 	return this.orderByFieldName;
     }
     
+    /**
+     * Sets how many tuples may be held in memory before the sort spills
+     * runs to disk. Takes effect at the next open().
+     */
+    public void setMemoryBudget(int tuples) {
+        this.memoryBudget = Math.max(1, tuples);
+    }
+
+    public int getMemoryBudget() {
+        return memoryBudget;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -62,21 +94,136 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        sort(child);
         super.open();
     }
 
+    /**
+     * Reads all tuples of child, which is open, and gets ready to return
+     * them in order.
+     */
+    protected void sort(OpIterator child) throws DbException,
+            TransactionAbortedException {
+        // load the tuples in a collection, and sort it if they all fit
+        deleteRuns();
+        childTups.clear();
+        while (child.hasNext() && childTups.size() < memoryBudget)
+            childTups.add(child.next());
+        Comparator<Tuple> cmp = new TupleComparator(orderByField, asc);
+        if (child.hasNext()) {
+            generateRuns(cmp);
+            while (runs.size() > MERGE_FANIN)
+                mergeRuns(cmp);
+        } else {
+            childTups.sort(cmp);
+        }
+        startOutput();
+    }
+
+    /** A tuple waiting in the replacement selection heap */
+    private static class RunTuple {
+        final int run;
+        final Tuple t;
+
+        RunTuple(int run, Tuple t) {
+            this.run = run;
+            this.t = t;
+        }
+    }
+
+    /**
+     * Replacement selection: repeatedly writes the smallest tuple of the
+     * heap to the current run and replaces it by the next input tuple, which
+     * joins the current run if it is not smaller than the one just written
+     * and the next run otherwise. Starts from the tuples in childTups.
+     */
+    private void generateRuns(Comparator<Tuple> cmp)
+            throws DbException, TransactionAbortedException {
+        PriorityQueue<RunTuple> heap = new PriorityQueue<>(memoryBudget,
+                (a, b) -> a.run != b.run ? Integer.compare(a.run, b.run)
+                        : cmp.compare(a.t, b.t));
+        for (Tuple t : childTups)
+            heap.add(new RunTuple(0, t));
+        childTups.clear();
+
+        int currentRun = -1;
+        SpillFile out = null;
+        while (!heap.isEmpty()) {
+            RunTuple top = heap.poll();
+            if (top.run != currentRun) {
+                currentRun = top.run;
+                out = new SpillFile(td);
+                runs.add(out);
+            }
+            out.add(top.t);
+            if (child.hasNext()) {
+                Tuple t = child.next();
+                heap.add(new RunTuple(cmp.compare(t, top.t) >= 0
+                        ? currentRun : currentRun + 1, t));
+            }
+        }
+    }
+
+    /** Merges the first MERGE_FANIN runs into one run at the end of runs. */
+    private void mergeRuns(Comparator<Tuple> cmp)
+            throws DbException, TransactionAbortedException {
+        List<SpillFile> group = new ArrayList<>(runs.subList(0, MERGE_FANIN));
+        runs.subList(0, MERGE_FANIN).clear();
+        OpIterator[] its = new OpIterator[group.size()];
+        for (int i = 0; i < its.length; i++) {
+            its[i] = group.get(i).iterator();
+            its[i].open();
+        }
+        SpillFile out = new SpillFile(td);
+        LoserTree tree = new LoserTree(its, cmp);
+        for (Tuple t = tree.next(); t != null; t = tree.next())
+            out.add(t);
+        for (int i = 0; i < its.length; i++) {
+            its[i].close();
+            group.get(i).delete();
+        }
+        runs.add(out);
+    }
+
+    private void startOutput() throws DbException, TransactionAbortedException {
+        if (runs.isEmpty()) {
+            it = childTups.iterator();
+            return;
+        }
+        runIts = new OpIterator[runs.size()];
+        for (int i = 0; i < runIts.length; i++) {
+            runIts[i] = runs.get(i).iterator();
+            runIts[i].open();
+        }
+        merger = new LoserTree(runIts, new TupleComparator(orderByField, asc));
+    }
+
+    private void stopOutput() {
+        if (runIts != null)
+            for (OpIterator run : runIts)
+                run.close();
+        runIts = null;
+        merger = null;
+        it = null;
+    }
+
+    private void deleteRuns() {
+        stopOutput();
+        for (SpillFile run : runs)
+            run.delete();
+        runs.clear();
+    }
+
     public void close() {
         super.close();
+        deleteRuns();
+        childTups.clear();
         it = null;
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException, TransactionAbortedException {
+        stopOutput();
+        startOutput();
     }
 
     /**
@@ -86,7 +233,10 @@ public class OrderBy extends Operator {
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
+    protected Tuple fetchNext() throws NoSuchElementException,
+            DbException, TransactionAbortedException {
+        if (merger != null)
+            return merger.next();
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -103,26 +253,26 @@ public class OrderBy extends Operator {
         this.child = children[0];
     }
 
-}
+    /** Orders tuples on one field, used by OrderBy and its subclasses. */
+    static class TupleComparator implements Comparator<Tuple> {
+        final int field;
+        final boolean asc;
 
-class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
+        public TupleComparator(int field, boolean asc) {
+            this.field = field;
+            this.asc = asc;
+        }
 
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
+        public int compare(Tuple o1, Tuple o2) {
+            Field t1 = (o1).getField(field);
+            Field t2 = (o2).getField(field);
+            if (t1.compare(Predicate.Op.EQUALS, t2))
+                return 0;
+            if (t1.compare(Predicate.Op.GREATER_THAN, t2))
+                return asc ? 1 : -1;
+            else
+                return asc ? -1 : 1;
+        }
 
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
     }
-    
 }
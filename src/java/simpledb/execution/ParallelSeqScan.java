@@ -0,0 +1,147 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.storage.MorselCursor;
+import simpledb.storage.ScannableFile;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * A morsel-driven parallel scan of a table. Each worker thread runs its
+ * own pipeline, such as filters, a projection or a partial aggregate, over
+ * a scan that claims morsels of the file from a shared {@link MorselCursor}
+ * until none are left; the pipelines' output is gathered into this
+ * operator. Since morsels are claimed as the workers go, a worker that is
+ * slowed down by its part of the table takes fewer morsels rather than
+ * holding up the scan.
+ * <p>
+ * The worker pipelines are also returned by getChildren(), so that they
+ * can feed a {@link HashPartition} directly; they share one cursor for
+ * each run of all of them.
+ */
+public class ParallelSeqScan extends Consumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final ScannableFile file;
+    private int morselPages = MorselCursor.DEFAULT_MORSEL_PAGES;
+    private OpIterator[] pipelines;
+    private final TupleDesc td;
+
+    /** the morsels of the current run, shared by the workers */
+    private transient MorselCursor cursor = null;
+    private transient int closedWorkers = 0;
+    private transient Future<?>[] tasks = null;
+
+    /**
+     * Creates a parallel scan whose workers return the tuples of the table.
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int workers) {
+        this(tid, tableid, tableAlias, workers, in -> in);
+    }
+
+    /**
+     * @param tid        the transaction the scan runs as a part of
+     * @param tableid    the table to scan, a ScannableFile
+     * @param tableAlias the alias prefixed to the field names
+     * @param workers    the number of worker threads
+     * @param pipeline   builds the operators a worker runs over its scan;
+     *                   called once per worker, and the results must all
+     *                   have the same schema
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int workers,
+                           Function<OpIterator, OpIterator> pipeline) {
+        if (workers < 1)
+            throw new IllegalArgumentException("a parallel scan needs a worker");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.file = (ScannableFile) Database.getCatalog().getDatabaseFile(tableid);
+        this.pipelines = new OpIterator[workers];
+        for (int w = 0; w < workers; w++)
+            pipelines[w] = pipeline.apply(new MorselScan(this, w));
+        this.td = pipelines[0].getTupleDesc();
+    }
+
+    /**
+     * Sets the number of pages the workers claim at a time.
+     */
+    public void setMorselPages(int pages) {
+        this.morselPages = Math.max(1, pages);
+    }
+
+    public int getMorselPages() {
+        return morselPages;
+    }
+
+    TransactionId getTransactionId() {
+        return tid;
+    }
+
+    int getTableId() {
+        return tableid;
+    }
+
+    String getAlias() {
+        return tableAlias;
+    }
+
+    /**
+     * Called by a worker's scan when it opens: the first worker of a run
+     * splits the file into morsels.
+     */
+    synchronized MorselCursor openWorker() {
+        if (cursor == null)
+            cursor = file.morsels(pipelines.length, morselPages);
+        return cursor;
+    }
+
+    /**
+     * Called by a worker's scan when it closes; the next run starts once
+     * every worker has closed.
+     */
+    synchronized void closeWorker() {
+        if (++closedWorkers == pipelines.length) {
+            cursor = null;
+            closedWorkers = 0;
+        }
+    }
+
+    public String getName() {
+        return "parallel_scan(" + tableAlias + ")x" + pipelines.length;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    TupleChannel startProducers() {
+        TupleChannel channel = new TupleChannel(pipelines.length);
+        tasks = new Future<?>[pipelines.length];
+        for (int w = 0; w < pipelines.length; w++)
+            tasks[w] = startProducer(pipelines[w], new TupleChannel[]{channel}, -1);
+        return channel;
+    }
+
+    void stopProducers() {
+        if (tasks != null)
+            Gather.awaitAll(tasks);
+        tasks = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return pipelines;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.pipelines = children;
+    }
+}
@@ -0,0 +1,192 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * The first phase of a parallel aggregation: aggregates its part of the
+ * input into thread-local groups and returns their partial states instead
+ * of final values, to be merged by {@link Aggregate#mergePartials}. A state
+ * is the group key followed by the accumulator and, for AVG, the count of
+ * each aggregate, so that AVG is merged as a sum and a count and the other
+ * aggregates directly. COUNT_DISTINCT has no such state and is not
+ * supported.
+ * <p>
+ * If its groups exceed the memory budget, the states gathered so far are
+ * returned and the groups start over; the final phase merges the states of
+ * a group wherever they come from.
+ */
+public class PartialAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int[] afields;
+    private final int gfield;
+    private final Aggregator.Op[] aops;
+    private final TupleDesc inputTd;
+    private final TupleDesc td;
+    private int memoryBudget = Aggregate.DEFAULT_MEMORY_BUDGET;
+
+    transient private AggregateHashTable groups = null;
+    transient private BatchOpIterator in = null;
+    transient private boolean inputDone;
+    transient private int outGroup;
+
+    /**
+     * @param child  the part of the input to aggregate
+     * @param afield the column to aggregate
+     * @param gfield the column to group by, or NO_GROUPING
+     * @param aop    the aggregate
+     */
+    public PartialAggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, new int[]{afield}, gfield, new Aggregator.Op[]{aop});
+    }
+
+    /**
+     * @param child   the part of the input to aggregate
+     * @param afields the column of each aggregate
+     * @param gfield  the column to group by, or NO_GROUPING
+     * @param aops    the operator of each aggregate
+     */
+    public PartialAggregate(OpIterator child, int[] afields, int gfield, Aggregator.Op[] aops) {
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException("need one operator for each aggregate field");
+        for (Aggregator.Op op : aops)
+            if (op == Aggregator.Op.COUNT_DISTINCT)
+                throw new IllegalArgumentException("COUNT_DISTINCT cannot be computed in parts");
+        this.child = child;
+        this.afields = afields.clone();
+        this.gfield = gfield;
+        this.aops = aops.clone();
+        this.inputTd = child.getTupleDesc();
+        TupleDesc state = AggregateHashTable.stateDesc(
+                gfield == Aggregator.NO_GROUPING ? null : inputTd.getFieldType(gfield), aops.length);
+        Type[] types = new Type[state.numFields()];
+        String[] names = new String[types.length];
+        for (int f = 0; f < types.length; f++)
+            types[f] = state.getFieldType(f);
+        names[0] = gfield == Aggregator.NO_GROUPING ? null : inputTd.getFieldName(gfield);
+        for (int i = 0; i < aops.length; i++) {
+            String name = aops[i] + "(" + inputTd.getFieldName(afields[i]) + ")";
+            names[1 + 3 * i] = name + ".high";
+            names[2 + 3 * i] = name + ".low";
+            names[3 + 3 * i] = name + ".count";
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    /** @return the schema of the tuples being aggregated */
+    public TupleDesc getInputTupleDesc() {
+        return inputTd;
+    }
+
+    public int aggregateField() {
+        return afields[0];
+    }
+
+    public int groupField() {
+        return gfield;
+    }
+
+    /** @return the name of the aggregate field in the input tuples */
+    public String aggregateFieldName() {
+        return aggregateFieldName(0);
+    }
+
+    /** @return the name of the group field in the input tuples, or null */
+    public String groupFieldName() {
+        return gfield == Aggregator.NO_GROUPING ? null : inputTd.getFieldName(gfield);
+    }
+
+    public Aggregator.Op aggregateOp() {
+        return aops[0];
+    }
+
+    /** @return the number of aggregates computed */
+    public int numAggregates() {
+        return aops.length;
+    }
+
+    public int aggregateField(int i) {
+        return afields[i];
+    }
+
+    /** @return the name of the input column of aggregate i */
+    public String aggregateFieldName(int i) {
+        return inputTd.getFieldName(afields[i]);
+    }
+
+    public Aggregator.Op aggregateOp(int i) {
+        return aops[i];
+    }
+
+    /**
+     * Sets how many groups are aggregated before their states are returned.
+     */
+    public void setMemoryBudget(int groups) {
+        this.memoryBudget = Math.max(1, groups);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        groups = new AggregateHashTable(
+                gfield == Aggregator.NO_GROUPING ? null : inputTd.getFieldType(gfield), aops);
+        child.open();
+        in = RowToBatch.wrap(child);
+        inputDone = false;
+        outGroup = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        groups = null;
+        in = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        groups.clear();
+        inputDone = false;
+        outGroup = 0;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (outGroup == groups.size()) {
+            if (inputDone)
+                return null;
+            groups.clear();
+            outGroup = 0;
+            TupleBatch batch;
+            while (groups.size() <= memoryBudget) {
+                if ((batch = in.nextBatch()) == null) {
+                    inputDone = true;
+                    break;
+                }
+                groups.mergeBatch(batch, gfield, afields);
+            }
+        }
+        return groups.state(outGroup++, td);
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -50,6 +50,8 @@ public class Predicate implements Serializable {
     private int fieldId;
     private Op op;
     private Field operand;
+    /** this predicate compiled, made on first use */
+    private transient CompiledPredicate compiled;
     
     /**
      * Constructor.
@@ -111,11 +113,55 @@ public class Predicate implements Serializable {
     public boolean filter(Tuple t) {
         // some code goes here
         if(t == null) return false;
-        Field f = t.getField(fieldId);
-        return f.compare(op, operand);
+        return compiled().test(t);
         // return false;
     }
 
+    /**
+     * Same as IntField.compare, on unboxed values.
+     */
+    static boolean compare(Op op, int a, int b) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return a == b;
+            case NOT_EQUALS:
+                return a != b;
+            case GREATER_THAN:
+                return a > b;
+            case GREATER_THAN_OR_EQ:
+                return a >= b;
+            case LESS_THAN:
+                return a < b;
+            case LESS_THAN_OR_EQ:
+                return a <= b;
+        }
+        return false;
+    }
+
+    /**
+     * Applies the predicate to every row of a batch. INT_TYPE comparisons run
+     * as tight loops over the primitive column.
+     *
+     * @param batch the rows to test
+     * @param sel   receives the indices of the rows that pass, in order; must
+     *              have room for batch.size() entries
+     * @return the number of rows that pass
+     */
+    public int filter(TupleBatch batch, int[] sel) {
+        return compiled().filter(batch, sel);
+    }
+
+    /**
+     * @return this predicate compiled into a specialized evaluator, see
+     *         {@link CompiledPredicate#compile}
+     */
+    CompiledPredicate compiled() {
+        if (compiled == null)
+            compiled = CompiledPredicate.compile(this);
+        return compiled;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.CompactTuple;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -11,12 +12,13 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
     private final List<Integer> outFieldIds;
+    private final int[] outCols;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -42,12 +44,20 @@ public class Project extends Operator {
             fieldAr[i] = childtd.getFieldName(fieldList.get(i));
         }
         td = new TupleDesc(types, fieldAr);
+        outCols = new int[fieldList.size()];
+        for (int i = 0; i < outCols.length; i++)
+            outCols[i] = fieldList.get(i);
     }
 
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /** @return the field of the child for each output field */
+    public int[] getOutFields() {
+        return outCols.clone();
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
@@ -73,6 +83,8 @@ public class Project extends Operator {
             TransactionAbortedException, DbException {
         if (!child.hasNext()) return null;
         Tuple t = child.next();
+        if (t instanceof CompactTuple)
+            return CompactTuple.project(td, t, outCols);
         Tuple newTuple = new Tuple(td);
         newTuple.setRecordId(t.getRecordId());
         for (int i = 0; i < td.numFields(); i++) {
@@ -81,6 +93,17 @@ public class Project extends Operator {
         return newTuple;
     }
 
+    /**
+     * Projects a whole batch of the child at once; the column arrays of the
+     * child batch are shared, not copied.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch in = RowToBatch.wrap(child).nextBatch();
+        if (in == null)
+            return null;
+        return in.project(outCols, td);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
@@ -24,6 +24,8 @@ public class Query implements Serializable {
     private static final long serialVersionUID = 1L;
 
     transient private OpIterator op;
+    /** what start() actually drives: op itself, or a batch driver over it */
+    transient private OpIterator root;
     transient private LogicalPlan logicalPlan;
     final TransactionId tid;
     transient private boolean started = false;
@@ -59,7 +61,8 @@ public class Query implements Serializable {
 
     public void start() throws DbException,
             TransactionAbortedException {
-        op.open();
+        root = op instanceof BatchOpIterator ? new BatchToRow((BatchOpIterator) op) : op;
+        root.open();
 
         started = true;
     }
@@ -70,7 +73,7 @@ public class Query implements Serializable {
 
     /** @return true if there are more tuples remaining. */
     public boolean hasNext() throws DbException, TransactionAbortedException {
-        return op.hasNext();
+        return root.hasNext();
     }
 
     /**
@@ -90,12 +93,15 @@ public class Query implements Serializable {
         if (!started)
             throw new DbException("Database not started.");
 
-        return op.next();
+        return root.next();
     }
 
     /** Close the iterator */
     public void close() {
-        op.close();
+        if (root != null)
+            root.close();
+        else
+            op.close();
         started = false;
     }
 
@@ -0,0 +1,66 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Adapter that exposes a tuple-at-a-time OpIterator as a BatchOpIterator by
+ * collecting rows of the child into batches.
+ */
+public class RowToBatch implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+
+    public RowToBatch(OpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return child itself if it already produces batches, or an adapter
+     *         around it otherwise
+     */
+    public static BatchOpIterator wrap(OpIterator child) {
+        if (child instanceof BatchOpIterator)
+            return (BatchOpIterator) child;
+        return new RowToBatch(child);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!child.hasNext())
+            return null;
+        TupleBatch batch = new TupleBatch(child.getTupleDesc());
+        while (!batch.isFull() && child.hasNext())
+            batch.addTuple(child.next());
+        return batch;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        return child.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
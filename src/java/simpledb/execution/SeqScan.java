@@ -5,10 +5,12 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.BatchFileIterator;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.HeapFile;
+import simpledb.storage.ScannableFile;
 
 import java.util.*;
 
@@ -16,16 +18,37 @@ import java.util.*;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * Predicates and a projection can be pushed down into the scan (see
+ * {@link #addPredicate} and {@link #setOutFields}): they are applied by the
+ * file iterator to the stored tuples, so that tuples that fail a predicate
+ * are never copied and only the needed fields of the others are. A hash
+ * join may also push a {@link JoinFilter} of its build keys into the scan
+ * of its probe side.
+ * <p>
+ * The table may be any {@link ScannableFile}, such as a {@link HeapFile} or
+ * a columnar {@link simpledb.storage.PaxFile}.
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
     private int tableid;
     private String tableAlias;
     private TransactionId tid;
-    private HeapFile file;
+    private ScannableFile file;
     private DbFileIterator it;
+    /** page range read by this scan; toPage is -1 for the end of file */
+    private int fromPage = 0, toPage = -1;
+    /** predicates pushed down into this scan, over the fields of the table */
+    private final List<Predicate> predicates = new ArrayList<>();
+    /** the fields of the table returned, or null for all of them */
+    private int[] outFields = null;
+    /** true if the tuples end with their encoded record id */
+    private boolean ridField = false;
+    /** Bloom filters of the joins this scan is the probe side of */
+    private final List<JoinFilter> joinFilters = new ArrayList<>();
+    private transient CompiledPredicate compiled = null;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -48,7 +71,7 @@ public class SeqScan implements OpIterator {
         this.tableid = tableid;
         this.tableAlias = tableAlias;
         this.tid = tid;
-        this.file = (HeapFile)Database.getCatalog().getDatabaseFile(tableid);
+        this.file = (ScannableFile)Database.getCatalog().getDatabaseFile(tableid);
     }
 
     /**
@@ -93,9 +116,149 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Creates a scan of pages fromPage (inclusive) to toPage (exclusive) of
+     * the specified table, one morsel of a parallel scan.
+     *
+     * @param toPage the end of the range, or -1 for the end of the table
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias,
+                   int fromPage, int toPage) {
+        this(tid, tableid, tableAlias);
+        this.fromPage = fromPage;
+        this.toPage = toPage;
+    }
+
+    /**
+     * Splits this scan into at most n scans of contiguous page ranges that
+     * together read the same tuples. The last one reads up to the end of
+     * the table, including pages added after the split.
+     */
+    public SeqScan[] split(int n) {
+        int end = toPage < 0 ? file.numPages() : toPage;
+        int pages = Math.max(0, end - fromPage);
+        n = Math.max(1, Math.min(n, pages));
+        SeqScan[] parts = new SeqScan[n];
+        for (int i = 0; i < n; i++) {
+            int from = fromPage + (int) ((long) pages * i / n);
+            int to = i == n - 1 ? toPage : fromPage + (int) ((long) pages * (i + 1) / n);
+            parts[i] = new SeqScan(tid, tableid, tableAlias, from, to);
+            parts[i].pushDown(this);
+        }
+        return parts;
+    }
+
+    /**
+     * Pushes a predicate down into this scan: only the tuples that pass it
+     * are returned.
+     *
+     * @param p a predicate over the fields of the table, whatever fields
+     *          the scan returns
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+        compiled = null;
+    }
+
+    /** @return the predicates pushed down into this scan, in order */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(predicates);
+    }
+
+    /**
+     * Pushes the semi-join filter of a hash join down into this scan, which
+     * is its probe side; it is tested after the predicates.
+     */
+    public void addJoinFilter(JoinFilter f) {
+        joinFilters.add(f);
+        compiled = null;
+    }
+
+    /** @return the join filters pushed down into this scan */
+    public List<JoinFilter> getJoinFilters() {
+        return Collections.unmodifiableList(joinFilters);
+    }
+
+    /**
+     * Pushes a projection down into this scan.
+     *
+     * @param fields the fields of the table to return, in order, or null
+     *               for all of them
+     */
+    public void setOutFields(int[] fields) {
+        this.outFields = fields == null ? null : fields.clone();
+    }
+
+    /** @return the fields of the table returned, or null for all of them */
+    public int[] getOutFields() {
+        return outFields == null ? null : outFields.clone();
+    }
+
+    /**
+     * Adds, or removes, a last INT field holding the record id of each
+     * tuple, named tableAlias.{@value HeapFile#RID_FIELD}, so that the rest
+     * of the tuple can be fetched later: see {@link Materialize}.
+     */
+    public void setRidField(boolean ridField) {
+        this.ridField = ridField;
+    }
+
+    /** @return true if the tuples end with their encoded record id */
+    public boolean hasRidField() {
+        return ridField;
+    }
+
+    /**
+     * Pushes the predicates, join filters, projection and record id field
+     * of another scan into this one.
+     */
+    public void pushDown(SeqScan other) {
+        for (Predicate p : other.predicates)
+            addPredicate(p);
+        for (JoinFilter f : other.joinFilters)
+            addJoinFilter(f);
+        setOutFields(other.outFields);
+        setRidField(other.ridField);
+    }
+
+    /**
+     * @return an iterator over pages fromPage to toPage of the table that
+     *         applies the predicates and projection of this scan
+     */
+    DbFileIterator iterator(int fromPage, int toPage) {
+        if (compiled == null && !(predicates.isEmpty() && joinFilters.isEmpty())) {
+            List<CompiledPredicate> parts = new ArrayList<>();
+            if (!predicates.isEmpty())
+                parts.add(CompiledPredicate.and(predicates));
+            parts.addAll(joinFilters);
+            compiled = CompiledPredicate.all(parts);
+        }
+        return file.iterator(tid, fromPage, toPage, compiled, outFields, ridField);
+    }
+
+    /** @return the transaction this scan runs as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /** @return the id of the table read by this scan */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the first page read by this scan */
+    public int getFromPage() {
+        return fromPage;
+    }
+
+    /** @return the end of the page range read by this scan, or -1 */
+    public int getToPage() {
+        return toPage;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        it = file.iterator(tid);
+        it = iterator(fromPage, toPage);
         it.open();
         
     }
@@ -107,12 +270,20 @@ public class SeqScan implements OpIterator {
      * name.  The alias and name should be separated with a "." character
      * (e.g., "alias.fieldName").
      *
+     * If a projection was pushed down, only the fields it returns are in the
+     * TupleDesc.
+     *
      * @return the TupleDesc with field names from the underlying HeapFile,
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
         TupleDesc td = file.getTupleDesc();
+        if (outFields != null)
+            td = td.project(outFields);
+        if (ridField)
+            td = TupleDesc.merge(td, new TupleDesc(new Type[]{Type.INT_TYPE},
+                    new String[]{HeapFile.RID_FIELD}));
         int num = td.numFields();
         Type types[] = new Type[num];
         String fields[] = new String[num];
@@ -141,6 +312,17 @@ public class SeqScan implements OpIterator {
         // return null;
     }
 
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (!it.hasNext())
+            return null;
+        if (it instanceof BatchFileIterator)
+            return ((BatchFileIterator) it).nextBatch(getTupleDesc());
+        TupleBatch batch = new TupleBatch(getTupleDesc());
+        while (!batch.isFull() && it.hasNext())
+            batch.addTuple(it.next());
+        return batch;
+    }
+
     public void close() {
         // some code goes here
         // it.close();
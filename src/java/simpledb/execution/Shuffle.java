@@ -0,0 +1,98 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+
+import java.util.concurrent.Future;
+
+/**
+ * The state shared by the output partitions of a {@link HashPartition} or
+ * {@link Broadcast}: one producer per input writes to one channel per
+ * partition. The producers start when the first partition is opened and
+ * are torn down once every partition has been closed, so the partitions
+ * can be read by different threads at their own pace.
+ * <p>
+ * A producer waits while the channel of any partition is full, so a
+ * partition closed before the end of its stream, because its reader failed
+ * or stopped early, cancels the whole shuffle: the other partitions end
+ * with an error, including those not opened yet, and the producers are
+ * awaited. Opening a partition that was closed before starts over.
+ */
+class Shuffle {
+
+    private static final int NOT_OPENED = 0, OPEN = 1, CLOSED = 2;
+
+    final OpIterator[] inputs;
+    /** the field to partition on, or -1 to send every tuple to all partitions */
+    final int field;
+    final int partitions;
+
+    private TupleChannel[] channels = null;
+    private Future<?>[] tasks = null;
+    /** the state of each partition in the current run */
+    private int[] states = null;
+    private int closed = 0;
+    private boolean cancelled = false;
+
+    Shuffle(OpIterator[] inputs, int field, int partitions) {
+        if (inputs.length == 0 || partitions < 1)
+            throw new IllegalArgumentException("a shuffle needs inputs and partitions");
+        for (OpIterator input : inputs)
+            if (!input.getTupleDesc().equals(inputs[0].getTupleDesc()))
+                throw new IllegalArgumentException("inputs of a shuffle differ in schema");
+        this.inputs = inputs;
+        this.field = field;
+        this.partitions = partitions;
+    }
+
+    synchronized TupleChannel open(int partition) {
+        if (channels != null && states[partition] == CLOSED)
+            stop();
+        if (channels == null) {
+            channels = new TupleChannel[partitions];
+            for (int i = 0; i < partitions; i++)
+                channels[i] = new TupleChannel(inputs.length);
+            tasks = new Future<?>[inputs.length];
+            for (int i = 0; i < inputs.length; i++)
+                tasks[i] = Exchange.startProducer(inputs[i], channels, field);
+            states = new int[partitions];
+            closed = 0;
+            cancelled = false;
+        }
+        states[partition] = OPEN;
+        return channels[partition];
+    }
+
+    synchronized void close(int partition) {
+        if (channels == null || states[partition] != OPEN)
+            return;
+        TupleChannel channel = channels[partition];
+        states[partition] = CLOSED;
+        channel.cancel();
+        if (++closed == partitions) {
+            stop();
+        } else if (!channel.isEnded() && !cancelled) {
+            // the producers would wait forever for this partition to be read
+            cancel();
+            cancelled = true;
+        }
+    }
+
+    /**
+     * Ends the stream of every partition with an error and waits for the
+     * producers to finish.
+     */
+    private void cancel() {
+        for (TupleChannel c : channels)
+            c.abort(new DbException("a partition of the " + (field < 0 ? "broadcast" : "shuffle")
+                    + " was closed early"));
+        Gather.awaitAll(tasks);
+    }
+
+    /** Ends the current run; partitions still open end with an error. */
+    private void stop() {
+        cancel();
+        channels = null;
+        tasks = null;
+        states = null;
+    }
+}
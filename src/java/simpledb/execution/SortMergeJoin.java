@@ -0,0 +1,229 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.index.BTreeScan;
+import simpledb.storage.CompactTuple;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Sort-merge join. Both inputs are ordered ascending on their join field;
+ * then for each outer tuple the matching inner tuples form at most two
+ * contiguous ranges of the sorted inner, whose bounds only move forward as
+ * the outer key grows. This handles every predicate except LIKE, and costs
+ * a sort of each input plus the size of the output instead of the
+ * card1 * card2 comparisons of a nested loop.
+ * <p>
+ * An input that is already sorted on its join field (see {@link #isSortedOn})
+ * is not sorted again, and the outer input is then streamed rather than
+ * buffered. The inner input is always buffered in memory.
+ */
+public class SortMergeJoin extends Operator implements JoinOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final boolean intKeys;
+
+    /** buffered and sorted outer tuples, or null if child1 is streamed */
+    transient private List<Tuple> left = null;
+    transient private int leftPos;
+    transient private Tuple[] right = null;
+    transient private Tuple t1 = null;
+    /** inner tuples with key < t1's key are right[0, lower) */
+    transient private int lower;
+    /** inner tuples with key <= t1's key are right[0, upper) */
+    transient private int upper;
+    /** current output range right[pos, end), then right[nextFrom, nextTo) */
+    transient private int pos, end, nextFrom, nextTo;
+
+    /**
+     * Constructor.
+     *
+     * @param p      The predicate to use to join the children; any operator
+     *               but LIKE
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (p.getOperator() == Predicate.Op.LIKE)
+            throw new IllegalArgumentException("sort-merge join does not support LIKE");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.intKeys = child1.getTupleDesc().getFieldType(p.getField1()) == Type.INT_TYPE;
+    }
+
+    /**
+     * @return true if it is known that the tuples of it come out in
+     *         ascending order of field, without looking at the data
+     */
+    public static boolean isSortedOn(OpIterator it, int field) {
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        if (it instanceof BTreeScan)
+            return ((BTreeScan) it).getKeyField() == field;
+        if (it instanceof Filter)
+            return isSortedOn(((Filter) it).getChildren()[0], field);
+        return false;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    private int compareKeys(Tuple a, int fa, Tuple b, int fb) {
+        if (intKeys)
+            return Integer.compare(a.getInt(fa), b.getInt(fb));
+        return a.getString(fa).compareTo(b.getString(fb));
+    }
+
+    private List<Tuple> readSorted(OpIterator child, int field)
+            throws DbException, TransactionAbortedException {
+        List<Tuple> tuples = new ArrayList<>();
+        while (child.hasNext())
+            tuples.add(child.next());
+        if (!isSortedOn(child, field))
+            tuples.sort((a, b) -> compareKeys(a, field, b, field));
+        return tuples;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        right = readSorted(child2, pred.getField2()).toArray(new Tuple[0]);
+        left = isSortedOn(child1, pred.getField1()) ? null : readSorted(child1, pred.getField1());
+        resetCursors();
+        super.open();
+    }
+
+    private void resetCursors() {
+        leftPos = 0;
+        t1 = null;
+        lower = upper = 0;
+        pos = end = nextFrom = nextTo = 0;
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        left = null;
+        right = null;
+        t1 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (left == null)
+            child1.rewind();
+        resetCursors();
+    }
+
+    private Tuple nextLeft() throws DbException, TransactionAbortedException {
+        if (left != null)
+            return leftPos < left.size() ? left.get(leftPos++) : null;
+        return child1.hasNext() ? child1.next() : null;
+    }
+
+    /**
+     * Advances lower and upper to the key of t1 and sets up the ranges of
+     * right that satisfy the predicate.
+     */
+    private void findRanges() {
+        int f1 = pred.getField1(), f2 = pred.getField2();
+        while (lower < right.length && compareKeys(right[lower], f2, t1, f1) < 0)
+            lower++;
+        if (upper < lower)
+            upper = lower;
+        while (upper < right.length && compareKeys(right[upper], f2, t1, f1) <= 0)
+            upper++;
+
+        nextFrom = nextTo = 0;
+        switch (pred.getOperator()) {
+            case EQUALS:
+                pos = lower;
+                end = upper;
+                break;
+            case NOT_EQUALS:
+                pos = 0;
+                end = lower;
+                nextFrom = upper;
+                nextTo = right.length;
+                break;
+            case LESS_THAN:
+                pos = upper;
+                end = right.length;
+                break;
+            case LESS_THAN_OR_EQ:
+                pos = lower;
+                end = right.length;
+                break;
+            case GREATER_THAN:
+                pos = 0;
+                end = lower;
+                break;
+            case GREATER_THAN_OR_EQ:
+                pos = 0;
+                end = upper;
+                break;
+            default:
+                throw new IllegalStateException("unsupported operator " + pred.getOperator());
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Tuples come out ordered by the outer join field.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (pos < end)
+                return CompactTuple.concat(comboTD, t1, right[pos++]);
+            if (nextFrom < nextTo) {
+                pos = nextFrom;
+                end = nextTo;
+                nextFrom = nextTo = 0;
+                continue;
+            }
+            t1 = nextLeft();
+            if (t1 == null)
+                return null;
+            findRanges();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -7,10 +7,8 @@ import simpledb.storage.Tuple;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.concurrent.ConcurrentHashMap;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
-import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.TupleDesc;
 
@@ -23,31 +21,29 @@ public class StringAggregator implements Aggregator {
 
     private int gbfield;
     private Type gbfieldtype;
-    private int afield;
-    private Op op;
 
-    private ConcurrentHashMap<Field, Integer> group; // {hashcode: tuple}
-    private int code; // used for no grouping
+    private final AggregateHashTable groups;
+    /** the aggregate field, as the table takes one field per aggregate */
+    private final int[] afields;
 
     /**
      * Aggregate constructor
      * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
      * @param gbfieldtype the type of the group by field (e.g., Type.INT_TYPE), or null if there is no grouping
      * @param afield the 0-based index of the aggregate field in the tuple
-     * @param what aggregation operator to use -- only supports COUNT
-     * @throws IllegalArgumentException if what != COUNT
+     * @param what aggregation operator to use -- only supports COUNT and
+     *             COUNT_DISTINCT
+     * @throws IllegalArgumentException if what is neither COUNT nor COUNT_DISTINCT
      */
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         // some code goes here
         this.gbfield = gbfield;
         this.gbfieldtype = gbfieldtype;
-        this.afield = afield;
-        this.op = what;
-        this.group = new ConcurrentHashMap<>();
-        this.code = 0;
-        if(what != Op.COUNT)
+        if(what != Op.COUNT && what != Op.COUNT_DISTINCT)
             throw new IllegalArgumentException("op is not valid");
+        this.afields = new int[]{afield};
+        this.groups = new AggregateHashTable(gbfield == NO_GROUPING ? null : gbfieldtype, what);
     }
 
     /**
@@ -59,21 +55,7 @@ public class StringAggregator implements Aggregator {
         if (tup == null) {
             throw new NoSuchElementException("tup is not valid");
         }
-        Field groupField = null;
-        if (gbfield != NO_GROUPING) {
-            groupField = tup.getField(gbfield);
-        }
-        else{
-            groupField = new IntField(code);
-        }
-        // IntField a = (IntField)tup.getField(afield);
-        if (group.containsKey(groupField)) {
-            int val = group.get(groupField);
-            group.put(groupField, val+1);
-        }
-        else {
-            group.put(groupField, 1);
-        }
+        groups.mergeTuple(tup, gbfield, afields);
     }
 
     /**
@@ -100,7 +82,7 @@ public class StringAggregator implements Aggregator {
             // this.ia = ia;
             if (gbfield == NO_GROUPING) {
                 Type types[] = new Type[1];
-                types[0] = gbfieldtype;
+                types[0] = Type.INT_TYPE;
                 td = new TupleDesc(types);
             }
             else {
@@ -117,16 +99,14 @@ public class StringAggregator implements Aggregator {
          * @throws DbException when there are problems opening/accessing the database.
          */
         public void open() throws DbException, TransactionAbortedException {
-            Iterator<ConcurrentHashMap.Entry<Field, Integer>> entries = group.entrySet().iterator();
-            while (entries.hasNext()) {
-                ConcurrentHashMap.Entry<Field, Integer> entry = entries.next();
-                int val = entry.getValue();
+            for (int g = 0; g < groups.size(); g++) {
                 Tuple t = new Tuple(td);
+                IntField val = new IntField(groups.result(g, 0));
                 if (gbfield == NO_GROUPING) {
-                    t.setField(0, new IntField(val));
+                    t.setField(0, val);
                 } else {
-                    t.setField(0, entry.getKey());
-                    t.setField(1, new IntField(val));
+                    t.setField(0, groups.key(g));
+                    t.setField(1, val);
                 }
                 tupleList.add(t);
             }
@@ -0,0 +1,85 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * TopN is an ORDER BY followed by a LIMIT: it returns the first limit tuples
+ * of the child in the given order. Instead of sorting the whole input it
+ * keeps the best limit tuples seen so far in a bounded heap whose root is
+ * the worst of them, so it needs O(limit) memory and O(n log limit) time.
+ */
+public class TopN extends OrderBy {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int limit;
+    private transient Tuple[] top;
+    private transient int pos;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the maximum number of tuples to return
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, OpIterator child) {
+        super(orderbyField, asc, child);
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    protected void sort(OpIterator child) throws DbException,
+            TransactionAbortedException {
+        Comparator<Tuple> cmp = new TupleComparator(getOrderByField(), isASC());
+        PriorityQueue<Tuple> heap = new PriorityQueue<>(Math.max(1, Math.min(limit, 1024)),
+                Collections.reverseOrder(cmp));
+        if (limit > 0) {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (heap.size() < limit) {
+                    heap.add(t);
+                } else if (cmp.compare(t, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(t);
+                }
+            }
+        }
+        top = new Tuple[heap.size()];
+        for (int i = top.length - 1; i >= 0; i--)
+            top[i] = heap.poll();
+        pos = 0;
+    }
+
+    public void close() {
+        super.close();
+        top = null;
+    }
+
+    public void rewind() {
+        pos = 0;
+    }
+
+    protected Tuple fetchNext() {
+        if (top != null && pos < top.length)
+            return top[pos++];
+        return null;
+    }
+}
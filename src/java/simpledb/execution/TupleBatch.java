@@ -0,0 +1,362 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.CompactTuple;
+import simpledb.storage.Dictionary;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * TupleBatch is a column-oriented block of rows passed between operators by
+ * {@link BatchOpIterator#nextBatch}. INT_TYPE columns are stored in plain
+ * int arrays; STRING_TYPE columns are stored as one byte array per column
+ * holding the concatenated values, plus an offset array such that row r
+ * occupies bytes [offsets[r], offsets[r+1]). Dictionary encoded STRING_TYPE
+ * columns, as read from some tables, are stored as the int codes of their
+ * values in the {@link Dictionary} of the column; see {@link #isEncoded}.
+ * <p>
+ * Batches are append-only: once a batch has been handed to a parent operator
+ * it is never modified again, so operators may share column arrays between
+ * batches (see {@link #project}).
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of rows in a batch */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private int size;
+
+    private final int[][] ints;
+    private final byte[][] chars;
+    private final int[][] offsets;
+    /** the dictionary of each encoded column, null for the others */
+    private final Dictionary[] dicts;
+    private final RecordId[] rids;
+
+    /**
+     * Create an empty batch with the default capacity.
+     *
+     * @param td the schema of the rows in this batch
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty batch.
+     *
+     * @param td       the schema of the rows in this batch
+     * @param capacity the maximum number of rows in this batch
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this(td, capacity, new Dictionary[td.numFields()]);
+    }
+
+    /**
+     * Create an empty batch with the given columns encoded.
+     */
+    private TupleBatch(TupleDesc td, int capacity, Dictionary[] dicts) {
+        this.td = td;
+        this.capacity = capacity;
+        this.size = 0;
+        int n = td.numFields();
+        this.ints = new int[n][];
+        this.chars = new byte[n][];
+        this.offsets = new int[n][];
+        this.dicts = dicts;
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE || dicts[i] != null) {
+                ints[i] = new int[capacity];
+            } else {
+                chars[i] = new byte[capacity * 16];
+                offsets[i] = new int[capacity + 1];
+            }
+        }
+        this.rids = new RecordId[capacity];
+    }
+
+    private TupleBatch(TupleDesc td, int capacity, int size, int[][] ints,
+                       byte[][] chars, int[][] offsets, Dictionary[] dicts, RecordId[] rids) {
+        this.td = td;
+        this.capacity = capacity;
+        this.size = size;
+        this.ints = ints;
+        this.chars = chars;
+        this.offsets = offsets;
+        this.dicts = dicts;
+        this.rids = rids;
+    }
+
+    /**
+     * Wraps columns decoded elsewhere, such as from the minipages of a
+     * columnar page, into a batch without copying them. Columns that are
+     * never read may be left null.
+     *
+     * @param size    the number of rows
+     * @param ints    the values of each INT_TYPE column
+     * @param chars   the concatenated values of each STRING_TYPE column
+     * @param offsets for each STRING_TYPE column, the offset of each row
+     *                in chars, and the end of the last one
+     * @param rids    the record id of each row
+     */
+    public static TupleBatch wrap(TupleDesc td, int size, int[][] ints, byte[][] chars,
+                                  int[][] offsets, RecordId[] rids) {
+        return wrap(td, size, ints, chars, offsets, new Dictionary[td.numFields()], rids);
+    }
+
+    /**
+     * Wraps columns decoded elsewhere, some of them dictionary encoded,
+     * into a batch without copying them.
+     *
+     * @param ints  the values of each INT_TYPE column, and the codes of
+     *              each encoded column
+     * @param dicts the dictionary of each encoded column, null for the
+     *              others
+     * @see #wrap(TupleDesc, int, int[][], byte[][], int[][], RecordId[])
+     */
+    public static TupleBatch wrap(TupleDesc td, int size, int[][] ints, byte[][] chars,
+                                  int[][] offsets, Dictionary[] dicts, RecordId[] rids) {
+        return new TupleBatch(td, Math.max(size, 1), size, ints, chars, offsets, dicts, rids);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows in this batch */
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * @return the backing array of an INT_TYPE column, or the codes of an
+     *         encoded column. Only the first {@link #size()} entries are
+     *         meaningful.
+     */
+    public int[] intColumn(int col) {
+        return ints[col];
+    }
+
+    public int getInt(int col, int row) {
+        return ints[col][row];
+    }
+
+    /**
+     * @return true if a STRING_TYPE column holds the codes of its values in
+     *         {@link #getDictionary}, in {@link #intColumn}
+     */
+    public boolean isEncoded(int col) {
+        return dicts[col] != null;
+    }
+
+    /**
+     * @return the dictionary of an encoded column, or null
+     */
+    public Dictionary getDictionary(int col) {
+        return dicts[col];
+    }
+
+    public String getString(int col, int row) {
+        if (dicts[col] != null)
+            return dicts[col].decode(ints[col][row]);
+        int start = offsets[col][row];
+        return new String(chars[col], start, offsets[col][row + 1] - start,
+                StringField.CHARSET);
+    }
+
+    /**
+     * Compares the string stored at (col, row) with the given encoded bytes
+     * without decoding it.
+     *
+     * @return negative, zero or positive like {@link String#compareTo}
+     */
+    public int compareString(int col, int row, byte[] value) {
+        if (dicts[col] != null) {
+            byte[] data = dicts[col].bytes(ints[col][row]);
+            return compare(data, 0, data.length, value);
+        }
+        int start = offsets[col][row];
+        return compare(chars[col], start, offsets[col][row + 1] - start, value);
+    }
+
+    private static int compare(byte[] data, int start, int len, byte[] value) {
+        int n = Math.min(len, value.length);
+        for (int i = 0; i < n; i++) {
+            int c = (data[start + i] & 0xff) - (value[i] & 0xff);
+            if (c != 0)
+                return c;
+        }
+        return len - value.length;
+    }
+
+    public Field getField(int col, int row) {
+        if (ints[col] != null && dicts[col] == null)
+            return new IntField(ints[col][row]);
+        return new StringField(getString(col, row), Type.STRING_LEN);
+    }
+
+    public RecordId getRecordId(int row) {
+        return rids[row];
+    }
+
+    /**
+     * Materialize one row of this batch as a Tuple.
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            t.setField(i, getField(i, row));
+        t.setRecordId(rids[row]);
+        return t;
+    }
+
+    private void appendString(int col, String s) {
+        appendString(col, s.getBytes(StringField.CHARSET));
+    }
+
+    private void appendString(int col, byte[] bs) {
+        appendString(col, bs, 0, bs.length);
+    }
+
+    private void appendString(int col, byte[] bs, int from, int len) {
+        int start = offsets[col][size];
+        if (start + len > chars[col].length)
+            chars[col] = Arrays.copyOf(chars[col], Math.max(chars[col].length * 2, start + len));
+        System.arraycopy(bs, from, chars[col], start, len);
+        offsets[col][size + 1] = start + len;
+    }
+
+    private void copyValue(int dstCol, TupleBatch src, int srcCol, int srcRow) {
+        if (dicts[dstCol] == null && src.dicts[srcCol] != null) {
+            appendString(dstCol, src.dicts[srcCol].bytes(src.ints[srcCol][srcRow]));
+        } else if (ints[dstCol] != null) {
+            ints[dstCol][size] = src.ints[srcCol][srcRow];
+        } else {
+            int start = src.offsets[srcCol][srcRow];
+            appendString(dstCol, src.chars[srcCol], start,
+                    src.offsets[srcCol][srcRow + 1] - start);
+        }
+    }
+
+    private void setValue(int col, Field f) {
+        if (ints[col] != null)
+            ints[col][size] = ((IntField) f).getValue();
+        else
+            appendString(col, ((StringField) f).getValue());
+    }
+
+    /**
+     * Append a row to this batch.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void addTuple(Tuple t) {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        if (t instanceof CompactTuple) {
+            // read the serialized fields without creating Field objects
+            byte[] data = ((CompactTuple) t).getData();
+            for (int i = 0; i < td.numFields(); i++) {
+                int off = td.getOffset(i);
+                if (ints[i] != null)
+                    ints[i][size] = readInt(data, off);
+                else
+                    appendString(i, data, off + 4, readInt(data, off));
+            }
+        } else {
+            for (int i = 0; i < td.numFields(); i++)
+                setValue(i, t.getField(i));
+        }
+        rids[size] = t.getRecordId();
+        size++;
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] << 24) | ((b[off + 1] & 0xff) << 16)
+                | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    /**
+     * Append a copy of row srcRow of src, which must have the same schema,
+     * and the same dictionaries for the columns encoded in this batch.
+     */
+    public void addRow(TupleBatch src, int srcRow) {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        for (int i = 0; i < td.numFields(); i++)
+            copyValue(i, src, i, srcRow);
+        rids[size] = src.rids[srcRow];
+        size++;
+    }
+
+    /**
+     * Append the concatenation of a tuple and a row of another batch, as
+     * produced by a join. The schema of this batch must be the merge of the
+     * schemas of left and right.
+     */
+    public void addJoinedRow(Tuple left, TupleBatch right, int rightRow) {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        int n1 = left.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            setValue(i, left.getField(i));
+        for (int i = 0; i < right.td.numFields(); i++)
+            copyValue(n1 + i, right, i, rightRow);
+        size++;
+    }
+
+    /**
+     * Returns a new batch containing the rows whose indices are listed in the
+     * first n entries of sel, in that order. Encoded columns stay encoded.
+     */
+    public TupleBatch select(int[] sel, int n) {
+        if (n == size)
+            return this;
+        TupleBatch out = new TupleBatch(td, Math.max(n, 1), dicts);
+        for (int i = 0; i < n; i++)
+            out.addRow(this, sel[i]);
+        return out;
+    }
+
+    /**
+     * Returns a batch with only the given columns, in the given order. The
+     * column arrays are shared with this batch, so no values are copied and
+     * the returned batch must not be appended to.
+     *
+     * @param cols  the column indices of this batch to keep
+     * @param outTd the schema of the projected rows
+     */
+    public TupleBatch project(int[] cols, TupleDesc outTd) {
+        int n = cols.length;
+        int[][] pInts = new int[n][];
+        byte[][] pChars = new byte[n][];
+        int[][] pOffsets = new int[n][];
+        Dictionary[] pDicts = new Dictionary[n];
+        for (int i = 0; i < n; i++) {
+            pInts[i] = ints[cols[i]];
+            pChars[i] = chars[cols[i]];
+            pOffsets[i] = offsets[cols[i]];
+            pDicts[i] = dicts[cols[i]];
+        }
+        return new TupleBatch(outTd, capacity, size, pInts, pChars, pOffsets, pDicts, rids);
+    }
+}
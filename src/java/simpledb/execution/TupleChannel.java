@@ -0,0 +1,134 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded queue of tuple batches between the producer threads of an
+ * {@link Exchange} and the thread reading it. Tuples travel in lists of up
+ * to {@link #BATCH_SIZE} so that the threads synchronize once per batch.
+ * <p>
+ * The stream ends when every producer has called {@link #producerDone}. A
+ * producer that fails hands its exception to the reader with {@link #fail}.
+ * The reader may {@link #cancel} the channel, after which puts are dropped
+ * so that blocked producers can finish; {@link #abort} also ends the
+ * stream of the reader with an error.
+ */
+class TupleChannel {
+
+    static final int BATCH_SIZE = 256;
+    private static final int CAPACITY = 16;
+    private static final List<Tuple> END = new ArrayList<>();
+
+    private final BlockingQueue<List<Tuple>> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private int producers;
+    private volatile boolean cancelled = false;
+    private volatile Throwable error = null;
+    private boolean ended = false;
+
+    /**
+     * @param producers the number of producers that will write to this
+     *                  channel
+     */
+    TupleChannel(int producers) {
+        this.producers = producers;
+        if (producers == 0)
+            queue.add(END);
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Adds a batch, waiting while the channel is full.
+     *
+     * @return false if the channel was cancelled and the batch dropped
+     */
+    boolean put(List<Tuple> batch) throws InterruptedException {
+        while (!cancelled) {
+            if (queue.offer(batch, 10, TimeUnit.MILLISECONDS))
+                return true;
+        }
+        return false;
+    }
+
+    /** Called by each producer once it has put all of its tuples. */
+    void producerDone() throws InterruptedException {
+        boolean last;
+        synchronized (this) {
+            last = --producers == 0;
+        }
+        if (last)
+            put(END);
+    }
+
+    /** Called by a producer that failed; the reader will throw t. */
+    void fail(Throwable t) throws InterruptedException {
+        if (error == null)
+            error = t;
+        put(END);
+    }
+
+    /** Drops all queued and future batches. */
+    void cancel() {
+        cancelled = true;
+        queue.clear();
+    }
+
+    /**
+     * Cancels the channel and ends the stream with t: the reader throws it
+     * instead of waiting for batches that will not come.
+     */
+    void abort(Throwable t) {
+        if (error == null)
+            error = t;
+        cancel();
+        while (!queue.offer(END))
+            queue.clear();
+    }
+
+    /**
+     * @return true if the reader has reached the end of the stream, or an
+     *         error
+     */
+    boolean isEnded() {
+        return ended;
+    }
+
+    /**
+     * @return the next batch, or null at the end of the stream
+     */
+    List<Tuple> take() throws DbException, TransactionAbortedException {
+        if (ended)
+            return null;
+        List<Tuple> batch;
+        try {
+            batch = queue.take();
+        } catch (InterruptedException e) {
+            throw new DbException("interrupted while waiting for an exchange");
+        }
+        if (error != null) {
+            ended = true;
+            if (error instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) error;
+            if (error instanceof DbException)
+                throw (DbException) error;
+            DbException e = new DbException("exchange producer failed: " + error);
+            e.initCause(error);
+            throw e;
+        }
+        if (batch == END) {
+            ended = true;
+            return null;
+        }
+        return batch;
+    }
+}
@@ -152,6 +152,18 @@ public class BTreeFile implements DbFile {
 			rf.close();
 		}
 	}
+
+	/**
+	 * Force all pages written by writePage to stable storage
+	 */
+	public void force() throws IOException {
+		RandomAccessFile rf = new RandomAccessFile(f, "rw");
+		try {
+			rf.getChannel().force(false);
+		} finally {
+			rf.close();
+		}
+	}
 	
 	/**
 	 * Returns the number of pages in this BTreeFile.
@@ -187,8 +199,70 @@ public class BTreeFile implements DbFile {
 	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
                                        Field f)
 					throws DbException, TransactionAbortedException {
-		// some code goes here
-        return null;
+		if (pid.pgcateg() == BTreePageId.LEAF)
+			return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+		BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+		return findLeafPage(tid, dirtypages, childFor(page, f), perm, f);
+	}
+
+	/**
+	 * @return the child of page that is the left-most one possibly containing
+	 * the key field f, or the left-most child if f is null
+	 */
+	private static BTreePageId childFor(BTreeInternalPage page, Field f) {
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = null;
+		while (it.hasNext()) {
+			e = it.next();
+			if (f == null || f.compare(Op.LESS_THAN_OR_EQ, e.getKey()))
+				return e.getLeftChild();
+		}
+		if (e == null)
+			throw new IllegalStateException("internal page " + page.getId() + " has no entries");
+		return e.getRightChild();
+	}
+
+	/**
+	 * Finds the left-most leaf page possibly containing the key field f like
+	 * {@link #findLeafPage(TransactionId, BTreePageId, Field)}, but looks up
+	 * internal pages in pageCache first and adds the ones it reads from the
+	 * buffer pool. Used for repeated lookups by the same transaction, which
+	 * keeps its read locks on the cached pages until it completes; the cache
+	 * must be dropped if the transaction modifies this file.
+	 * 
+	 * @param tid - the transaction id
+	 * @param pageCache - internal pages already read by tid
+	 * @param pid - the current page being searched
+	 * @param f - the field to search for
+	 * @return the left-most leaf page possibly containing the key field f
+	 */
+	BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> pageCache, BTreePageId pid,
+							   Field f)
+					throws DbException, TransactionAbortedException {
+		while (pid.pgcateg() != BTreePageId.LEAF) {
+			BTreeInternalPage page = (BTreeInternalPage) pageCache.get(pid);
+			if (page == null) {
+				page = (BTreeInternalPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+				pageCache.put(pid, page);
+			}
+			pid = childFor(page, f);
+		}
+		return (BTreeLeafPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+	}
+
+	/**
+	 * @return the id of the root page, read through pageCache; see
+	 * {@link #findLeafPage(TransactionId, Map, BTreePageId, Field)}
+	 */
+	BTreePageId getRootId(TransactionId tid, Map<PageId, Page> pageCache)
+			throws DbException, TransactionAbortedException {
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(getId());
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) pageCache.get(rootPtrId);
+		if (rootPtr == null) {
+			rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid, rootPtrId, Permissions.READ_ONLY);
+			pageCache.put(rootPtrId, rootPtr);
+		}
+		return rootPtr.getRootId();
 	}
 	
 	/**
@@ -239,8 +313,36 @@ public class BTreeFile implements DbFile {
 		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
 		// the sibling pointers of all the affected leaf pages.  Return the page into which a 
 		// tuple with the given key field should be inserted.
-        return null;
-		
+		BTreeLeafPage rightPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+
+		// move the upper half of the tuples to the new page
+		Tuple[] moving = new Tuple[page.getNumTuples() / 2];
+		Iterator<Tuple> it = page.reverseIterator();
+		for(int i = moving.length - 1; i >= 0; i--)
+			moving[i] = it.next();
+		for(Tuple t : moving) {
+			page.deleteTuple(t);
+			rightPage.insertTuple(t);
+		}
+
+		// link the new page in between the page and its right sibling
+		BTreePageId oldRightId = page.getRightSiblingId();
+		if(oldRightId != null) {
+			BTreeLeafPage oldRight = (BTreeLeafPage) getPage(tid, dirtypages, oldRightId, Permissions.READ_WRITE);
+			oldRight.setLeftSiblingId(rightPage.getId());
+		}
+		rightPage.setRightSiblingId(oldRightId);
+		rightPage.setLeftSiblingId(page.getId());
+		page.setRightSiblingId(rightPage.getId());
+
+		// copy the first key of the new page up into the parent
+		Field key = moving[0].getField(keyField);
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), key);
+		parent.insertEntry(new BTreeEntry(key, page.getId(), rightPage.getId()));
+		page.setParentId(parent.getId());
+		rightPage.setParentId(parent.getId());
+
+		return field.compare(Op.GREATER_THAN, key) ? rightPage : page;
 	}
 	
 	/**
@@ -277,7 +379,30 @@ public class BTreeFile implements DbFile {
 		// the parent pointers of all the children moving to the new page.  updateParentPointers()
 		// will be useful here.  Return the page into which an entry with the given key field
 		// should be inserted.
-		return null;
+		BTreeInternalPage rightPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+
+		// move the upper half of the entries to the new page; the one below
+		// them is pushed up
+		BTreeEntry[] moving = new BTreeEntry[page.getNumEntries() / 2];
+		Iterator<BTreeEntry> it = page.reverseIterator();
+		for(int i = moving.length - 1; i >= 0; i--)
+			moving[i] = it.next();
+		BTreeEntry middle = it.next();
+		for(int i = moving.length - 1; i >= 0; i--) {
+			page.deleteKeyAndRightChild(moving[i]);
+			rightPage.insertEntry(moving[i]);
+		}
+		page.deleteKeyAndRightChild(middle);
+		middle.setLeftChild(page.getId());
+		middle.setRightChild(rightPage.getId());
+
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), middle.getKey());
+		parent.insertEntry(middle);
+		page.setParentId(parent.getId());
+		rightPage.setParentId(parent.getId());
+		updateParentPointers(tid, dirtypages, rightPage);
+
+		return field.compare(Op.GREATER_THAN, middle.getKey()) ? rightPage : page;
 	}
 	
 	/**
@@ -569,6 +694,20 @@ public class BTreeFile implements DbFile {
         // Move some of the tuples from the sibling to the page so
 		// that the tuples are evenly distributed. Be sure to update
 		// the corresponding parent entry.
+		int total = page.getNumTuples() + sibling.getNumTuples();
+		Tuple[] moving = new Tuple[sibling.getNumTuples() - total / 2];
+		Iterator<Tuple> it = isRightSibling ? sibling.iterator() : sibling.reverseIterator();
+		for(int i = 0; i < moving.length; i++)
+			moving[i] = it.next();
+		for(Tuple t : moving) {
+			sibling.deleteTuple(t);
+			page.insertTuple(t);
+		}
+
+		// the key of the entry is the first key of the right-hand page
+		BTreeLeafPage right = isRightSibling ? sibling : page;
+		entry.setKey(right.iterator().next().getField(keyField));
+		parent.updateEntry(entry);
 	}
 
 	/**
@@ -648,6 +787,18 @@ public class BTreeFile implements DbFile {
 		// that the entries are evenly distributed. Be sure to update
 		// the corresponding parent entry. Be sure to update the parent
 		// pointers of all children in the entries that were moved.
+		int moving = leftSibling.getNumEntries() - (leftSibling.getNumEntries() + page.getNumEntries()) / 2;
+		for(int i = 0; i < moving; i++) {
+			// the parent key comes down in front of the page, the last key
+			// of the sibling goes up, and its right child moves over
+			BTreeEntry last = leftSibling.reverseIterator().next();
+			BTreeEntry first = page.iterator().next();
+			page.insertEntry(new BTreeEntry(parentEntry.getKey(), last.getRightChild(), first.getLeftChild()));
+			parentEntry.setKey(last.getKey());
+			leftSibling.deleteKeyAndRightChild(last);
+		}
+		parent.updateEntry(parentEntry);
+		updateParentPointers(tid, dirtypages, page);
 	}
 	
 	/**
@@ -675,6 +826,18 @@ public class BTreeFile implements DbFile {
 		// that the entries are evenly distributed. Be sure to update
 		// the corresponding parent entry. Be sure to update the parent
 		// pointers of all children in the entries that were moved.
+		int moving = rightSibling.getNumEntries() - (rightSibling.getNumEntries() + page.getNumEntries()) / 2;
+		for(int i = 0; i < moving; i++) {
+			// the parent key comes down at the end of the page, the first
+			// key of the sibling goes up, and its left child moves over
+			BTreeEntry first = rightSibling.iterator().next();
+			BTreeEntry last = page.reverseIterator().next();
+			page.insertEntry(new BTreeEntry(parentEntry.getKey(), last.getRightChild(), first.getLeftChild()));
+			parentEntry.setKey(first.getKey());
+			rightSibling.deleteKeyAndLeftChild(first);
+		}
+		parent.updateEntry(parentEntry);
+		updateParentPointers(tid, dirtypages, page);
 	}
 	
 	/**
@@ -705,6 +868,24 @@ public class BTreeFile implements DbFile {
 		// the sibling pointers, and make the right page available for reuse.
 		// Delete the entry in the parent corresponding to the two pages that are merging -
 		// deleteParentEntry() will be useful here
+		List<Tuple> moving = new ArrayList<>();
+		Iterator<Tuple> it = rightPage.iterator();
+		while(it.hasNext())
+			moving.add(it.next());
+		for(Tuple t : moving) {
+			rightPage.deleteTuple(t);
+			leftPage.insertTuple(t);
+		}
+
+		BTreePageId nextId = rightPage.getRightSiblingId();
+		leftPage.setRightSiblingId(nextId);
+		if(nextId != null) {
+			BTreeLeafPage next = (BTreeLeafPage) getPage(tid, dirtypages, nextId, Permissions.READ_WRITE);
+			next.setLeftSiblingId(leftPage.getId());
+		}
+
+		setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
+		deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
 	}
 
 	/**
@@ -738,6 +919,23 @@ public class BTreeFile implements DbFile {
 		// and make the right page available for reuse
 		// Delete the entry in the parent corresponding to the two pages that are merging -
 		// deleteParentEntry() will be useful here
+		// the parent key comes down between the entries of the two pages
+		BTreeEntry last = leftPage.reverseIterator().next();
+		BTreeEntry first = rightPage.iterator().next();
+		leftPage.insertEntry(new BTreeEntry(parentEntry.getKey(), last.getRightChild(), first.getLeftChild()));
+
+		List<BTreeEntry> moving = new ArrayList<>();
+		Iterator<BTreeEntry> it = rightPage.iterator();
+		while(it.hasNext())
+			moving.add(it.next());
+		for(BTreeEntry e : moving) {
+			rightPage.deleteKeyAndLeftChild(e);
+			leftPage.insertEntry(e);
+		}
+		updateParentPointers(tid, dirtypages, leftPage);
+
+		setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
+		deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
 	}
 	
 	/**
@@ -1038,7 +1236,25 @@ public class BTreeFile implements DbFile {
 	 * @return an iterator for the filtered tuples
 	 */
 	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
-		return new BTreeSearchIterator(this, tid, ipred);
+		return new BTreeSearchIterator(this, tid, ipred, null);
+	}
+
+	/**
+	 * Like {@link #indexIterator(TransactionId, IndexPredicate)}, but the root
+	 * pointer and the internal pages visited while searching for the first
+	 * leaf are kept in pageCache, so that many lookups by the same
+	 * transaction, such as the probes of an index nested-loop join, only read
+	 * the leaf pages from the buffer pool. Pass the same (initially empty)
+	 * map to every call, and drop it if tid modifies this file.
+	 * 
+	 * @param tid - the transaction id
+	 * @param ipred - the index predicate value to filter on
+	 * @param pageCache - pages cached by earlier calls for the same tid
+	 * @return an iterator for the filtered tuples
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred,
+										Map<PageId, Page> pageCache) {
+		return new BTreeSearchIterator(this, tid, ipred, pageCache);
 	}
 
 	/**
@@ -1147,17 +1363,22 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	final TransactionId tid;
 	final BTreeFile f;
 	final IndexPredicate ipred;
+	final Map<PageId, Page> pageCache;
 
 	/**
 	 * Constructor for this iterator
 	 * @param f - the BTreeFile containing the tuples
 	 * @param tid - the transaction id
 	 * @param ipred - the predicate to filter on
+	 * @param pageCache - cache of internal pages, or null to always go
+	 * through the buffer pool
 	 */
-	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred,
+							   Map<PageId, Page> pageCache) {
 		this.f = f;
 		this.tid = tid;
 		this.ipred = ipred;
+		this.pageCache = pageCache;
 	}
 
 	/**
@@ -1165,15 +1386,18 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
+		Field key = null;
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, ipred.getField());
+			key = ipred.getField();
+		}
+		if (pageCache != null) {
+			curp = f.findLeafPage(tid, pageCache, f.getRootId(tid, pageCache), key);
 		}
 		else {
-			curp = f.findLeafPage(tid, root, null);
+			BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+					tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
+			curp = f.findLeafPage(tid, rootPtr.getRootId(), key);
 		}
 		it = curp.iterator();
 	}
@@ -114,7 +114,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * Retrieve the maximum number of tuples this page can hold.
 	 */
 	public int getMaxTuples() {        
-		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
+		int bitsPerTupleIncludingHeader = td.getMaxSize() * 8 + 1;
 		// extraBits are: left sibling pointer, right sibling pointer, parent pointer
 		int extraBits = 3 * INDEX_SIZE * 8;
         return (BufferPool.getPageSize()*8 - extraBits) / bitsPerTupleIncludingHeader;
@@ -163,7 +163,7 @@ public class BTreeLeafPage extends BTreePage {
 		// if associated bit is not set, read forward to the next tuple, and
 		// return null.
 		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getSize(); i++) {
+			for (int i=0; i<td.getMaxSize(); i++) {
 				try {
 					dis.readByte();
 				} catch (IOException e) {
@@ -241,7 +241,7 @@ public class BTreeLeafPage extends BTreePage {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getSize(); j++) {
+				for (int j=0; j<td.getMaxSize(); j++) {
 					try {
 						dos.writeByte(0);
 					} catch (IOException e) {
@@ -265,7 +265,7 @@ public class BTreeLeafPage extends BTreePage {
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
+		int zerolen = BufferPool.getPageSize() - (header.length + td.getMaxSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getMaxSize();
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -4,6 +4,9 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.execution.*;
 import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -74,7 +77,26 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        LogicalJoinNode.Algorithm algorithm = lj.algorithm;
+        if (algorithm == null)
+            algorithm = lj.p == Predicate.Op.EQUALS ? LogicalJoinNode.Algorithm.HASH
+                    : LogicalJoinNode.Algorithm.NESTED_LOOP;
+        // inputs that are already in join order make merging nearly free
+        if (lj.p != Predicate.Op.LIKE && SortMergeJoin.isSortedOn(plan1, t1id)
+                && SortMergeJoin.isSortedOn(plan2, t2id))
+            algorithm = LogicalJoinNode.Algorithm.SORT_MERGE;
+
+        if (algorithm == LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP) {
+            j = instantiateIndexJoin(p, plan1, plan2);
+            if (j != null)
+                return j;
+            // the inner is not an index scan after all
+            algorithm = LogicalJoinNode.Algorithm.HASH;
+        }
+
+        if (algorithm == LogicalJoinNode.Algorithm.SORT_MERGE) {
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else if (algorithm == LogicalJoinNode.Algorithm.HASH) {
 
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
@@ -94,6 +116,35 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * @return an {@link IndexNestedLoopJoin} of plan1 with plan2, or null if
+     *         plan2 is not a B+ tree scan keyed on the join field, possibly
+     *         under Filters. The predicates of those filters are applied to
+     *         the output of the join instead.
+     */
+    private static OpIterator instantiateIndexJoin(JoinPredicate p,
+            OpIterator plan1, OpIterator plan2) {
+        List<Predicate> filters = new ArrayList<>();
+        while (plan2 instanceof Filter) {
+            filters.add(((Filter) plan2).getPredicate());
+            plan2 = ((Filter) plan2).getChildren()[0];
+        }
+        if (p.getOperator() != Predicate.Op.EQUALS || !(plan2 instanceof BTreeScan))
+            return null;
+        BTreeScan inner = (BTreeScan) plan2;
+        if (inner.getKeyField() != p.getField2()
+                || plan1.getTupleDesc().getFieldType(p.getField1())
+                        != inner.getTupleDesc().getFieldType(p.getField2()))
+            return null;
+
+        OpIterator j = new IndexNestedLoopJoin(p, plan1, inner);
+        int shift = plan1.getTupleDesc().numFields();
+        for (Predicate f : filters)
+            j = new Filter(new Predicate(f.getField() + shift, f.getOp(),
+                    f.getOperand()), j);
+        return j;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -131,11 +182,144 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
-            return cost1 + card1*cost2 + card1*card2;
+            return estimateJoinCost(j, card1, card2, cost1, cost2, true);
             // return -1.0;
         }
     }
 
+    /**
+     * Like {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)},
+     * but innerIsTable tells whether the inner input is the base table
+     * j.t2Alias (possibly filtered) rather than the result of other joins;
+     * only then can the join use an index of that table.
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean innerIsTable) {
+        if (j instanceof LogicalSubplanJoinNode)
+            return card1 + cost1 + cost2;
+        int blockTuples = outerBlockTuples(j);
+        double probeCost = indexProbeCost(j, cost2, innerIsTable);
+        return estimateJoinCost(chooseJoinAlgorithm(j.p, card1, card2,
+                cost1, cost2, blockTuples, probeCost), card1, card2, cost1,
+                cost2, blockTuples, probeCost);
+    }
+
+    private LogicalJoinNode.Algorithm chooseJoinAlgorithm(LogicalJoinNode j,
+            int card1, int card2, double cost1, double cost2,
+            boolean innerIsTable) {
+        return chooseJoinAlgorithm(j.p, card1, card2, cost1, cost2,
+                outerBlockTuples(j), indexProbeCost(j, cost2, innerIsTable));
+    }
+
+    /**
+     * @return the cost of looking up one join key of j in a B+ tree on the
+     *         inner table, or -1 if the inner is not such a tree keyed on
+     *         the join field. Internal pages are cached across lookups, so
+     *         a lookup reads about one leaf page, i.e. the cost of a scan
+     *         divided by the number of pages.
+     */
+    private double indexProbeCost(LogicalJoinNode j, double cost2,
+            boolean innerIsTable) {
+        if (!innerIsTable || j.p != Predicate.Op.EQUALS || j.t2Alias == null)
+            return -1;
+        Integer tid = p.getTableId(j.t2Alias);
+        if (tid == null)
+            return -1;
+        DbFile f = Database.getCatalog().getDatabaseFile(tid);
+        if (!(f instanceof BTreeFile))
+            return -1;
+        BTreeFile bf = (BTreeFile) f;
+        if (!bf.getTupleDesc().getFieldName(bf.keyField()).equals(j.f2PureName))
+            return -1;
+        return cost2 / Math.max(1, bf.numPages());
+    }
+
+    /**
+     * @return how many tuples of the outer table of j fit in one block of a
+     *         block nested-loop {@link Join}. If the outer is itself a join
+     *         its tuples are wider, so this is an upper bound.
+     */
+    private int outerBlockTuples(LogicalJoinNode j) {
+        Integer tid = p.getTableId(j.t1Alias);
+        int tupleSize = tid == null ? 1
+                : Database.getCatalog().getTupleDesc(tid).getSize();
+        return Join.blockTuples(Join.DEFAULT_BLOCK_SIZE, tupleSize);
+    }
+
+    /**
+     * Estimate the cost of joining with a particular algorithm; see
+     * {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}
+     * for the meaning of the other parameters.
+     *
+     * @param blockTuples
+     *            the number of outer tuples a nested-loop join buffers
+     *            before each scan of the inner
+     * @param probeCost
+     *            the cost of one lookup in an index of the inner table on
+     *            its join field, or a negative value if there is none
+     */
+    public static double estimateJoinCost(LogicalJoinNode.Algorithm algorithm,
+            int card1, int card2, double cost1, double cost2, int blockTuples,
+            double probeCost) {
+        switch (algorithm) {
+            case INDEX_NESTED_LOOP:
+                if (probeCost < 0)
+                    return Double.POSITIVE_INFINITY;
+                // the inner is never scanned, only probed once per outer tuple
+                return cost1 + card1 * probeCost + card1;
+            case HASH: {
+                double cost = cost1 + cost2 + card1 + card2;
+                // a build side that does not fit is partitioned: both inputs
+                // are written out and read back once more
+                if (card1 > HashEquiJoin.MAP_SIZE)
+                    cost += 2 * (cost1 + cost2);
+                return cost;
+            }
+            case SORT_MERGE:
+                return cost1 + cost2 + sortCost(card1) + sortCost(card2)
+                        + card1 + card2;
+            default: {
+                // the inner is scanned once per block of outer tuples
+                double blocks = Math.ceil(card1 / (double) blockTuples);
+                return cost1 + blocks * cost2 + (double) card1 * card2;
+            }
+        }
+    }
+
+    private static double sortCost(int card) {
+        return card <= 1 ? 0 : card * (Math.log(card) / Math.log(2));
+    }
+
+    /**
+     * @return the cheapest algorithm able to evaluate a join with operator
+     *         op, according to
+     *         {@link #estimateJoinCost(LogicalJoinNode.Algorithm, int, int, double, double, int, double)}
+     */
+    public static LogicalJoinNode.Algorithm chooseJoinAlgorithm(Predicate.Op op,
+            int card1, int card2, double cost1, double cost2, int blockTuples,
+            double probeCost) {
+        LogicalJoinNode.Algorithm best = LogicalJoinNode.Algorithm.NESTED_LOOP;
+        double bestCost = estimateJoinCost(best, card1, card2, cost1, cost2, blockTuples, probeCost);
+        if (op == Predicate.Op.EQUALS) {
+            double c = estimateJoinCost(LogicalJoinNode.Algorithm.HASH, card1, card2, cost1, cost2, blockTuples, probeCost);
+            if (c < bestCost) {
+                best = LogicalJoinNode.Algorithm.HASH;
+                bestCost = c;
+            }
+            c = estimateJoinCost(LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP, card1, card2, cost1, cost2, blockTuples, probeCost);
+            if (c < bestCost) {
+                best = LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP;
+                bestCost = c;
+            }
+        }
+        if (op != Predicate.Op.LIKE) {
+            double c = estimateJoinCost(LogicalJoinNode.Algorithm.SORT_MERGE, card1, card2, cost1, cost2, blockTuples, probeCost);
+            if (c < bestCost)
+                best = LogicalJoinNode.Algorithm.SORT_MERGE;
+        }
+        return best;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -336,6 +520,8 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // false for the side that is the result of the joins in prevBest
+        boolean t1IsTable = true, t2IsTable = true;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new ArrayList<>();
@@ -370,6 +556,7 @@ public class JoinOptimizer {
                                        // left
                 // subtree is
                 t1card = bestCard;
+                t1IsTable = false;
                 leftPkey = hasPkey(prevBest);
 
                 t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
@@ -386,6 +573,7 @@ public class JoinOptimizer {
                                        // left
                 // subtree is
                 t2card = bestCard;
+                t2IsTable = false;
                 rightPkey = hasPkey(prevBest);
                 t1cost = stats.get(table1Name).estimateScanCost();
                 t1card = stats.get(table1Name).estimateTableCardinality(
@@ -400,11 +588,12 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, t2IsTable);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, t1IsTable);
+        boolean swapped = cost2 < cost1;
+        if (swapped) {
             boolean tmp;
             j = j2;
             cost1 = cost2;
@@ -420,6 +609,12 @@ public class JoinOptimizer {
         cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
                 rightPkey, stats);
         cc.cost = cost1;
+        // the node objects are shared between subsets, so record the
+        // algorithm on a copy
+        if (!(j instanceof LogicalSubplanJoinNode))
+            j = j.withAlgorithm(swapped
+                    ? chooseJoinAlgorithm(j, t2card, t1card, t2cost, t1cost, t1IsTable)
+                    : chooseJoinAlgorithm(j, t1card, t2card, t1cost, t2cost, t2IsTable));
         cc.plan = new ArrayList<>(prevBest);
         cc.plan.add(j); // prevbest is left -- add new join to end
         return cc;
@@ -25,6 +25,15 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** Physical join algorithms that {@link JoinOptimizer} can choose from */
+    public enum Algorithm {
+        NESTED_LOOP, HASH, SORT_MERGE, INDEX_NESTED_LOOP
+    }
+
+    /** The algorithm picked by the optimizer, or null to let
+     * {@link JoinOptimizer#instantiateJoin} decide from the predicate alone */
+    public Algorithm algorithm;
+
     public LogicalJoinNode() {
     }
 
@@ -64,6 +73,14 @@ public class LogicalJoinNode {
         return new LogicalJoinNode(t2Alias,t1Alias,f2PureName,f1PureName, newp);
     }
     
+    /** Return a copy of this node that will be executed with the given
+     * algorithm. */
+    public LogicalJoinNode withAlgorithm(Algorithm a) {
+        LogicalJoinNode j = new LogicalJoinNode(t1Alias, t2Alias, f1PureName, f2PureName, p);
+        j.algorithm = a;
+        return j;
+    }
+
     @Override public boolean equals(Object o) {
         if (!(o instanceof LogicalJoinNode)) return false;
         LogicalJoinNode j2 =(LogicalJoinNode)o;
@@ -4,6 +4,8 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -34,10 +36,11 @@ public class LogicalPlan {
     private final List<LogicalSelectListNode> selectList;
     private String groupByField = null;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private final List<String> aggOps = new ArrayList<>();
+    private final List<String> aggFields = new ArrayList<>();
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1;
     private String query;
 //    private Query owner;
 
@@ -189,21 +192,36 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
-        @param op the aggregation operator
+        the query.  May be called once for each aggregate expression in the
+        select list; all of them are computed by the same Aggregate, so
+        they must share the GROUP BY field, of which SimpleDb only supports
+        one.
+        @param op the aggregation operator, e.g. "count" or, for
+        COUNT(DISTINCT afield), "count_distinct"
         @param afield the field to aggregate over
         @param gfield the field to group by
-     * @throws ParsingException 
+     * @throws ParsingException if gfield differs from that of an earlier aggregate
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
         if (gfield!=null)
             gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
+        if (hasAgg && !Objects.equals(gfield, groupByField))
+            throw new ParsingException("Aggregates with different GROUP BY fields not supported.");
         groupByField = gfield;
         hasAgg = true;
+        if (aggregateIndex(op, afield) < 0) {
+            aggOps.add(op);
+            aggFields.add(afield);
+        }
+    }
+
+    /** @return the position of the aggregate op(afield) among those added, or -1 */
+    private int aggregateIndex(String op, String afield) {
+        for (int i = 0; i < aggOps.size(); i++)
+            if (aggOps.get(i).equalsIgnoreCase(op) && aggFields.get(i).equals(afield))
+                return i;
+        return -1;
     }
 
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
@@ -219,6 +237,14 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Return at most n tuples. Combined with an ORDER BY, only the first n
+        tuples in that order are kept while sorting.
+        @param n the maximum number of tuples in the result
+    */
+    public void addLimit(int n) {
+        limit = n;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -271,11 +297,18 @@ public class LogicalPlan {
         if (s.equals("COUNT")) return Aggregator.Op.COUNT;
         if (s.equals("MIN")) return Aggregator.Op.MIN;
         if (s.equals("MAX")) return Aggregator.Op.MAX;
+        if (s.equals("COUNT_DISTINCT")) return Aggregator.Op.COUNT_DISTINCT;
         throw new ParsingException("Unknown predicate " + s);
     }
 
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
+     *   The filters of a table read by a {@link SeqScan} are pushed down into
+     *   the scan, as is the projection of its table on the fields the rest of
+     *   the query refers to. The string fields of joined tables that are only
+     *   needed after the joins are fetched by a {@link Materialize} above them.
+     *   Scans with the filters and projection still above them are then fused
+     *   into {@link FusedScan}s.
      *  @param t The transaction that the returned OpIterator will run as a part of
      *  @param baseTableStats a HashMap providing a {@link TableStats}
      *    object for each table used in the LogicalPlan.  This should
@@ -295,9 +328,14 @@ public class LogicalPlan {
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            OpIterator ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                 // B+ trees are read in key order by their own scan
+                 if (file instanceof BTreeFile)
+                     ss = new BTreeScan(t, file.getId(), table.alias, null);
+                 else
+                     ss = new SeqScan(t, file.getId(), table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -335,7 +373,13 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // heap file scans test the predicate on the stored tuples; the
+            // predicate indexes the fields of the table, as the scan is not
+            // projected yet
+            if (subplan.getClass() == SeqScan.class)
+                ((SeqScan) subplan).addPredicate(p);
+            else
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -344,6 +388,38 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // scans only return the fields used above them
+        Set<String> used = usedFields();
+        if (used != null) {
+            for (OpIterator subplan : subplanMap.values())
+                if (subplan.getClass() == SeqScan.class)
+                    pushDownProjection((SeqScan) subplan, used);
+        }
+
+        // joined scans with string fields that are only needed after the
+        // joins return their join fields and record ids instead; the other
+        // fields are fetched once the joins are done
+        Map<String, int[]> deferred = new HashMap<>();
+        if (used != null && !joins.isEmpty()) {
+            Set<String> joinFields = new HashSet<>();
+            for (LogicalJoinNode lj : joins) {
+                joinFields.add(lj.f1QuantifiedName);
+                if (!(lj instanceof LogicalSubplanJoinNode))
+                    joinFields.add(lj.f2QuantifiedName);
+            }
+            for (Map.Entry<String, OpIterator> e : subplanMap.entrySet()) {
+                if (e.getValue().getClass() != SeqScan.class)
+                    continue;
+                int[] late = deferFields((SeqScan) e.getValue(), joinFields);
+                if (late != null)
+                    deferred.put(e.getKey(), late);
+            }
+        }
+
+        // large tables are scanned by several threads
+        for (Map.Entry<String, OpIterator> e : subplanMap.entrySet())
+            e.setValue(ParallelPlanner.parallelScan(e.getValue()));
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -382,6 +458,8 @@ public class LogicalPlan {
 
             OpIterator j;
             j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            j = ParallelPlanner.parallelJoin(j, plan1, plan2);
+            pushDownJoinFilters(j);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -406,6 +484,8 @@ public class LogicalPlan {
         }
         
         OpIterator node = subplanMap.entrySet().iterator().next().getValue();
+        for (Map.Entry<String, int[]> e : deferred.entrySet())
+            node = new Materialize(t, getTableId(e.getKey()), e.getKey(), e.getValue(), node);
 
         //walk the select list, to determine order in which to project output fields
         List<Integer> outFields = new ArrayList<>();
@@ -413,7 +493,10 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                int agg = aggregateIndex(si.aggOp, si.fname);
+                if (agg < 0)
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the plan");
+                outFields.add((groupByField!=null?1:0) + agg);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -460,22 +543,138 @@ public class LogicalPlan {
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
+            int[] afields = new int[aggOps.size()];
+            Aggregator.Op[] ops = new Aggregator.Op[afields.length];
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.fieldNameToIndex(aggFields.get(i));
+                    ops[i] = getAggOp(aggOps.get(i));
+                }
+                aggNode = new Aggregate(node, afields,
                                         groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                                        ops);
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
-            node = aggNode;
+            node = ParallelPlanner.parallelAggregate(aggNode);
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int oByIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+            if (limit >= 0)
+                node = new TopN(oByIndex, oByAsc, limit, node);
+            else
+                node = new OrderBy(oByIndex, oByAsc, node);
+        } else if (limit >= 0) {
+            node = new Limit(limit, node);
         }
 
-        return new Project(outFields, outTypes, node);
+        return PipelineFusion.fuse(new Project(outFields, outTypes, node));
+    }
+
+    /**
+     * @return the qualified names of the fields that the joins, the select
+     *         list, the aggregates, GROUP BY and ORDER BY refer to, or null
+     *         if every field may be needed, as with SELECT *
+     */
+    private Set<String> usedFields() {
+        Set<String> used = new HashSet<>();
+        for (LogicalJoinNode lj : joins) {
+            used.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                used.add(lj.f2QuantifiedName);
+        }
+        for (LogicalSelectListNode si : selectList)
+            used.add(si.fname);
+        used.addAll(aggFields);
+        if (groupByField != null)
+            used.add(groupByField);
+        if (hasOrderBy)
+            used.add(oByField);
+        for (String name : used)
+            if (name == null || !name.contains(".") || name.startsWith("null.") || name.endsWith(".*"))
+                return null;
+        return used;
+    }
+
+    /**
+     * Lets the hash joins of j, a join or the Gather of a parallel join,
+     * push a Bloom filter of their build keys down into the scan of their
+     * probe side. Each join of a parallel join pushes into its own part,
+     * also when a Project restores the field order of a swapped join.
+     */
+    private static void pushDownJoinFilters(OpIterator j) {
+        if (j instanceof HashEquiJoin) {
+            ((HashEquiJoin) j).pushDownJoinFilter();
+        } else if (j instanceof Gather) {
+            for (OpIterator part : ((Gather) j).getChildren()) {
+                if (part instanceof Project)
+                    part = ((Project) part).getChildren()[0];
+                if (part instanceof HashEquiJoin)
+                    ((HashEquiJoin) part).pushDownJoinFilter();
+            }
+        }
+    }
+
+    /**
+     * Late materialization: if scan returns a STRING field that is not one
+     * of joinFields, restricts it to the fields that are, plus the record
+     * id of each tuple.
+     *
+     * @return the fields of the table left out, to fetch after the joins,
+     *         or null if scan was not changed
+     */
+    private static int[] deferFields(SeqScan scan, Set<String> joinFields) {
+        // record ids are only encoded by heap files; columnar files read
+        // only the fields they return anyway
+        if (!(Database.getCatalog().getDatabaseFile(scan.getTableId()) instanceof HeapFile))
+            return null;
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(scan.getTableId());
+        int[] outFields = scan.getOutFields();
+        if (outFields == null) {
+            outFields = new int[tableTd.numFields()];
+            for (int i = 0; i < outFields.length; i++)
+                outFields[i] = i;
+        }
+        List<Integer> keep = new ArrayList<>(), late = new ArrayList<>();
+        boolean wide = false;
+        for (int f : outFields) {
+            if (joinFields.contains(scan.getAlias() + "." + tableTd.getFieldName(f))) {
+                keep.add(f);
+            } else {
+                late.add(f);
+                wide |= tableTd.getFieldType(f) != Type.INT_TYPE;
+            }
+        }
+        if (keep.isEmpty() || !wide)
+            return null;
+        scan.setOutFields(toArray(keep));
+        scan.setRidField(true);
+        return toArray(late);
+    }
+
+    /**
+     * Restricts scan to the fields of its table that are in used; it keeps
+     * at least one field.
+     */
+    private static void pushDownProjection(SeqScan scan, Set<String> used) {
+        TupleDesc td = scan.getTupleDesc();
+        List<Integer> fields = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++)
+            if (used.contains(td.getFieldName(i)))
+                fields.add(i);
+        if (fields.size() == td.numFields())
+            return;
+        if (fields.isEmpty())
+            fields.add(0);
+        scan.setOutFields(toArray(fields));
+    }
+
+    private static int[] toArray(List<Integer> l) {
+        int[] a = new int[l.size()];
+        for (int i = 0; i < a.length; i++)
+            a[i] = l.get(i);
+        return a;
     }
 
     public static void main(String[] argv) {
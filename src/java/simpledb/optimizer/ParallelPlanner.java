@@ -0,0 +1,195 @@
+package simpledb.optimizer;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Broadcast;
+import simpledb.execution.Exchange;
+import simpledb.execution.Filter;
+import simpledb.execution.Gather;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.HashPartition;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.ParallelSeqScan;
+import simpledb.execution.PartialAggregate;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.TupleDesc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites parts of a physical plan so that they run on several threads,
+ * by inserting {@link Exchange} operators. LogicalPlan.physicalPlan calls
+ * it while building the plan:
+ * <ul>
+ * <li>a scan of a large heap file and the filters above it become a
+ * ParallelSeqScan whose workers run the filters, and what was pushed down
+ * into the scan, over morsels of the file;</li>
+ * <li>a hash join with a parallel input joins in parallel: if both inputs
+ * are parallel they are repartitioned on the join keys, otherwise the other
+ * (small) input is broadcast to every part of the parallel one;</li>
+ * <li>an aggregate over a parallel input aggregates in two phases: each
+ * part computes thread-local partial aggregates, which are merged by a
+ * final Aggregate. With grouping, the partial states are repartitioned on
+ * the group key so that the final phase runs in parallel too.</li>
+ * </ul>
+ * A parallel input is a Gather or ParallelSeqScan, whose children are
+ * the parts that run in parallel. Each rewrite leaves one at the top, so
+ * the rest of the plan is unchanged and the rules compose. Nothing is rewritten when
+ * {@link Exchange#getParallelism()} is 1.
+ */
+class ParallelPlanner {
+
+    /** heap files with fewer pages are scanned by a single thread */
+    static final int PARALLEL_SCAN_MIN_PAGES = 256;
+
+    /**
+     * @return the parts of plan that run in parallel, or null if it is not
+     *         a parallel input
+     */
+    private static OpIterator[] parallelParts(OpIterator plan) {
+        if (plan instanceof Gather)
+            return ((Gather) plan).getChildren();
+        if (plan instanceof ParallelSeqScan)
+            return ((ParallelSeqScan) plan).getChildren();
+        return null;
+    }
+
+    /**
+     * @param plan a scan, possibly under filters
+     * @return a parallel scan running the filters of plan if the table is
+     *         large enough, plan otherwise
+     */
+    static OpIterator parallelScan(OpIterator plan) {
+        int n = Exchange.getParallelism();
+        List<Filter> filters = new ArrayList<>();
+        OpIterator leaf = plan;
+        while (leaf instanceof Filter) {
+            filters.add((Filter) leaf);
+            leaf = ((Filter) leaf).getChildren()[0];
+        }
+        if (n < 2 || !(leaf instanceof SeqScan))
+            return plan;
+        SeqScan scan = (SeqScan) leaf;
+        if (Database.getCatalog().getDatabaseFile(scan.getTableId()).numPages()
+                < PARALLEL_SCAN_MIN_PAGES)
+            return plan;
+
+        return new ParallelSeqScan(scan.getTransactionId(), scan.getTableId(), scan.getAlias(), n,
+                in -> {
+                    // the worker scans apply what was pushed down into scan
+                    ((SeqScan) in).pushDown(scan);
+                    OpIterator part = in;
+                    for (int f = filters.size() - 1; f >= 0; f--)
+                        part = new Filter(filters.get(f).getPredicate(), part);
+                    return part;
+                });
+    }
+
+    /**
+     * @return j, with its inputs plan1 and plan2, as a parallel join if
+     *         it is a hash join and at least one input is parallel;
+     *         j otherwise
+     */
+    static OpIterator parallelJoin(OpIterator j, OpIterator plan1, OpIterator plan2) {
+        if (!(j instanceof HashEquiJoin))
+            return j;
+        OpIterator[] parts1 = parallelParts(plan1), parts2 = parallelParts(plan2);
+        if (parts1 == null && parts2 == null)
+            return j;
+        JoinPredicate p = ((HashEquiJoin) j).getJoinPredicate();
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            return j;
+
+        OpIterator[] joins;
+        if (parts1 != null && parts2 != null) {
+            int n = Exchange.getParallelism();
+            HashPartition[] left = HashPartition.partition(p.getField1(), n, parts1);
+            HashPartition[] right = HashPartition.partition(p.getField2(), n, parts2);
+            joins = new OpIterator[n];
+            for (int i = 0; i < n; i++)
+                joins[i] = new HashEquiJoin(p, left[i], right[i]);
+        } else {
+            boolean parallel1 = parts1 != null;
+            OpIterator[] parts = parallel1 ? parts1 : parts2;
+            Broadcast[] small = Broadcast.broadcast(parts.length, parallel1 ? plan2 : plan1);
+            joins = new OpIterator[parts.length];
+            // each join builds its table from the broadcast input and probes
+            // it with its part; if that swaps the inputs, a Project puts the
+            // fields back in the order of j
+            JoinPredicate swapped = new JoinPredicate(p.getField2(), p.getOperator(), p.getField1());
+            for (int i = 0; i < parts.length; i++)
+                joins[i] = parallel1
+                        ? unswap(new HashEquiJoin(swapped, small[i], parts[i]), j.getTupleDesc())
+                        : new HashEquiJoin(p, small[i], parts[i]);
+        }
+        return new Gather(joins);
+    }
+
+    /**
+     * @param join a join of the inputs of a join with schema td, swapped
+     * @return join with its fields in the order of td
+     */
+    private static OpIterator unswap(HashEquiJoin join, TupleDesc td) {
+        int n2 = join.getChildren()[0].getTupleDesc().numFields();
+        int n1 = td.numFields() - n2;
+        List<Integer> fields = new ArrayList<>();
+        Type[] types = new Type[td.numFields()];
+        for (int f = 0; f < td.numFields(); f++) {
+            fields.add(f < n1 ? n2 + f : f - n1);
+            types[f] = td.getFieldType(f);
+        }
+        return new Project(fields, types, join);
+    }
+
+    /**
+     * @return agg as a two-phase aggregation if its input is parallel; agg
+     *         otherwise. A COUNT_DISTINCT has no partial state, so its input
+     *         is repartitioned on the group field instead and each partition
+     *         aggregated whole; without grouping it stays serial.
+     */
+    static OpIterator parallelAggregate(Aggregate agg) {
+        OpIterator child = agg.getChildren()[0];
+        OpIterator[] inputs = parallelParts(child);
+        if (inputs == null)
+            return agg;
+        int n = Exchange.getParallelism();
+        int gfield = agg.groupField();
+        int[] afields = new int[agg.numAggregates()];
+        Aggregator.Op[] ops = new Aggregator.Op[afields.length];
+        boolean distinct = false;
+        for (int i = 0; i < afields.length; i++) {
+            afields[i] = agg.aggregateField(i);
+            ops[i] = agg.aggregateOp(i);
+            distinct |= ops[i] == Aggregator.Op.COUNT_DISTINCT;
+        }
+        if (distinct) {
+            if (gfield == Aggregator.NO_GROUPING)
+                return agg;
+            HashPartition[] parts = HashPartition.partition(gfield, n, inputs);
+            OpIterator[] aggs = new OpIterator[n];
+            for (int i = 0; i < n; i++)
+                aggs[i] = new Aggregate(parts[i], afields, gfield, ops);
+            return new Gather(aggs);
+        }
+
+        PartialAggregate[] partials = new PartialAggregate[inputs.length];
+        for (int i = 0; i < inputs.length; i++)
+            partials[i] = new PartialAggregate(inputs[i], afields, gfield, ops);
+        TupleDesc inputTd = child.getTupleDesc();
+        if (gfield == Aggregator.NO_GROUPING)
+            return Aggregate.mergePartials(new Gather(partials), inputTd, afields, gfield, ops);
+
+        // the group key is field 0 of the partial states
+        HashPartition[] parts = HashPartition.partition(0, n, partials);
+        OpIterator[] finals = new OpIterator[n];
+        for (int i = 0; i < n; i++)
+            finals[i] = Aggregate.mergePartials(parts[i], inputTd, afields, gfield, ops);
+        return new Gather(finals);
+    }
+}
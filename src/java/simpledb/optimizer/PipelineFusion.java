@@ -0,0 +1,78 @@
+package simpledb.optimizer;
+
+import simpledb.execution.Exchange;
+import simpledb.execution.Filter;
+import simpledb.execution.FusedScan;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites the scan pipelines of a physical plan into {@link FusedScan}s:
+ * a SeqScan under one or more Filters, a Project or both becomes a single
+ * scan with the filters and projection pushed down, with no operator left
+ * above it. The probe side of a HashEquiJoin is such a pipeline whenever
+ * it reads a base table, and the join reads the FusedScan a batch at a
+ * time.
+ * <p>
+ * Exchanges are left alone: their subplans run on other threads, and
+ * parallel scans hand out their pages themselves. Scans that return record
+ * ids for a later {@link simpledb.execution.Materialize} are not fused
+ * either.
+ */
+class PipelineFusion {
+
+    private PipelineFusion() {
+    }
+
+    /**
+     * @return plan with every fusable pipeline replaced by a FusedScan
+     */
+    static OpIterator fuse(OpIterator plan) {
+        FusedScan fused = fusePipeline(plan);
+        if (fused != null)
+            return fused;
+        if (!(plan instanceof Operator) || plan instanceof Exchange)
+            return plan;
+        Operator o = (Operator) plan;
+        OpIterator[] children = o.getChildren().clone();
+        boolean changed = false;
+        for (int i = 0; i < children.length; i++) {
+            OpIterator c = fuse(children[i]);
+            changed |= c != children[i];
+            children[i] = c;
+        }
+        if (changed)
+            o.setChildren(children);
+        return o;
+    }
+
+    /**
+     * @return plan as a FusedScan if it is a pipeline of a Project and/or
+     *         Filters over a plain SeqScan, null otherwise
+     */
+    private static FusedScan fusePipeline(OpIterator plan) {
+        int[] outFields = null;
+        OpIterator it = plan;
+        if (it instanceof Project) {
+            outFields = ((Project) it).getOutFields();
+            it = ((Project) it).getChildren()[0];
+        }
+        List<Predicate> preds = new ArrayList<>();
+        while (it instanceof Filter) {
+            preds.add(0, ((Filter) it).getPredicate());
+            it = ((Filter) it).getChildren()[0];
+        }
+        // subclasses of SeqScan choose their own pages
+        if (it == null || it.getClass() != SeqScan.class || ((SeqScan) it).hasRidField())
+            return null;
+        if (outFields == null && preds.isEmpty())
+            return null;
+        return new FusedScan((SeqScan) it, preds, outFields);
+    }
+}
@@ -3,8 +3,13 @@ package simpledb.optimizer;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+
+import simpledb.common.Database;
 
 import simpledb.execution.*;
+import simpledb.index.BTreeScan;
+import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
 
@@ -12,14 +17,31 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String SORT_MERGE_JOIN = "⨝(merge)";
+    static final String INDEX_JOIN = "⨝(index)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
+    static final String FETCH = "fetch";
+    static final String BLOOM = "bloom";
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
+    static final String LIMIT = "limit";
+    static final String PARTIAL = "partial ";
+    static final String FUSED = "fused";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
 
+    private static String joinName(Operator join) {
+        if (join instanceof HashEquiJoin)
+            return HASH_JOIN;
+        if (join instanceof SortMergeJoin)
+            return SORT_MERGE_JOIN;
+        if (join instanceof IndexNestedLoopJoin)
+            return INDEX_JOIN;
+        return JOIN;
+    }
+
     private int calculateQueryPlanTreeDepth(OpIterator root) {
         if (root == null)
             return 0;
@@ -29,7 +51,7 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof JoinOperator) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -58,6 +80,37 @@ public class QueryPlanVisualizer {
 
     }
 
+    /**
+     * @return the predicates, projection and join filters pushed down into
+     *         scan, as ",σ(...),π(...),bloom(...)", or "" if there are none
+     */
+    private static String pushedDown(SeqScan scan) {
+        StringBuilder text = new StringBuilder();
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(scan.getTableId());
+        List<Predicate> preds = scan.getPredicates();
+        if (!preds.isEmpty()) {
+            text.append(",").append(SELECT).append("(");
+            for (int i = 0; i < preds.size(); i++) {
+                Predicate p = preds.get(i);
+                text.append(i == 0 ? "" : ",").append(tableTd.getFieldName(p.getField()))
+                        .append(p.getOp()).append(p.getOperand());
+            }
+            text.append(")");
+        }
+        int[] outFields = scan.getOutFields();
+        if (outFields != null) {
+            text.append(",").append(PROJECT).append("(");
+            for (int i = 0; i < outFields.length; i++)
+                text.append(i == 0 ? "" : ",").append(tableTd.getFieldName(outFields[i]));
+            text.append(")");
+        }
+        for (JoinFilter f : scan.getJoinFilters())
+            text.append(",").append(BLOOM).append("(").append(tableTd.getFieldName(f.getField())).append(")");
+        if (scan.hasRidField())
+            text.append(",").append(HeapFile.RID_FIELD);
+        return text.toString();
+    }
+
     private SubTreeDescriptor buildTree(int queryPlanDepth, int currentDepth,
                                         OpIterator queryPlan, int currentStartPosition,
                                         int parentUpperBarStartShift) {
@@ -67,10 +120,15 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof BTreeScan) {
+            String tableName, alias;
+            if (queryPlan instanceof SeqScan) {
+                tableName = ((SeqScan) queryPlan).getTableName();
+                alias = ((SeqScan) queryPlan).getAlias();
+            } else {
+                tableName = ((BTreeScan) queryPlan).getTableName();
+                alias = ((BTreeScan) queryPlan).getAlias();
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
@@ -78,6 +136,10 @@ public class QueryPlanVisualizer {
                 alias = "";
             thisNode.text = String
                     .format("%1$s(%2$s)", SCAN, tableName + alias);
+            if (queryPlan instanceof SeqScan)
+                thisNode.text += pushedDown((SeqScan) queryPlan);
+            if (queryPlan instanceof FusedScan)
+                thisNode.text += "," + FUSED;
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -109,18 +171,19 @@ public class QueryPlanVisualizer {
             Operator plan = (Operator) queryPlan;
             OpIterator[] children = plan.getChildren();
 
-            if (plan instanceof Join) {
-                Join j = (Join) plan;
+            if (plan instanceof JoinOperator) {
+                JoinOperator j = (JoinOperator) plan;
+                String name = joinName(plan);
                 TupleDesc td = j.getTupleDesc();
                 JoinPredicate jp = j.getJoinPredicate();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
-                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", name,
+                        field1 + jp.getOperator() + field2,plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = JOIN.length() / 2;
+                if (name.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = name.length() / 2;
 
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + adjustDepth + 3, children[0],
@@ -130,35 +193,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - JOIN.length() / 2;
-                thisNode.width = Math.max(
-                        left.width + right.width + SPACE.length(),
-                        thisNode.textStartPosition + thisNode.text.length()
-                                - currentStartPosition);
-                thisNode.leftChild = left;
-                thisNode.rightChild = right;
-                thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
-                int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
-                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[0],
-                        currentStartPosition, upBarShift);
-                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[1],
-                        currentStartPosition + left.width + SPACE.length(), 0);
-                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
+                        - name.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -167,22 +202,40 @@ public class QueryPlanVisualizer {
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
             }
-            else if (plan instanceof Aggregate) {
-                Aggregate a = (Aggregate) plan;
+            else if (plan instanceof Aggregate || plan instanceof PartialAggregate) {
                 int upBarShift = parentUpperBarStartShift;
                 String alignTxt;
-                TupleDesc td = a.getTupleDesc();
-                int gfield = a.groupField();
+                TupleDesc td = plan.getTupleDesc();
+                int gfield;
+                String groupName, prefix;
+                StringBuilder aggs = new StringBuilder();
+                if (plan instanceof Aggregate) {
+                    Aggregate a = (Aggregate) plan;
+                    gfield = a.groupField();
+                    for (int i = 0; i < a.numAggregates(); i++)
+                        aggs.append(i == 0 ? "" : ", ").append(a.aggregateOp(i))
+                                .append("(").append(a.aggregateFieldName(i)).append(")");
+                    groupName = a.groupFieldName();
+                    prefix = "";
+                } else {
+                    PartialAggregate a = (PartialAggregate) plan;
+                    gfield = a.groupField();
+                    for (int i = 0; i < a.numAggregates(); i++)
+                        aggs.append(i == 0 ? "" : ", ").append(a.aggregateOp(i))
+                                .append("(").append(a.aggregateFieldName(i)).append(")");
+                    groupName = a.groupFieldName();
+                    prefix = PARTIAL;
+                }
 
                 if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
-                    alignTxt = td.getFieldName(0);
+                    thisNode.text = String.format("%1$s%2$s,card:%3$d",
+                            prefix, aggs, plan.getEstimatedCardinality());
+                    alignTxt = prefix + td.getFieldName(0);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
-                    alignTxt = GROUPBY;
+                    thisNode.text = String.format("%1$s%2$s(%3$s), %4$s,card:%5$d",
+                            prefix, GROUPBY, groupName, aggs,
+                            plan.getEstimatedCardinality());
+                    alignTxt = prefix + GROUPBY;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
                     upBarShift = alignTxt.length() / 2;
@@ -219,22 +272,55 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof OrderBy) {
-                OrderBy o = (OrderBy) plan;
-                thisNode.text = String.format(
-                        "%1$s(%2$s),card:%3$d",
-                        ORDERBY,
-                        children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+            } else if (plan instanceof OrderBy || plan instanceof Limit) {
+                String symbol;
+                if (plan instanceof OrderBy) {
+                    OrderBy o = (OrderBy) plan;
+                    symbol = ORDERBY;
+                    String limit = plan instanceof TopN
+                            ? ",limit:" + ((TopN) plan).getLimit() : "";
+                    thisNode.text = String.format(
+                            "%1$s(%2$s)%3$s,card:%4$d",
+                            ORDERBY,
+                            children[0].getTupleDesc().getFieldName(
+                                    o.getOrderByField()), limit, o.getEstimatedCardinality());
+                } else {
+                    symbol = LIMIT;
+                    thisNode.text = String.format("%1$s(%2$d),card:%3$d",
+                            LIMIT, ((Limit) plan).getLimit(),
+                            plan.getEstimatedCardinality());
+                }
+                int upBarShift = parentUpperBarStartShift;
+                if (symbol.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = symbol.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - symbol.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            } else if (plan instanceof Materialize) {
+                Materialize m = (Materialize) plan;
+                StringBuilder fields = new StringBuilder();
+                Iterator<TDItem> it = m.getFetchedTupleDesc().iterator();
+                while (it.hasNext())
+                    fields.append(it.next().fieldName).append(",");
+                fields = new StringBuilder(fields.substring(0, fields.length() - 1));
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", FETCH, fields.toString(), m.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (ORDERBY.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = ORDERBY.length() / 2;
+                if (FETCH.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = FETCH.length() / 2;
                 SubTreeDescriptor child = this.buildTree(queryPlanDepth,
                         currentDepth + 2 + adjustDepth, children[0],
                         currentStartPosition, upBarShift);
                 thisNode.upBarPosition = child.upBarPosition;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - ORDERBY.length() / 2;
+                        - FETCH.length() / 2;
                 thisNode.width = Math.max(child.width,
                         thisNode.textStartPosition + thisNode.text.length()
                                 - currentStartPosition);
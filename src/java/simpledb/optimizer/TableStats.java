@@ -70,7 +70,7 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
-    private HeapFile file;
+    private DbFile file;
     private int tableId;
     private int ioCostPerPage;
     private Object histogram[];
@@ -98,7 +98,7 @@ public class TableStats {
         // some code goes here
         this.tableId = tableid;
         this.ioCostPerPage = ioCostPerPage;
-        this.file = (HeapFile)Database.getCatalog().getDatabaseFile(tableid);
+        this.file = Database.getCatalog().getDatabaseFile(tableid);
         this.td = file.getTupleDesc();
         int numField = td.numFields();
         this.histogram = new Object[numField];
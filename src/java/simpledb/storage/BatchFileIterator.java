@@ -0,0 +1,21 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.execution.TupleBatch;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * A DbFileIterator that can also return its tuples a batch at a time,
+ * decoded straight into the columns of a {@link TupleBatch} rather than
+ * tuple by tuple. Calls to next() and nextBatch() may be mixed; each tuple
+ * is returned once either way.
+ */
+public interface BatchFileIterator extends DbFileIterator {
+
+    /**
+     * @param td the schema of the returned batch, which must have the types
+     *           of the tuples of this iterator
+     * @return the next tuples, at least one, or null if there are no more
+     */
+    TupleBatch nextBatch(TupleDesc td) throws DbException, TransactionAbortedException;
+}
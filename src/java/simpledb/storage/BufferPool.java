@@ -185,6 +185,21 @@ class LockManager{
  * @Threadsafe, all fields are final
  */
 public class BufferPool {
+
+    /**
+     * How hard the buffer pool works to make committed pages survive a crash.
+     * <ul>
+     * <li>NONE: pages are written at commit but never synced; the OS decides
+     * when they reach the disk.</li>
+     * <li>BATCH: at commit all pages of the transaction are written first,
+     * then every file they belong to is synced once.</li>
+     * <li>STRICT: every page write is synced before the next one starts.</li>
+     * </ul>
+     */
+    public enum Durability {
+        NONE, BATCH, STRICT
+    }
+
     /** Bytes per page, including header. */
     private static final int DEFAULT_PAGE_SIZE = 4096;
 
@@ -193,6 +208,7 @@ public class BufferPool {
     private ConcurrentHashMap<PageId, Page> pages;
     private int numPages;
     private LockManager lock;
+    private Durability durability;
     
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
@@ -209,6 +225,23 @@ public class BufferPool {
         this.numPages = numPages;
         this.pages = new ConcurrentHashMap<>();
         this.lock = new LockManager();
+        this.durability = Durability.BATCH;
+    }
+
+    /**
+     * @return the durability level used when transactions commit
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Set the durability level used when transactions commit.
+     *
+     * @param durability the new durability level
+     */
+    public void setDurability(Durability durability) {
+        this.durability = durability;
     }
     
     public static int getPageSize() {
@@ -258,14 +291,19 @@ public class BufferPool {
         // System.out.println(acquired);
         // if(!acquired)
             // throw new DbException("acquired lock failed");
-        Page page = null;
-        if(pages.containsKey(pid))
-            page = pages.get(pid);
-        else{
-            if(pages.size() >= numPages)
-                evictPage();
-            page =  Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-            pages.put(pid, page);
+        Page page = pages.get(pid);
+        if (page == null) {
+            // parallel scans of one transaction may miss on the same page
+            // at once; only one of them may read it
+            synchronized (this) {
+                page = pages.get(pid);
+                if (page == null) {
+                    if(pages.size() >= numPages)
+                        evictPage();
+                    page =  Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                    pages.put(pid, page);
+                }
+            }
         }
         // lock.releaseLock(pid, tid);
         return page;
@@ -292,7 +330,7 @@ public class BufferPool {
      *
      * @param tid the ID of the transaction requesting the unlock
      */
-    public void transactionComplete(TransactionId tid) throws IOException {
+    public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
         transactionComplete(tid, true);
@@ -312,25 +350,40 @@ public class BufferPool {
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
+     * @throws UncheckedIOException if a page of a committing transaction
+     *         could not be written or synced; the transaction is then
+     *         aborted instead: the before images of its pages are written
+     *         back and the pages are discarded from the pool, and its
+     *         locks are released all the same
      */
     public void transactionComplete(TransactionId tid, boolean commit){
         // some code goes here
         // not necessary for lab1|lab2
         try{
             if(commit){
-                flushPages(tid);
+                List<Page> dirty = dirtyPages(tid);
+                try{
+                    flushPages(tid);
+                }
+                catch(IOException e){
+                    // a commit that is not durable must not be reported as
+                    // one, but its pages may already be in the file
+                    undoPages(tid, dirty, e);
+                    throw new UncheckedIOException("commit of " + tid + " failed", e);
+                }
+                for (Page p : dirty)
+                    p.setBeforeImage();
             }
             else{
                 rollPages(tid);
             }
+        }
+        finally{
             for (PageId p : pages.keySet()) {
                 if(holdsLock(tid, p))
                     unsafeReleasePage(tid, p);
             }
         }
-        catch(IOException e){
-            e.printStackTrace();
-        }
     }
 
     /**
@@ -352,7 +405,7 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        HeapFile file = (HeapFile)Database.getCatalog().getDatabaseFile(tableId);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> list = file.insertTuple(tid, t);
         for(Page p: list){
             p.markDirty(true, tid);
@@ -379,7 +432,7 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        HeapFile file = (HeapFile)Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
         List<Page> list = file.deleteTuple(tid, t);
         for(Page p: list){
             p.markDirty(true, tid);
@@ -397,8 +450,8 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for (ConcurrentHashMap.Entry entry : pages.entrySet()) {
-            flushPage((HeapPageId)(entry.getKey()));
+        for (PageId pid : pages.keySet()) {
+            flushPage(pid);
         }
     }
 
@@ -423,25 +476,66 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        HeapPage p = (HeapPage)pages.get(pid);
-        HeapFile file = (HeapFile)Database.getCatalog().getDatabaseFile(pid.getTableId());
+        Page p = pages.get(pid);
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
         file.writePage(p);
-        // p.markDirty(false, null);
+        if(durability == Durability.STRICT)
+            file.force();
+        p.markDirty(false, null);
     }
 
     /** Write all pages of the specified transaction to disk.
+     *  Under BATCH durability every touched file is synced once, after
+     *  all of its pages have been written.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        Set<DbFile> touched = new HashSet<>();
         for (PageId pid : pages.keySet()) {
             Page p = pages.get(pid);
-            if(p.isDirty() == tid)
+            if(p.isDirty() == tid){
                 flushPage(pid);
+                touched.add(Database.getCatalog().getDatabaseFile(pid.getTableId()));
+            }
+        }
+        if(durability == Durability.BATCH){
+            for (DbFile file : touched)
+                file.force();
+        }
+    }
+
+    /** @return the pages of the pool dirtied by tid */
+    private synchronized List<Page> dirtyPages(TransactionId tid) {
+        List<Page> dirty = new ArrayList<>();
+        for (Page p : pages.values()) {
+            if(p.isDirty() == tid)
+                dirty.add(p);
+        }
+        return dirty;
+    }
+
+    /**
+     * Writes the before images of the pages of a failed commit back to
+     * their files, whether or not the pages were written, and discards the
+     * pages along with the locks tid holds on them. Errors are added to
+     * cause as suppressed exceptions.
+     */
+    private synchronized void undoPages(TransactionId tid, List<Page> dirty, IOException cause) {
+        for (Page p : dirty) {
+            PageId pid = p.getId();
+            try{
+                Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p.getBeforeImage());
+            }
+            catch(IOException e){
+                cause.addSuppressed(e);
+            }
+            discardPage(pid);
+            unsafeReleasePage(tid, pid);
         }
     }
 
-    public synchronized  void rollPages(TransactionId tid) throws IOException {
+    public synchronized  void rollPages(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
         for (PageId pid : pages.keySet()) {
@@ -466,15 +560,9 @@ public class BufferPool {
             ConcurrentHashMap.Entry<PageId, Page> entry = entries.next();
             if(entry.getValue().isDirty() != null)
                 continue;
-            HeapPageId pid = (HeapPageId)entry.getKey();
-            try{
-                flushPage(pid);
-                discardPage(pid);
-                return;
-            }
-            catch(IOException e){
-                e.printStackTrace();
-            }
+            // clean pages already match the disk, no need to write them back
+            discardPage(entry.getKey());
+            return;
         }
         throw new DbException("all page is dirty, can't evict");
     }
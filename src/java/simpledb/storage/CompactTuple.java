@@ -0,0 +1,169 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A Tuple whose field values live in a single byte array laid out exactly
+ * like the on-disk format (see {@link Field#serialize} and
+ * {@link TupleDesc#getOffset}), instead of one Field object per column.
+ * HeapPage hands these out directly from the page bytes, and joins build
+ * their output by copying the two inputs' arrays back to back.
+ * <p>
+ * {@link #getInt} and {@link #getString} read the bytes directly;
+ * {@link #getField} still works but allocates a new Field on every call.
+ * Fields that have never been set read as 0 or the empty string.
+ * VARCHAR_TYPE values are padded like STRING_TYPE ones here, so that every
+ * field has a fixed offset; only slotted heap pages store them unpadded.
+ */
+public class CompactTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private byte[] data;
+
+    /**
+     * Create a new tuple with all fields zeroed.
+     *
+     * @param td the schema of this tuple
+     */
+    public CompactTuple(TupleDesc td) {
+        this(td, new byte[td.getMaxSize()]);
+    }
+
+    /**
+     * Create a tuple over serialized field values. The array is used as is,
+     * not copied.
+     *
+     * @param td   the schema of this tuple
+     * @param data td.getMaxSize() bytes in the format written by Field.serialize
+     */
+    public CompactTuple(TupleDesc td, byte[] data) {
+        super(td, null);
+        this.data = data;
+    }
+
+    /**
+     * Builds the concatenation of two tuples, as produced by a join.
+     *
+     * @param td the merge of the schemas of t1 and t2
+     */
+    public static CompactTuple concat(TupleDesc td, Tuple t1, Tuple t2) {
+        byte[] data = new byte[td.getMaxSize()];
+        int len1 = copyInto(t1, data, 0);
+        copyInto(t2, data, len1);
+        return new CompactTuple(td, data);
+    }
+
+    /**
+     * Builds a tuple of the given fields of t, as produced by a projection.
+     * The fields of a CompactTuple are copied as bytes, without decoding.
+     *
+     * @param td     the schema of the projected tuple
+     * @param fields the field of t for each field of td
+     */
+    public static CompactTuple project(TupleDesc td, Tuple t, int[] fields) {
+        byte[] data = new byte[td.getMaxSize()];
+        TupleDesc src = t.getTupleDesc();
+        for (int i = 0; i < fields.length; i++) {
+            int f = fields[i];
+            if (t instanceof CompactTuple)
+                System.arraycopy(((CompactTuple) t).data, src.getOffset(f), data,
+                        td.getOffset(i), src.getFieldType(f).getLen());
+            else
+                write(data, td.getOffset(i), t.getField(f));
+        }
+        CompactTuple p = new CompactTuple(td, data);
+        p.setRecordId(t.getRecordId());
+        return p;
+    }
+
+    private static int copyInto(Tuple t, byte[] dst, int off) {
+        TupleDesc td = t.getTupleDesc();
+        int size = td.getMaxSize();
+        if (t instanceof CompactTuple) {
+            System.arraycopy(((CompactTuple) t).data, 0, dst, off, size);
+        } else {
+            for (int i = 0; i < td.numFields(); i++) {
+                Field f = t.getField(i);
+                if (f != null)
+                    write(dst, off + td.getOffset(i), f);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the backing array of this tuple, in the format written by
+     *         Field.serialize for each field in order
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public int getInt(int i) {
+        return readInt(data, getTupleDesc().getOffset(i));
+    }
+
+    @Override
+    public String getString(int i) {
+        int off = getTupleDesc().getOffset(i);
+        return new String(data, off + 4, readInt(data, off), StringField.CHARSET);
+    }
+
+    @Override
+    public Field getField(int i) {
+        if (getTupleDesc().getFieldType(i) == Type.INT_TYPE)
+            return new IntField(getInt(i));
+        return new StringField(getString(i), Type.STRING_LEN);
+    }
+
+    @Override
+    public void setField(int i, Field f) {
+        write(data, getTupleDesc().getOffset(i), f);
+    }
+
+    @Override
+    public Iterator<Field> fields() {
+        List<Field> fs = new ArrayList<>();
+        for (int i = 0; i < getTupleDesc().numFields(); i++)
+            fs.add(getField(i));
+        return fs.iterator();
+    }
+
+    @Override
+    public void resetTupleDesc(TupleDesc td) {
+        super.resetTupleDesc(td);
+        data = new byte[td.getMaxSize()];
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] << 24) | ((b[off + 1] & 0xff) << 16)
+                | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    /** Same bytes as f.serialize() would write, stored at b[off]. */
+    private static void write(byte[] b, int off, Field f) {
+        if (f instanceof IntField) {
+            writeInt(b, off, ((IntField) f).getValue());
+            return;
+        }
+        byte[] bs = ((StringField) f).getValue().getBytes(StringField.CHARSET);
+        int len = Math.min(bs.length, Type.STRING_LEN);
+        writeInt(b, off, len);
+        System.arraycopy(bs, 0, b, off + 4, len);
+        Arrays.fill(b, off + 4 + len, off + 4 + Type.STRING_LEN, (byte) 0);
+    }
+}
@@ -33,6 +33,17 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Force all pages previously pushed to disk with {@link #writePage} to
+     * stable storage. The buffer pool calls this when a transaction commits,
+     * according to its {@link BufferPool.Durability} level.
+     * Files that never buffer writes may keep the default, which does nothing.
+     *
+     * @throws IOException if the sync fails
+     */
+    default void force() throws IOException {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -93,4 +104,12 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Returns the number of pages in this DbFile, which the optimizer uses to
+     * estimate the cost of reading it.
+     */
+    default int numPages() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not report its size");
+    }
 }
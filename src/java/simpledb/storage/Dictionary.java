@@ -0,0 +1,166 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The dictionary of a dictionary encoded STRING_TYPE column: the distinct
+ * values of the column, each numbered with an int code in the order it was
+ * first added. Pages store the codes instead of the values, and batches
+ * carry them in an int column (see {@link simpledb.execution.TupleBatch}),
+ * so that equality tests, joins and grouping on the column compare ints
+ * and the values are decoded only when they are returned.
+ * <p>
+ * Values are only ever added, so a code never changes its value; codes of
+ * values added by aborted transactions are simply left unused. All methods
+ * are synchronized; a dictionary is shared by all the scans and updates of
+ * its table.
+ *
+ * @see PaxFile
+ */
+public class Dictionary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAGIC = 0x44494354;
+
+    private final List<String> values = new ArrayList<>();
+    private final List<byte[]> bytes = new ArrayList<>();
+    private final Map<String, Integer> codes = new HashMap<>();
+    /** true if values were added since the dictionary was last saved */
+    private boolean changed = false;
+
+    /**
+     * @return the code of s, or -1 if s is not in the dictionary
+     */
+    public synchronized int code(String s) {
+        Integer c = codes.get(truncate(s));
+        return c == null ? -1 : c;
+    }
+
+    /**
+     * @return the code of s, adding s to the dictionary if it is new
+     */
+    public synchronized int encode(String s) {
+        s = truncate(s);
+        Integer c = codes.get(s);
+        if (c != null)
+            return c;
+        add(s);
+        changed = true;
+        return values.size() - 1;
+    }
+
+    private void add(String s) {
+        codes.put(s, values.size());
+        values.add(s);
+        bytes.add(s.getBytes(StringField.CHARSET));
+    }
+
+    /** values are truncated like the values of a StringField when stored */
+    private static String truncate(String s) {
+        return s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s;
+    }
+
+    /**
+     * @return the value of a code
+     */
+    public synchronized String decode(int code) {
+        return values.get(code);
+    }
+
+    /**
+     * @return the UTF-8 bytes of the value of a code; must not be modified
+     */
+    public synchronized byte[] bytes(int code) {
+        return bytes.get(code);
+    }
+
+    /** @return the number of values in the dictionary */
+    public synchronized int size() {
+        return values.size();
+    }
+
+    /**
+     * Writes the dictionaries of the fields of a table to a file.
+     *
+     * @param dicts the dictionary of each field, or null for the fields
+     *              that are not encoded
+     */
+    public static void save(File f, Dictionary[] dicts) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(dicts.length);
+            for (Dictionary d : dicts) {
+                if (d == null) {
+                    out.writeInt(-1);
+                    continue;
+                }
+                synchronized (d) {
+                    out.writeInt(d.values.size());
+                    for (String s : d.values)
+                        out.writeUTF(s);
+                    d.changed = false;
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(f)) {
+            f.delete();
+            if (!tmp.renameTo(f))
+                throw new IOException("cannot replace " + f);
+        }
+    }
+
+    /**
+     * @return true if a value was added to any of dicts since it was last
+     *         saved
+     */
+    public static boolean isChanged(Dictionary[] dicts) {
+        for (Dictionary d : dicts) {
+            if (d == null)
+                continue;
+            synchronized (d) {
+                if (d.changed)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the dictionaries written by {@link #save}.
+     *
+     * @return the dictionary of each of the numFields fields of the table,
+     *         null for the fields that are not encoded
+     * @throws IOException if the file cannot be read or is not a
+     *         dictionary file of a table with numFields fields
+     */
+    public static Dictionary[] load(File f, int numFields) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != numFields)
+                throw new IOException("not a dictionary file of " + numFields + " fields: " + f);
+            Dictionary[] dicts = new Dictionary[numFields];
+            for (int i = 0; i < numFields; i++) {
+                int n = in.readInt();
+                if (n < 0)
+                    continue;
+                dicts[i] = new Dictionary();
+                for (int j = 0; j < n; j++)
+                    dicts[i].add(in.readUTF());
+            }
+            return dicts;
+        } finally {
+            in.close();
+        }
+    }
+}
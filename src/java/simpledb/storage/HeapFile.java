@@ -4,6 +4,8 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.CompiledPredicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -18,15 +20,29 @@ import java.util.ArrayList;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Each HeapFile keeps a {@link ZoneMap} of its pages, saved next to it in
+ * a file with the suffix {@value #ZONE_MAP_SUFFIX} when the file is forced,
+ * so that scans with predicates can skip pages and inserts can skip full
+ * pages without reading them.
  * 
  * @see HeapPage#HeapPage
  * @author Sam Madden
  */
-public class HeapFile implements DbFile {
+public class HeapFile implements ScannableFile {
+
+    /** the name of the record id field added by iterators that return it */
+    public static final String RID_FIELD = "$rid";
+    /** the suffix of the name of the file holding the zone map */
+    public static final String ZONE_MAP_SUFFIX = ".zm";
 
     private final File file;
 	private final TupleDesc td;
 	private final int tableid ;
+    /** the zone map, loaded on first use */
+    private ZoneMap zones = null;
+    /** true while the saved zone map matches the file */
+    private boolean zonesSaved = false;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -79,6 +95,24 @@ public class HeapFile implements DbFile {
         // throw new UnsupportedOperationException("implement this");
     }
 
+    /**
+     * @return the zone map of this file, read from its zone map file if it
+     *         has an up to date one
+     */
+    public synchronized ZoneMap getZoneMap() {
+        if (zones == null) {
+            zones = ZoneMap.load(zoneMapFile(), file, td);
+            zonesSaved = zones != null;
+            if (zones == null)
+                zones = new ZoneMap(td);
+        }
+        return zones;
+    }
+
+    private File zoneMapFile() {
+        return new File(file.getPath() + ZONE_MAP_SUFFIX);
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
@@ -94,6 +128,7 @@ public class HeapFile implements DbFile {
             HeapPageId pageid = new HeapPageId(tableid, pgNo);
             HeapPage page = new HeapPage(pageid, bytes);
             rf.close();
+            getZoneMap().set(pgNo, page);
             return (Page)page;
         } catch (IOException e){
             e.printStackTrace();
@@ -108,11 +143,37 @@ public class HeapFile implements DbFile {
         // not necessary for lab1
         HeapPageId pid = (HeapPageId)page.getId();
         int pgNo = pid.getPageNumber();
+        ZoneMap zones = getZoneMap();
+        synchronized (this) {
+            // the saved zone map no longer matches the file, even if the
+            // write leaves its length and modification time as they were
+            if (zonesSaved) {
+                zoneMapFile().delete();
+                zonesSaved = false;
+            }
+        }
         RandomAccessFile rf = new RandomAccessFile(file, "rw");
         long offset = BufferPool.getPageSize() * pgNo;
         rf.seek(offset);
         rf.write(page.getPageData());
         rf.close(); 
+        zones.set(pgNo, (HeapPage) page);
+    }
+
+    // see DbFile.java for javadocs
+    public void force() throws IOException {
+        RandomAccessFile rf = new RandomAccessFile(file, "rw");
+        try {
+            rf.getChannel().force(false);
+        } finally {
+            rf.close();
+        }
+        synchronized (this) {
+            if (zones != null && (zones.isChanged() || !zonesSaved)) {
+                zones.save(zoneMapFile(), file);
+                zonesSaved = true;
+            }
+        }
     }
 
     /**
@@ -134,14 +195,18 @@ public class HeapFile implements DbFile {
         int num = numPages();
         List<Page> list = new ArrayList<>();
         HeapPageId npid = null;
+        ZoneMap zones = getZoneMap();
+        int slots = HeapPage.slotsPerPage(td);
         for(int i = 0; i < num; ++i){
+            if(zones.getLive(i) >= slots)
+                continue;
             npid = new HeapPageId(getId(), i);
             HeapPage page = (HeapPage)(Database.getBufferPool().getPage(tid, npid, Permissions.READ_WRITE));
-            if(page.getNumEmptySlots() > 0){
+            if(page.hasRoomFor(t)){
                 page.insertTuple(t);
+                zones.insert(i, t);
                 page.markDirty(true, tid);
                 list.add(page);
-                Database.getBufferPool().unsafeReleasePage(tid, npid);
                 break;
             }
             Database.getBufferPool().unsafeReleasePage(tid, npid);
@@ -152,9 +217,9 @@ public class HeapFile implements DbFile {
             writePage(blankpage); // write new page to file
             HeapPage npage = (HeapPage)(Database.getBufferPool().getPage(tid, npid, Permissions.READ_WRITE));
             npage.insertTuple(t);
+            zones.insert(num, t);
             npage.markDirty(true, tid);
             list.add(npage);
-            Database.getBufferPool().unsafeReleasePage(tid, npid);
         }
         return list;
     }
@@ -170,37 +235,130 @@ public class HeapFile implements DbFile {
         HeapPageId pid = (HeapPageId)rid.getPageId();
         HeapPage page = (HeapPage)(Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE));
         page.deleteTuple(t);
+        // the zone map takes the delete when the page is written at commit
         page.markDirty(true, tid);
         list.add(page);
-        Database.getBufferPool().unsafeReleasePage(tid, pid);
         return list;
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, 0, -1, null, null, false);
         // return null;
     }
 
+    /**
+     * Returns an iterator over the tuples on pages fromPage (inclusive) to
+     * toPage (exclusive) of this file, so that a scan can be split into
+     * page ranges read by different threads.
+     *
+     * @param toPage the end of the range, or -1 for the end of the file
+     */
+    public DbFileIterator iterator(TransactionId tid, int fromPage, int toPage) {
+        return new HeapFileIterator(this, tid, fromPage, toPage, null, null, false);
+    }
+
+    /**
+     * Returns an iterator over the tuples on pages fromPage (inclusive) to
+     * toPage (exclusive) of this file that pass pred, each reduced to the
+     * given fields. The predicate is tested on the stored tuples, which read
+     * their fields straight from the serialized bytes; only the tuples that
+     * pass are copied, and only the requested fields of them. Pages the zone
+     * map shows to have no tuple that can pass are not read at all.
+     *
+     * @param toPage  the end of the range, or -1 for the end of the file
+     * @param pred    the predicate, over the fields of this file, or null
+     * @param fields  the fields of this file to return, or null for all of
+     *                them as stored
+     * @param withRid if true, the tuples have an extra INT field at the end
+     *                holding their record id, see {@link #encodeRecordId}
+     */
+    public DbFileIterator iterator(TransactionId tid, int fromPage, int toPage,
+                                   CompiledPredicate pred, int[] fields, boolean withRid) {
+        if (withRid && fields == null) {
+            fields = new int[td.numFields()];
+            for (int i = 0; i < fields.length; i++)
+                fields[i] = i;
+        }
+        return new HeapFileIterator(this, tid, fromPage, toPage, pred, fields, withRid);
+    }
+
+    /**
+     * @return the record id of a tuple of this file as an int, so that it
+     *         can be carried in an INT field: its page number times the
+     *         number of slots per page, plus its slot
+     */
+    public int encodeRecordId(RecordId rid) {
+        return rid.getPageId().getPageNumber() * HeapPage.slotsPerPage(td) + rid.getTupleNumber();
+    }
+
+    /**
+     * @return the record id encoded as v by {@link #encodeRecordId}
+     */
+    public RecordId decodeRecordId(int v) {
+        int slots = HeapPage.slotsPerPage(td);
+        return new RecordId(new HeapPageId(tableid, v / slots), v % slots);
+    }
+
     private static class HeapFileIterator implements DbFileIterator{
         private HeapFile file;
         private TransactionId tid;
         private int pageIdx;
-        private Iterator<Tuple> currIt;
+        private final int fromPage;
+        /** end of the page range, or -1 to read up to the current end of file */
+        private final int toPage;
+        /** the predicate the tuples must pass, or null */
+        private final CompiledPredicate pred;
+        private final ZoneMap zones;
+        /** the fields returned, or null for the stored tuples */
+        private final int[] fields;
+        /** true if the record id is added to the returned tuples */
+        private final boolean withRid;
+        private final TupleDesc outTd;
+        /** the page being read and the next slot of it, null when not open */
+        private HeapPage page;
+        private int slot;
+        /** the next tuple to return, once found by hasNext */
+        private Tuple next;
 
-        public HeapFileIterator(HeapFile f, TransactionId tid){
+        public HeapFileIterator(HeapFile f, TransactionId tid, int fromPage, int toPage,
+                                CompiledPredicate pred, int[] fields, boolean withRid){
             this.file = f;
             this.tid = tid;
+            this.fromPage = fromPage;
+            this.toPage = toPage;
+            this.pred = pred;
+            this.zones = f.getZoneMap();
+            this.fields = fields;
+            this.withRid = withRid;
+            TupleDesc td = fields == null ? null : f.getTupleDesc().project(fields);
+            if (withRid)
+                td = TupleDesc.merge(td, new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{RID_FIELD}));
+            this.outTd = td;
             pageIdx = -1;
-            currIt = null;
+            page = null;
+        }
+
+        private int endPage() {
+            return toPage < 0 ? file.numPages() : Math.min(toPage, file.numPages());
         }
 
-        private Iterator<Tuple> getIterator(int pgNo) throws TransactionAbortedException, DbException{
+        private HeapPage getPage(int pgNo) throws TransactionAbortedException, DbException{
             HeapPageId pid = new HeapPageId(file.getId(), pgNo);
-            HeapPage page = (HeapPage)(Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY));
-            return page.iterator();
-            // return null;
+            return (HeapPage)(Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY));
+        }
+
+        /**
+         * Moves to the first page from pageIdx on that may hold a tuple
+         * passing pred, skipping the others without reading them.
+         */
+        private void seekPage() throws TransactionAbortedException, DbException{
+            int end = endPage();
+            while (pageIdx < end && !zones.mayMatch(pageIdx, pred))
+                pageIdx++;
+            page = pageIdx < end ? getPage(pageIdx) : null;
+            slot = 0;
         }
 
         /**
@@ -208,31 +366,30 @@ public class HeapFile implements DbFile {
          * @throws DbException when there are problems opening/accessing the database.
          */
         public void open() throws TransactionAbortedException, DbException{
-            pageIdx = 0;
-            currIt = getIterator(pageIdx);
-            if (currIt == null) {
-                throw new DbException("currIt is null");
-            }
+            pageIdx = fromPage;
+            seekPage();
+            next = null;
         }
 
         /** @return true if there are more tuples available, false if no more tuples or iterator isn't open. */
         public boolean hasNext() throws TransactionAbortedException, DbException{
-            // System.out.println("idx: " + pageIdx + file.numPages());
-            if(currIt == null){
-                return false;
-            }
-            if(!currIt.hasNext()){
-                pageIdx++;
-                while(pageIdx < file.numPages()){
-                    currIt = getIterator(pageIdx);
-                    if(currIt.hasNext())
+            if (next != null)
+                return true;
+            while (page != null) {
+                int n = page.getNumSlots();
+                while (slot < n) {
+                    Tuple t = page.getSlotTuple(slot++);
+                    if (t != null && (pred == null || pred.test(t))) {
+                        next = fields == null ? t : CompactTuple.project(outTd, t, fields);
+                        if (withRid)
+                            next.setField(fields.length, new IntField(file.encodeRecordId(t.getRecordId())));
                         return true;
-                    else
-                        pageIdx++;
+                    }
                 }
-                return false;
+                pageIdx++;
+                seekPage();
             }
-            return true;
+            return false;
         }
 
         /**
@@ -243,8 +400,11 @@ public class HeapFile implements DbFile {
          * @throws NoSuchElementException if there are no more tuples
          */
         public Tuple next() throws TransactionAbortedException, DbException, NoSuchElementException{
-            if(hasNext())
-                return currIt.next();
+            if(hasNext()) {
+                Tuple t = next;
+                next = null;
+                return t;
+            }
             throw new NoSuchElementException("no element");
             // return null;
         }
@@ -262,7 +422,8 @@ public class HeapFile implements DbFile {
          * Closes the iterator.
          */
         public void close(){
-            currIt = null;
+            page = null;
+            next = null;
         }
     }
 
@@ -1,11 +1,13 @@
 package simpledb.storage;
 
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -93,6 +95,13 @@ public class HeapFileEncoder {
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
 
+      for (int i = 0; i < numFields; i++) {
+          if (!typeAr[i].isFixedLen()) {
+              convertSlotted(inFile, outFile, numFields, typeAr, fieldSeparator);
+              return;
+          }
+      }
+
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
           nrecbytes += typeAr[i].getLen();
@@ -154,7 +163,7 @@ public class HeapFileEncoder {
                     s  = s.substring(0,Type.STRING_LEN);
                 }
                 pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
+                pageStream.write(s.getBytes(StringField.CHARSET));
                 while (overflow-- > 0)
                     pageStream.write((byte)0);
             }
@@ -224,4 +233,54 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /**
+   * Converts a text file with variable-length fields into pages of the
+   * slotted layout (see HeapPage), filling each page for as long as the
+   * next tuple fits. Pages are BufferPool.getPageSize() bytes long.
+   */
+  private static void convertSlotted(File inFile, File outFile, int numFields,
+                 Type[] typeAr, char fieldSeparator) throws IOException {
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      HeapPageId pid = new HeapPageId(0, 0);
+      String sep = Pattern.quote(String.valueOf(fieldSeparator));
+      try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+           OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile))) {
+          HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData(), td);
+          int recordcount = 0;
+          int npages = 0;
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.trim().isEmpty())
+                  continue;
+              String[] vals = line.split(sep, -1);
+              Tuple t = new Tuple(td);
+              try {
+                  for (int i = 0; i < numFields; i++) {
+                      if (typeAr[i] == Type.INT_TYPE)
+                          t.setField(i, new IntField(Integer.parseInt(vals[i].trim())));
+                      else
+                          t.setField(i, new StringField(vals[i].trim(), Type.STRING_LEN));
+                  }
+              } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                  System.out.println ("BAD LINE : " + line);
+                  continue;
+              }
+              if (!page.hasRoomFor(t)) {
+                  os.write(page.getPageData());
+                  npages++;
+                  page = new HeapPage(pid, HeapPage.createEmptyPageData(), td);
+                  recordcount = 0;
+              }
+              try {
+                  page.insertTuple(t);
+              } catch (DbException e) {
+                  throw new IOException(e);
+              }
+              recordcount++;
+          }
+          if (recordcount > 0 || npages == 0)
+              os.write(page.getPageData());
+      }
+  }
 }
@@ -4,8 +4,10 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.common.Type;
 import simpledb.transaction.TransactionId;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.io.*;
 
@@ -24,6 +26,10 @@ public class HeapPage implements Page {
     final byte[] header;
     final Tuple[] tuples;
     final int numSlots;
+    /** true if the page is stored in the slotted layout, see {@link #HeapPage} */
+    final boolean slotted;
+    /** the total size of the records of the tuples on a slotted page */
+    private int recordBytes;
 
     byte[] oldData;
     private final Byte oldDataLock= (byte) 0;
@@ -43,16 +49,42 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Tables with variable-length fields (see {@link Type#isFixedLen}) use
+     * the slotted layout instead: the page starts with the number of entries
+     * of its slot directory, an int, followed by the directory, one entry per
+     * slot of two shorts, the offset and length of the record of the tuple in
+     * the slot, or 0 for an empty slot. The records are packed at the end of
+     * the page and hold the fields as serialized by Field.serialize, except
+     * that the values of variable-length fields are not padded. A slotted
+     * page has room for as many tuples as fit with their records, so the
+     * number of slots is the most tuples of the smallest size that fit.
+     * In memory, tuples of either layout are padded to td.getMaxSize() bytes.
+     * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage of a table that may not be in the catalog yet.
+     */
+    HeapPage(HeapPageId id, byte[] data, TupleDesc td) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
         this.numSlots = getNumTuples();
+        this.slotted = !td.isFixedSize();
         this.dirty = false;
         this.tid = null;
+        if (slotted) {
+            header = new byte[getHeaderSize()];
+            tuples = new Tuple[numSlots];
+            readRecords(data);
+            setBeforeImage();
+            return;
+        }
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // allocate and read the header slots of this page
@@ -78,12 +110,22 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
-        int num = (int)Math.floor(BufferPool.getPageSize()*8.0 / (td.getSize()*8 + 1));
-        return num;
+        return slotsPerPage(td);
         // return 0;
 
     }
 
+    /** @return the number of tuple slots on each page of a table of td */
+    public static int slotsPerPage(TupleDesc td) {
+        if (!td.isFixedSize()) {
+            int minRecord = 0;
+            for (int i = 0; i < td.numFields(); i++)
+                minRecord += td.getFieldType(i).getMinLen();
+            return (BufferPool.getPageSize() - 4) / (4 + minRecord);
+        }
+        return (int)Math.floor(BufferPool.getPageSize()*8.0 / (td.getMaxSize()*8 + 1));
+    }
+
     /**
      * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
@@ -105,7 +147,7 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid,oldDataRef,td);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -137,7 +179,7 @@ public class HeapPage implements Page {
         // if associated bit is not set, read forward to the next tuple, and
         // return null.
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
+            for (int i=0; i<td.getMaxSize(); i++) {
                 try {
                     dis.readByte();
                 } catch (IOException e) {
@@ -147,23 +189,104 @@ public class HeapPage implements Page {
             return null;
         }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+        // keep the serialized fields as they are; CompactTuple decodes them
+        // on access
+        byte[] data = new byte[td.getMaxSize()];
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
+            dis.readFully(data);
+        } catch (IOException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+        Tuple t = new CompactTuple(td, data);
+        RecordId rid = new RecordId(pid, slotId);
+        t.setRecordId(rid);
 
         return t;
     }
 
+    /**
+     * Reads the tuples of a page in the slotted layout, padding the values
+     * of variable-length fields to the in-memory layout.
+     */
+    private void readRecords(byte[] data) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int entries = Math.min(buf.getInt(0), numSlots);
+        for (int i = 0; i < entries; i++) {
+            int off = buf.getShort(4 + 4 * i) & 0xffff;
+            int len = buf.getShort(6 + 4 * i) & 0xffff;
+            if (off == 0)
+                continue;
+            byte[] tup = new byte[td.getMaxSize()];
+            int src = off;
+            for (int f = 0; f < td.numFields(); f++) {
+                Type type = td.getFieldType(f);
+                int n = type.isFixedLen() ? type.getLen() : 4 + buf.getInt(src);
+                System.arraycopy(data, src, tup, td.getOffset(f), n);
+                src += n;
+            }
+            Tuple t = new CompactTuple(td, tup);
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
+            markSlotUsed(i, true);
+            recordBytes += len;
+        }
+    }
+
+    /** @return the size of the record of t on a slotted page */
+    private int recordSize(CompactTuple t) {
+        byte[] data = t.getData();
+        int size = 0;
+        for (int f = 0; f < td.numFields(); f++) {
+            Type type = td.getFieldType(f);
+            size += type.isFixedLen() ? type.getLen() : 4 + readInt(data, td.getOffset(f));
+        }
+        return size;
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] << 24) | ((b[off + 1] & 0xff) << 16)
+                | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    /** @return the number of entries of the slot directory of a slotted page */
+    private int directorySize() {
+        for (int i = numSlots - 1; i >= 0; i--)
+            if (isSlotUsed(i))
+                return i + 1;
+        return 0;
+    }
+
+    /**
+     * Writes a slotted page: the directory, then the records packed from the
+     * end of the page, so that the free space is all in the middle.
+     */
+    private byte[] getRecordData() {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        int entries = directorySize();
+        buf.putInt(0, entries);
+        int end = page.length;
+        for (int i = 0; i < entries; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            byte[] data = ((CompactTuple) tuples[i]).getData();
+            int size = recordSize((CompactTuple) tuples[i]);
+            end -= size;
+            int dst = end;
+            for (int f = 0; f < td.numFields(); f++) {
+                Type type = td.getFieldType(f);
+                int off = td.getOffset(f);
+                int n = type.isFixedLen() ? type.getLen() : 4 + readInt(data, off);
+                System.arraycopy(data, off, page, dst, n);
+                dst += n;
+            }
+            buf.putShort(4 + 4 * i, (short) end);
+            buf.putShort(6 + 4 * i, (short) size);
+        }
+        return page;
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -176,6 +299,8 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
+        if (slotted)
+            return getRecordData();
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -195,7 +320,7 @@ public class HeapPage implements Page {
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
+                for (int j=0; j<td.getMaxSize(); j++) {
                     try {
                         dos.writeByte(0);
                     } catch (IOException e) {
@@ -207,6 +332,14 @@ public class HeapPage implements Page {
             }
 
             // non-empty slot
+            if (tuples[i] instanceof CompactTuple) {
+                try {
+                    dos.write(((CompactTuple) tuples[i]).getData());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
                 try {
@@ -219,7 +352,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.getPageSize() - (header.length + td.getMaxSize() * tuples.length); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -267,6 +400,8 @@ public class HeapPage implements Page {
         int tupleNum = rid.getTupleNumber();
         if(!hpid.equals(pid) || !isSlotUsed(tupleNum))
             throw new DbException("tuple is not valid");
+        if (slotted)
+            recordBytes -= recordSize((CompactTuple) tuples[tupleNum]);
         tuples[tupleNum] = null;
         markSlotUsed(tupleNum, false);
     }
@@ -287,19 +422,57 @@ public class HeapPage implements Page {
         if(!tdes.equals(td)){
             throw new DbException("TupleDesc is not valid");
         }
-        if(getNumEmptySlots() == 0){
+        if(!hasRoomFor(t)){
             throw new DbException("page is full");
         }
+        Tuple stored = t;
+        if (slotted) {
+            if (!(t instanceof CompactTuple))
+                stored = CompactTuple.project(td, t, identity());
+            recordBytes += recordSize((CompactTuple) stored);
+        }
         for (int i=0; i < numSlots; ++i) {
             if(!isSlotUsed(i)){
                 markSlotUsed(i, true);
                 t.setRecordId(new RecordId(pid, i));
-                tuples[i] = t;
+                if (stored != t)
+                    stored.setRecordId(t.getRecordId());
+                tuples[i] = stored;
                 return;
             }
         }
     }
 
+    private int[] identity() {
+        int[] fields = new int[td.numFields()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = i;
+        return fields;
+    }
+
+    /**
+     * @return true if t can be inserted into this page: if it has an empty
+     *         slot and, on a slotted page, room for the record of t
+     */
+    public boolean hasRoomFor(Tuple t) {
+        int free = -1;
+        for (int i = 0; i < numSlots && free < 0; i++)
+            if (!isSlotUsed(i))
+                free = i;
+        if (free < 0)
+            return false;
+        if (!slotted)
+            return true;
+        int size = 0;
+        for (int f = 0; f < td.numFields(); f++) {
+            Type type = td.getFieldType(f);
+            size += type.isFixedLen() ? type.getLen()
+                    : 4 + Math.min(t.getString(f).length(), Type.STRING_LEN);
+        }
+        int entries = Math.max(directorySize(), free + 1);
+        return 4 + 4 * entries + recordBytes + size <= BufferPool.getPageSize();
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -365,6 +538,19 @@ public class HeapPage implements Page {
             header[idx] &= ~mask;
     }
 
+    /** @return the number of tuple slots on this page, used or not */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * @return the tuple in slot i, or null if the slot is empty. Lets a scan
+     *         walk the slots of a page without building an iterator.
+     */
+    public Tuple getSlotTuple(int i) {
+        return isSlotUsed(i) ? tuples[i] : null;
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
@@ -0,0 +1,85 @@
+package simpledb.storage;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out the pages of a scan as morsels, small ranges of contiguous
+ * pages, to the worker threads of a parallel scan.
+ * <p>
+ * The pages are first divided into one region per worker, and each worker
+ * claims morsels from the front of its own region by bumping an atomic
+ * cursor, so workers mostly read disjoint, sequential parts of the file.
+ * A worker whose region is used up steals morsels from the region with the
+ * most pages left. Morsels are small, so a worker slowed down by selective
+ * filters or expensive tuples is relieved of its remaining work instead of
+ * holding up the whole scan.
+ */
+public class MorselCursor {
+
+    /** default number of pages per morsel */
+    public static final int DEFAULT_MORSEL_PAGES = 16;
+
+    private final int morselPages;
+    private final int[] ends;
+    private final AtomicInteger[] next;
+
+    /**
+     * @param fromPage    the first page to scan
+     * @param toPage      the end of the pages to scan, exclusive
+     * @param workers     the number of workers that claim morsels
+     * @param morselPages the number of pages per morsel
+     */
+    public MorselCursor(int fromPage, int toPage, int workers, int morselPages) {
+        if (workers < 1 || morselPages < 1)
+            throw new IllegalArgumentException("need at least one worker and page per morsel");
+        this.morselPages = morselPages;
+        int pages = Math.max(0, toPage - fromPage);
+        ends = new int[workers];
+        next = new AtomicInteger[workers];
+        for (int w = 0; w < workers; w++) {
+            next[w] = new AtomicInteger(fromPage + (int) ((long) pages * w / workers));
+            ends[w] = fromPage + (int) ((long) pages * (w + 1) / workers);
+        }
+    }
+
+    /**
+     * @return the number of workers the pages are divided among
+     */
+    public int numWorkers() {
+        return ends.length;
+    }
+
+    /**
+     * Claims the next morsel for a worker, from its own region if any is
+     * left there and from another worker's region otherwise.
+     *
+     * @return the pages {from, to} of the morsel, to exclusive, or null if
+     *         all pages have been claimed
+     */
+    public int[] claim(int worker) {
+        int[] m = claimFrom(worker);
+        while (m == null) {
+            int victim = -1, most = 0;
+            for (int w = 0; w < ends.length; w++) {
+                int left = ends[w] - next[w].get();
+                if (left > most) {
+                    most = left;
+                    victim = w;
+                }
+            }
+            if (victim < 0)
+                return null;
+            m = claimFrom(victim);
+        }
+        return m;
+    }
+
+    private int[] claimFrom(int region) {
+        if (next[region].get() >= ends[region])
+            return null;
+        int from = next[region].getAndAdd(morselPages);
+        if (from >= ends[region])
+            return null;
+        return new int[]{from, Math.min(from + morselPages, ends[region])};
+    }
+}
@@ -0,0 +1,373 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.CompiledPredicate;
+import simpledb.execution.TupleBatch;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PaxFile is a DbFile that stores a collection of tuples in no particular
+ * order, like a HeapFile, but on {@link PaxPage}s, which store the values
+ * of each field together. A scan that needs only some of the fields of a
+ * wide table decodes only those, a whole column of a page at a time, and
+ * tests its predicates on the decoded columns; the tuples that pass are
+ * returned as batches (see {@link BatchFileIterator}) without being
+ * assembled one by one.
+ * <p>
+ * STRING_TYPE fields with few distinct values can be dictionary encoded
+ * (see {@link #convert(DbFileIterator, File, TupleDesc, int[])}): their
+ * minipages hold int codes, and the {@link Dictionary} of each encoded field
+ * is kept in a file next to the table, named after it with
+ * {@link #DICTIONARY_SUFFIX}. Scans return encoded fields as codes in their
+ * batches, so that equality predicates, hash joins and grouping on them
+ * compare ints and decode the values only when they are returned.
+ * <p>
+ * A PaxFile is added to the catalog with {@link simpledb.common.Catalog#addTable}
+ * and read with a {@link simpledb.execution.SeqScan}, like any other table.
+ *
+ * @see PaxPage#PaxPage
+ */
+public class PaxFile implements ScannableFile {
+
+    /** the suffix of the name of the dictionary file of a table */
+    public static final String DICTIONARY_SUFFIX = ".dict";
+
+    private final File file;
+    private final TupleDesc td;
+    private final int tableid;
+    /** the dictionary of each encoded field, null for the others */
+    final Dictionary[] dicts;
+
+    /**
+     * Constructs a PAX file backed by the specified file, and reads the
+     * dictionaries of its encoded fields if it has any.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @throws IllegalArgumentException if the dictionary file of f cannot
+     *         be read
+     */
+    public PaxFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        File dictFile = dictionaryFile(f);
+        try {
+            this.dicts = dictFile.exists() ? Dictionary.load(dictFile, td.numFields())
+                    : new Dictionary[td.numFields()];
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read the dictionaries of " + f, e);
+        }
+    }
+
+    private static File dictionaryFile(File f) {
+        return new File(f.getPath() + DICTIONARY_SUFFIX);
+    }
+
+    /**
+     * Returns the File backing this PaxFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public int getId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the dictionary of field f, or null if it is not encoded
+     */
+    public Dictionary getDictionary(int f) {
+        return dicts[f];
+    }
+
+    /**
+     * Writes the tuples of an iterator into a new PAX file, page by page,
+     * without going through the buffer pool; for instance to store a heap
+     * file table in columnar form.
+     *
+     * @param it      an open iterator over tuples of td
+     * @param outFile the file to write, replaced if it exists
+     */
+    public static void convert(DbFileIterator it, File outFile, TupleDesc td)
+            throws IOException, DbException, TransactionAbortedException {
+        convert(it, outFile, td, new int[0]);
+    }
+
+    /**
+     * Writes the tuples of an iterator into a new PAX file, like
+     * {@link #convert(DbFileIterator, File, TupleDesc)}, with some of its
+     * STRING_TYPE fields dictionary encoded, and writes the dictionaries of
+     * the new file.
+     *
+     * @param encoded the fields to encode
+     */
+    public static void convert(DbFileIterator it, File outFile, TupleDesc td, int[] encoded)
+            throws IOException, DbException, TransactionAbortedException {
+        Dictionary[] dicts = new Dictionary[td.numFields()];
+        for (int f : encoded) {
+            if (td.getFieldType(f) != Type.STRING_TYPE)
+                throw new IllegalArgumentException("only STRING_TYPE fields can be encoded");
+            dicts[f] = new Dictionary();
+        }
+        File dictFile = dictionaryFile(outFile);
+        if (encoded.length > 0)
+            Dictionary.save(dictFile, dicts);
+        else
+            dictFile.delete();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile))) {
+            HeapPageId pid = new HeapPageId(0, 0);
+            PaxPage page = new PaxPage(pid, PaxPage.createEmptyPageData(), td, dicts);
+            int n = 0;
+            while (it.hasNext()) {
+                if (n == page.getNumSlots()) {
+                    out.write(page.getPageData());
+                    page = new PaxPage(pid, PaxPage.createEmptyPageData(), td, dicts);
+                    n = 0;
+                }
+                page.insertTuple(it.next());
+                n++;
+            }
+            if (n > 0)
+                out.write(page.getPageData());
+        }
+        if (encoded.length > 0)
+            Dictionary.save(dictFile, dicts);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try (RandomAccessFile rf = new RandomAccessFile(file, "r")) {
+            byte[] bytes = new byte[BufferPool.getPageSize()];
+            rf.seek((long) BufferPool.getPageSize() * pid.getPageNumber());
+            rf.readFully(bytes);
+            return new PaxPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), bytes, td, dicts);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("pid is not valid!", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Values added to the dictionaries since they were last saved are saved
+     * first, so that the codes on disk can always be decoded.
+     */
+    public void writePage(Page page) throws IOException {
+        synchronized (dicts) {
+            if (Dictionary.isChanged(dicts))
+                Dictionary.save(dictionaryFile(file), dicts);
+        }
+        try (RandomAccessFile rf = new RandomAccessFile(file, "rw")) {
+            rf.seek((long) BufferPool.getPageSize() * page.getId().getPageNumber());
+            rf.write(page.getPageData());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void force() throws IOException {
+        try (RandomAccessFile rf = new RandomAccessFile(file, "rw")) {
+            rf.getChannel().force(false);
+        }
+    }
+
+    /**
+     * Returns the number of pages in this PaxFile.
+     */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        int num = numPages();
+        for (int i = 0; i < num; i++) {
+            HeapPageId pid = new HeapPageId(tableid, i);
+            PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() > 0) {
+                page.insertTuple(t);
+                page.markDirty(true, tid);
+                return Collections.singletonList(page);
+            }
+            Database.getBufferPool().unsafeReleasePage(tid, pid);
+        }
+        HeapPageId pid = new HeapPageId(tableid, num);
+        writePage(new PaxPage(pid, PaxPage.createEmptyPageData(), td, dicts));
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.insertTuple(t);
+        page.markDirty(true, tid);
+        return Collections.singletonList(page);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        PageId pid = t.getRecordId().getPageId();
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        page.markDirty(true, tid);
+        return Collections.singletonList(page);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new PaxFileIterator(this, tid, 0, -1, null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only the fields pred reads and the fields returned are decoded.
+     * Record id fields are not supported.
+     */
+    public DbFileIterator iterator(TransactionId tid, int fromPage, int toPage,
+                                   CompiledPredicate pred, int[] fields, boolean withRid) {
+        if (withRid)
+            throw new UnsupportedOperationException("record id fields are only returned by heap files");
+        return new PaxFileIterator(this, tid, fromPage, toPage, pred, fields);
+    }
+
+    private static class PaxFileIterator implements BatchFileIterator {
+        private final PaxFile file;
+        private final TransactionId tid;
+        private final int fromPage;
+        /** end of the page range, or -1 to read up to the current end of file */
+        private final int toPage;
+        /** the predicate the tuples must pass, or null */
+        private final CompiledPredicate pred;
+        /** the fields returned */
+        private final int[] fields;
+        private final TupleDesc outTd;
+        /** the next page to read, -1 when not open */
+        private int pageIdx = -1;
+        /** the returned fields of the page read last, and its passing rows */
+        private TupleBatch rows;
+        private int[] sel;
+        private int numSel, pos;
+
+        PaxFileIterator(PaxFile f, TransactionId tid, int fromPage, int toPage,
+                        CompiledPredicate pred, int[] fields) {
+            this.file = f;
+            this.tid = tid;
+            this.fromPage = fromPage;
+            this.toPage = toPage;
+            this.pred = pred;
+            if (fields == null) {
+                fields = new int[f.td.numFields()];
+                for (int i = 0; i < fields.length; i++)
+                    fields[i] = i;
+            }
+            this.fields = fields;
+            this.outTd = f.td.project(fields);
+        }
+
+        private int endPage() {
+            return toPage < 0 ? file.numPages() : Math.min(toPage, file.numPages());
+        }
+
+        public void open() {
+            pageIdx = fromPage;
+            rows = null;
+            numSel = pos = 0;
+        }
+
+        /**
+         * Reads pages until one has tuples that pass pred, and decodes the
+         * fields returned of it.
+         */
+        private boolean loadPage() throws TransactionAbortedException, DbException {
+            TupleDesc td = file.td;
+            while (pageIdx >= 0 && pageIdx < endPage()) {
+                HeapPageId pid = new HeapPageId(file.getId(), pageIdx++);
+                PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                int slots = page.getNumSlots();
+                int[] s = new int[slots];
+                int n = page.usedSlots(s);
+                if (n == 0)
+                    continue;
+                int[][] ints = new int[td.numFields()][];
+                byte[][] chars = new byte[td.numFields()][];
+                int[][] offsets = new int[td.numFields()][];
+                RecordId[] rids = new RecordId[slots];
+                TupleBatch all = TupleBatch.wrap(td, slots, ints, chars, offsets, file.dicts, rids);
+                if (pred != null) {
+                    for (int f : pred.getFields())
+                        decode(page, f, ints, chars, offsets);
+                    n = pred.refine(all, s, n);
+                    if (n == 0)
+                        continue;
+                }
+                for (int f : fields)
+                    decode(page, f, ints, chars, offsets);
+                for (int i = 0; i < n; i++)
+                    rids[s[i]] = new RecordId(pid, s[i]);
+                rows = all.project(fields, outTd);
+                sel = s;
+                numSel = n;
+                pos = 0;
+                return true;
+            }
+            rows = null;
+            return false;
+        }
+
+        private static void decode(PaxPage page, int f, int[][] ints, byte[][] chars, int[][] offsets) {
+            if (ints[f] != null || chars[f] != null)
+                return;
+            if (page.td.getFieldType(f) == Type.INT_TYPE || page.getDictionary(f) != null) {
+                ints[f] = new int[page.getNumSlots()];
+                page.readInts(f, ints[f]);
+            } else {
+                offsets[f] = new int[page.getNumSlots() + 1];
+                chars[f] = page.readStrings(f, offsets[f]);
+            }
+        }
+
+        public boolean hasNext() throws TransactionAbortedException, DbException {
+            if (pageIdx < 0)
+                return false;
+            return pos < numSel || loadPage();
+        }
+
+        public Tuple next() throws TransactionAbortedException, DbException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException("no element");
+            return rows.getTuple(sel[pos++]);
+        }
+
+        public TupleBatch nextBatch(TupleDesc td) throws TransactionAbortedException, DbException {
+            if (!hasNext())
+                return null;
+            int[] cols = new int[td.numFields()];
+            for (int i = 0; i < cols.length; i++)
+                cols[i] = i;
+            TupleBatch batch = rows.project(cols, td);
+            int[] rest = Arrays.copyOfRange(sel, pos, numSel);
+            pos = numSel;
+            return batch.select(rest, rest.length);
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        public void close() {
+            pageIdx = -1;
+            rows = null;
+            numSel = pos = 0;
+        }
+    }
+}
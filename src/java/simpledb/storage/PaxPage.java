@@ -0,0 +1,323 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Each instance of PaxPage stores data for one page of a {@link PaxFile},
+ * in the PAX layout: the values of each field are stored together in a
+ * minipage of their own instead of tuple after tuple.
+ * <p>
+ * The page starts with the same header as a HeapPage, one bit per slot that
+ * is set if the slot holds a tuple. The header is followed by one minipage
+ * per field, in the order of the fields, holding the value of that field
+ * for every slot in the serialized form of its type, or as the 4-byte code
+ * of the value in its {@link Dictionary} for dictionary encoded fields. The
+ * value of field f in slot s is thus at
+ * <p>
+ *          headerSize + numSlots * (sum of the widths of the fields before f)
+ *                     + s * width(f)
+ * <p>
+ * and a page holds as many tuples as fit with one header bit each.
+ * <p>
+ * The page keeps its bytes as they are and decodes only the fields that
+ * are read, a whole minipage at a time: see {@link #readInts} and
+ * {@link #readStrings}.
+ *
+ * @see PaxFile
+ * @see BufferPool
+ */
+public class PaxPage implements Page {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int numSlots;
+    final int headerSize;
+    /** the dictionary of each encoded field, null for the others */
+    final Dictionary[] dicts;
+    /** the offset of the minipage of each field */
+    private final int[] starts;
+    final byte[] data;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    private TransactionId tid;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     */
+    public PaxPage(HeapPageId id, byte[] data) {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()),
+                ((PaxFile) Database.getCatalog().getDatabaseFile(id.getTableId())).dicts);
+    }
+
+    /**
+     * Create a PaxPage of a table that may not be in the catalog yet.
+     *
+     * @param dicts the dictionary of each encoded field, null for the others
+     */
+    PaxPage(HeapPageId id, byte[] data, TupleDesc td, Dictionary[] dicts) {
+        this.pid = id;
+        this.td = td;
+        this.dicts = dicts;
+        int size = 0;
+        for (int f = 0; f < td.numFields(); f++)
+            size += width(f);
+        this.numSlots = BufferPool.getPageSize() * 8 / (size * 8 + 1);
+        this.headerSize = (numSlots + 7) / 8;
+        this.starts = new int[td.numFields()];
+        int off = headerSize;
+        for (int f = 0; f < td.numFields(); f++) {
+            starts[f] = off;
+            off += numSlots * width(f);
+        }
+        this.data = Arrays.copyOf(data, BufferPool.getPageSize());
+        this.tid = null;
+        setBeforeImage();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * PaxPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxPage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        return new PaxPage(pid, oldDataRef, td, dicts);
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.tid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return tid;
+    }
+
+    /** @return the number of tuple slots on this page, used or not */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return ((data[i / 8] >> (i % 8)) & 1) == 1;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        byte mask = (byte) (1 << (i % 8));
+        if (value)
+            data[i / 8] |= mask;
+        else
+            data[i / 8] &= ~mask;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int n = 0;
+        for (int i = 0; i < numSlots; i++)
+            if (!isSlotUsed(i))
+                n++;
+        return n;
+    }
+
+    /**
+     * Lists the used slots of this page.
+     *
+     * @param sel receives the used slots, in order; must have room for
+     *            {@link #getNumSlots()} entries
+     * @return the number of used slots
+     */
+    public int usedSlots(int[] sel) {
+        int n = 0;
+        for (int i = 0; i < numSlots; i++)
+            if (isSlotUsed(i))
+                sel[n++] = i;
+        return n;
+    }
+
+    /** @return the number of bytes each value of field f takes */
+    private int width(int f) {
+        return dicts[f] != null ? 4 : td.getFieldType(f).getLen();
+    }
+
+    /** @return the offset of field f in slot s */
+    private int offset(int f, int s) {
+        return starts[f] + s * width(f);
+    }
+
+    /**
+     * @return the dictionary of field f, or null if it is not encoded
+     */
+    public Dictionary getDictionary(int f) {
+        return dicts[f];
+    }
+
+    /**
+     * Decodes the minipage of an INT_TYPE field, or the codes of a
+     * dictionary encoded field, in one bulk read.
+     *
+     * @param dst receives the value of the field in each slot, used or
+     *            not; must have room for {@link #getNumSlots()} entries
+     */
+    public void readInts(int field, int[] dst) {
+        ByteBuffer.wrap(data, offset(field, 0), numSlots * 4).asIntBuffer().get(dst, 0, numSlots);
+    }
+
+    /**
+     * Decodes the minipage of a STRING_TYPE field that is not dictionary
+     * encoded into the layout of a string column of a TupleBatch. Empty
+     * slots hold the empty string.
+     *
+     * @param offsets receives the offset of the value of each slot in the
+     *                returned array, and the end of the last one; must have
+     *                room for {@link #getNumSlots()} + 1 entries
+     * @return the concatenated values of the field
+     */
+    public byte[] readStrings(int field, int[] offsets) {
+        int width = width(field);
+        int base = offset(field, 0);
+        byte[] chars = new byte[numSlots * 16];
+        int end = 0;
+        for (int s = 0; s < numSlots; s++) {
+            offsets[s] = end;
+            if (!isSlotUsed(s))
+                continue;
+            int off = base + s * width;
+            int len = readInt(off);
+            if (end + len > chars.length)
+                chars = Arrays.copyOf(chars, Math.max(chars.length * 2, end + len));
+            System.arraycopy(data, off + 4, chars, end, len);
+            end += len;
+        }
+        offsets[numSlots] = end;
+        return chars;
+    }
+
+    private int readInt(int off) {
+        return (data[off] << 24) | ((data[off + 1] & 0xff) << 16)
+                | ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+    }
+
+    private void writeInt(int off, int v) {
+        data[off] = (byte) (v >>> 24);
+        data[off + 1] = (byte) (v >>> 16);
+        data[off + 2] = (byte) (v >>> 8);
+        data[off + 3] = (byte) v;
+    }
+
+    /**
+     * @return the tuple in slot i, assembled from the minipages, or null if
+     *         the slot is empty
+     */
+    public Tuple getSlotTuple(int i) {
+        if (!isSlotUsed(i))
+            return null;
+        Tuple t = new Tuple(td);
+        for (int f = 0; f < td.numFields(); f++) {
+            int off = offset(f, i);
+            if (td.getFieldType(f) == Type.INT_TYPE) {
+                t.setField(f, new IntField(readInt(off)));
+            } else if (dicts[f] != null) {
+                t.setField(f, new StringField(dicts[f].decode(readInt(off)), Type.STRING_LEN));
+            } else {
+                String s = new String(data, off + 4, readInt(off), StringField.CHARSET);
+                t.setField(f, new StringField(s, Type.STRING_LEN));
+            }
+        }
+        t.setRecordId(new RecordId(pid, i));
+        return t;
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || !isSlotUsed(rid.getTupleNumber()))
+            throw new DbException("tuple is not valid");
+        markSlotUsed(rid.getTupleNumber(), false);
+    }
+
+    /**
+     * Adds the specified tuple to the page, writing each field into its
+     * minipage. Values of encoded fields that are new are added to their
+     * dictionaries.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("TupleDesc is not valid");
+        for (int s = 0; s < numSlots; s++) {
+            if (isSlotUsed(s))
+                continue;
+            for (int f = 0; f < td.numFields(); f++) {
+                int off = offset(f, s);
+                if (td.getFieldType(f) == Type.INT_TYPE) {
+                    writeInt(off, t.getInt(f));
+                } else if (dicts[f] != null) {
+                    writeInt(off, dicts[f].encode(t.getString(f)));
+                } else {
+                    byte[] bs = t.getString(f).getBytes(StringField.CHARSET);
+                    int len = Math.min(bs.length, Type.STRING_LEN);
+                    writeInt(off, len);
+                    System.arraycopy(bs, 0, data, off + 4, len);
+                    Arrays.fill(data, off + 4 + len, off + 4 + Type.STRING_LEN, (byte) 0);
+                }
+            }
+            markSlotUsed(s, true);
+            t.setRecordId(new RecordId(pid, s));
+            return;
+        }
+        throw new DbException("page is full");
+    }
+
+    /**
+     * @return an iterator over all tuples on this page
+     */
+    public Iterator<Tuple> iterator() {
+        List<Tuple> list = new ArrayList<>();
+        for (int i = 0; i < numSlots; i++)
+            if (isSlotUsed(i))
+                list.add(getSlotTuple(i));
+        return list.iterator();
+    }
+}
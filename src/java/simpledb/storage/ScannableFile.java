@@ -0,0 +1,42 @@
+package simpledb.storage;
+
+import simpledb.execution.CompiledPredicate;
+import simpledb.transaction.TransactionId;
+
+/**
+ * A DbFile that {@link simpledb.execution.SeqScan} can read: its tuples
+ * can be read by ranges of pages, so that a scan can be split among
+ * threads, with predicates and a projection applied by the file itself.
+ */
+public interface ScannableFile extends DbFile {
+
+    /**
+     * Returns the number of pages in this file.
+     */
+    int numPages();
+
+    /**
+     * Returns an iterator over the tuples on pages fromPage (inclusive) to
+     * toPage (exclusive) of this file that pass pred, each reduced to the
+     * given fields.
+     *
+     * @param toPage  the end of the range, or -1 for the end of the file
+     * @param pred    the predicate, over the fields of this file, or null
+     * @param fields  the fields of this file to return, or null for all of
+     *                them
+     * @param withRid if true, the tuples have an extra INT field at the end
+     *                holding their record id
+     * @throws UnsupportedOperationException if withRid is true and the file
+     *                                       cannot encode record ids
+     */
+    DbFileIterator iterator(TransactionId tid, int fromPage, int toPage,
+                            CompiledPredicate pred, int[] fields, boolean withRid);
+
+    /**
+     * Splits a scan of this file into morsels for the given number of
+     * workers. Pages appended after this call are not part of the scan.
+     */
+    default MorselCursor morsels(int workers, int morselPages) {
+        return new MorselCursor(0, numPages(), workers, morselPages);
+    }
+}
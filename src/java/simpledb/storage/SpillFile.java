@@ -0,0 +1,187 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.execution.OpIterator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * A temporary file of tuples, used by operators whose state does not fit in
+ * memory. Tuples are appended with {@link #add} and read back, in the order
+ * they were added, through {@link #iterator}. Each tuple is stored as its
+ * td.getMaxSize() serialized bytes and comes back as a {@link CompactTuple};
+ * RecordIds are not kept.
+ * <p>
+ * The file is deleted by {@link #delete}, which the operator that created it
+ * must call when it is closed. Files are not registered with
+ * File.deleteOnExit, whose list only grows for the life of the JVM.
+ */
+public class SpillFile {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private long count;
+
+    /**
+     * Creates an empty spill file.
+     *
+     * @param td the schema of the tuples that will be added
+     * @throws DbException if the temp file cannot be created
+     */
+    public SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("simpledb", ".spill");
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e.getMessage());
+        }
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), BUFFER_SIZE));
+        } catch (IOException e) {
+            file.delete();
+            throw new DbException("could not create spill file: " + e.getMessage());
+        }
+        count = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples added so far */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Appends a tuple. Not allowed once the file has been read.
+     */
+    public void add(Tuple t) throws DbException {
+        if (out == null)
+            throw new IllegalStateException("spill file is already being read");
+        try {
+            if (t instanceof CompactTuple) {
+                out.write(((CompactTuple) t).getData());
+            } else {
+                for (int i = 0; i < td.numFields(); i++)
+                    t.getField(i).serialize(out);
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        count++;
+    }
+
+    private void finishWriting() throws DbException {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    /**
+     * @return an iterator over the tuples in this file. Opening it ends the
+     *         write phase; several iterators may be used at once.
+     */
+    public OpIterator iterator() {
+        return new SpillIterator();
+    }
+
+    /** Closes and deletes the underlying file. */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    private class SpillIterator implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient DataInputStream in;
+        private transient Tuple next;
+        private long read;
+
+        public void open() throws DbException {
+            finishWriting();
+            try {
+                in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file), BUFFER_SIZE));
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            next = null;
+            read = 0;
+        }
+
+        public boolean hasNext() throws DbException {
+            if (in == null)
+                throw new IllegalStateException("iterator is not open");
+            if (next == null && read < count) {
+                byte[] data = new byte[td.getMaxSize()];
+                try {
+                    in.readFully(data);
+                } catch (EOFException e) {
+                    throw new DbException("spill file is truncated");
+                } catch (IOException e) {
+                    throw new DbException("could not read spill file: " + e.getMessage());
+                }
+                next = new CompactTuple(td, data);
+                read++;
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            in = null;
+            next = null;
+        }
+    }
+}
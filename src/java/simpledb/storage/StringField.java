@@ -4,6 +4,8 @@ import simpledb.common.Type;
 import simpledb.execution.Predicate;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -12,6 +14,13 @@ public class StringField implements Field {
 
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * The charset of serialized strings: one byte per char, so the stored
+	 * length is the length of the string. Everything that reads or writes
+	 * the serialized bytes directly must use it.
+	 */
+	public static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
 	private final String value;
 	private final int maxSize;
 
@@ -64,7 +73,7 @@ public class StringField implements Field {
             s = s.substring(0, maxSize);
 		}
 		dos.writeInt(s.length());
-		dos.writeBytes(s);
+		dos.write(s.getBytes(CHARSET));
 		while (overflow-- > 0)
 			dos.write((byte) 0);
 	}
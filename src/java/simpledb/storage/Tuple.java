@@ -34,6 +34,14 @@ public class Tuple implements Serializable {
         }
     }
 
+    /**
+     * Constructor for subclasses that store field values themselves.
+     */
+    protected Tuple(TupleDesc td, ArrayList<Field> fields) {
+        this.td = td;
+        this.fields = fields;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -90,6 +98,20 @@ public class Tuple implements Serializable {
         // return null;
     }
 
+    /**
+     * @return the value of the ith field, which must be an INT_TYPE field
+     */
+    public int getInt(int i) {
+        return ((IntField) getField(i)).getValue();
+    }
+
+    /**
+     * @return the value of the ith field, which must be a STRING_TYPE field
+     */
+    public String getString(int i) {
+        return ((StringField) getField(i)).getValue();
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -101,8 +123,8 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
         String res = "";
-        for (int i = 0; i < fields.size(); ++i) {
-            res += fields.get(i).toString() + " ";
+        for (int i = 0; i < td.numFields(); ++i) {
+            res += getField(i).toString() + " ";
         }
         res += "\n";
         return res;
@@ -127,6 +149,8 @@ public class Tuple implements Serializable {
     {
         // some code goes here
         this.td = td; // field????
+        if (this.fields == null) // subclass storage
+            return;
         this.fields.clear();
         this.fields = new ArrayList<>(td.numFields());
         for (int i = 0; i < td.numFields(); i++) {
@@ -55,6 +55,9 @@ public class TupleDesc implements Serializable {
 
     public final TDItem item[];
 
+    /** cached field offsets, see getOffset */
+    private transient int[] offsets;
+
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
      * specified types, with associated named fields.
@@ -157,18 +160,56 @@ public class TupleDesc implements Serializable {
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Tuples with variable-length fields vary in size, and this is
+     *         an estimate of their average size, for costing; it is exact
+     *         if {@link #isFixedSize()}.
      */
     public int getSize() {
         // some code goes here
         int size = 0;
         for(TDItem tm: item){
-            size += tm.fieldType.getLen();
+            size += tm.fieldType.getEstimatedLen();
         }
         return size;
         // return 0;
     }
 
+    /**
+     * @return the size (in bytes) of the largest tuples of this TupleDesc,
+     *         which is the size of every tuple in memory, where fields are
+     *         at the offsets given by {@link #getOffset}
+     */
+    public int getMaxSize() {
+        return getOffset(item.length);
+    }
+
+    /**
+     * @return true if all tuples of this TupleDesc have the same size when
+     *         stored, that is if it has no variable-length fields
+     */
+    public boolean isFixedSize() {
+        for (TDItem tm : item)
+            if (!tm.fieldType.isFixedLen())
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the byte offset of field i within the serialized form of a
+     *         tuple with this TupleDesc, as written by Field.serialize in
+     *         field order
+     */
+    public int getOffset(int i) {
+        int[] offs = offsets;
+        if (offs == null) {
+            offs = new int[item.length + 1];
+            for (int j = 0; j < item.length; j++)
+                offs[j + 1] = offs[j] + item[j].fieldType.getLen();
+            offsets = offs;
+        }
+        return offs[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -198,6 +239,20 @@ public class TupleDesc implements Serializable {
         return new_td;
         // return null;
     }
+
+    /**
+     * @param fields the field of this TupleDesc for each field of the result
+     * @return the TupleDesc of the given fields of this one, in that order
+     */
+    public TupleDesc project(int[] fields) {
+        Type typeAr[] = new Type[fields.length];
+        String fieldAr[] = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            typeAr[i] = item[fields[i]].fieldType;
+            fieldAr[i] = item[fields[i]].fieldName;
+        }
+        return new TupleDesc(typeAr, fieldAr);
+    }
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they have the same number of items
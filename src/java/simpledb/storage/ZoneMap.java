@@ -0,0 +1,225 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.CompiledPredicate;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * A zone map of a {@link HeapFile}: a small synopsis of each page, the
+ * number of tuples on it and the minimum and maximum of each INT field over
+ * them, so that a scan with predicates can skip the pages none of whose
+ * tuples can pass without reading them.
+ * <p>
+ * The synopsis of a page is only known once the page has been read or
+ * written by its file; pages not known yet are always read. It is set from
+ * the contents of the page whenever the file reads or writes it, and
+ * widened by the file as tuples are inserted, so it always covers the
+ * current version of the page, including inserts not committed yet; a scan
+ * then reads the page and waits for the inserting transaction's lock.
+ * Deletes are only taken into account when the page is next written, that
+ * is when the deleting transaction commits: a page emptied by a delete that
+ * is not committed yet must still be read, so that other transactions block
+ * on its lock instead of skipping it.
+ * <p>
+ * {@link #save} writes only the synopses of pages that match the disk, so a
+ * zone map read back with {@link #load} covers the file as it is on disk.
+ * All methods are synchronized; zone maps are shared by all the scans and
+ * updates of a file.
+ */
+public class ZoneMap {
+
+    private static final int MAGIC = 0x5a4d4150;
+
+    private final TupleDesc td;
+    /** the INT fields of td, the ones min and max are kept of */
+    private final int[] intFields;
+    /** per page: the number of tuples, or -1 if not known */
+    private int[] live;
+    /** per page: true if changed since it was last read or written */
+    private boolean[] pending;
+    /** per page and field: the range of the values of INT fields */
+    private int[][] min, max;
+    private boolean changed = false;
+
+    public ZoneMap(TupleDesc td) {
+        this.td = td;
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                n++;
+        intFields = new int[n];
+        n = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                intFields[n++] = i;
+        live = new int[0];
+        pending = new boolean[0];
+        min = new int[0][];
+        max = new int[0][];
+    }
+
+    private void ensure(int pgNo) {
+        if (pgNo < live.length)
+            return;
+        int n = Math.max(pgNo + 1, live.length * 2);
+        int old = live.length;
+        live = Arrays.copyOf(live, n);
+        Arrays.fill(live, old, n, -1);
+        pending = Arrays.copyOf(pending, n);
+        min = Arrays.copyOf(min, n);
+        max = Arrays.copyOf(max, n);
+    }
+
+    /** @return a range that no INT comparison can rule out */
+    private int[] fullRange(int bound) {
+        int[] r = new int[td.numFields()];
+        Arrays.fill(r, bound);
+        return r;
+    }
+
+    /**
+     * Sets the synopsis of a page from its contents, as just read from or
+     * written to disk.
+     */
+    public synchronized void set(int pgNo, HeapPage page) {
+        ensure(pgNo);
+        int[] lo = fullRange(Integer.MIN_VALUE), hi = fullRange(Integer.MAX_VALUE);
+        for (int f : intFields) {
+            lo[f] = Integer.MAX_VALUE;
+            hi[f] = Integer.MIN_VALUE;
+        }
+        int n = 0;
+        for (int i = 0; i < page.getNumSlots(); i++) {
+            Tuple t = page.getSlotTuple(i);
+            if (t == null)
+                continue;
+            n++;
+            for (int f : intFields) {
+                int v = t.getInt(f);
+                if (v < lo[f]) lo[f] = v;
+                if (v > hi[f]) hi[f] = v;
+            }
+        }
+        live[pgNo] = n;
+        min[pgNo] = lo;
+        max[pgNo] = hi;
+        pending[pgNo] = false;
+        changed = true;
+    }
+
+    /**
+     * Records that t was inserted into a page.
+     */
+    public synchronized void insert(int pgNo, Tuple t) {
+        if (pgNo >= live.length || live[pgNo] < 0)
+            return;
+        live[pgNo]++;
+        for (int f : intFields) {
+            int v = t.getInt(f);
+            if (v < min[pgNo][f]) min[pgNo][f] = v;
+            if (v > max[pgNo][f]) max[pgNo][f] = v;
+        }
+        pending[pgNo] = true;
+    }
+
+    /**
+     * @return the number of tuples on a page, or -1 if not known
+     */
+    public synchronized int getLive(int pgNo) {
+        return pgNo < live.length ? live[pgNo] : -1;
+    }
+
+    /**
+     * @param pred a predicate over the fields of the file, or null
+     * @return false if no tuple of the page can pass pred; true if some
+     *         might, or if the page is not known
+     */
+    public synchronized boolean mayMatch(int pgNo, CompiledPredicate pred) {
+        if (pgNo >= live.length || live[pgNo] < 0)
+            return true;
+        if (live[pgNo] == 0)
+            return false;
+        return pred == null || pred.mayMatch(min[pgNo], max[pgNo]);
+    }
+
+    /**
+     * @return true if a synopsis was set since the zone map was last saved
+     *         or loaded
+     */
+    public synchronized boolean isChanged() {
+        return changed;
+    }
+
+    /**
+     * Writes the zone map, tagged with the length and modification time of
+     * the data file it covers, so that {@link #load} ignores it once the
+     * data file has been changed without it.
+     */
+    public synchronized void save(File f, File data) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(data.length());
+            out.writeLong(data.lastModified());
+            out.writeInt(td.numFields());
+            out.writeInt(live.length);
+            for (int p = 0; p < live.length; p++) {
+                boolean known = live[p] >= 0 && !pending[p];
+                out.writeInt(known ? live[p] : -1);
+                if (!known)
+                    continue;
+                for (int fld : intFields) {
+                    out.writeInt(min[p][fld]);
+                    out.writeInt(max[p][fld]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(f)) {
+            f.delete();
+            if (!tmp.renameTo(f))
+                throw new IOException("cannot replace " + f);
+        }
+        changed = false;
+    }
+
+    /**
+     * @return the zone map saved in f for the data file, or null if there
+     *         is none or it does not match the data file
+     */
+    public static ZoneMap load(File f, File data, TupleDesc td) {
+        if (!f.exists())
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            try {
+                if (in.readInt() != MAGIC || in.readLong() != data.length()
+                        || in.readLong() != data.lastModified() || in.readInt() != td.numFields())
+                    return null;
+                ZoneMap z = new ZoneMap(td);
+                int pages = in.readInt();
+                z.ensure(pages - 1);
+                for (int p = 0; p < pages; p++) {
+                    z.live[p] = in.readInt();
+                    if (z.live[p] < 0)
+                        continue;
+                    z.min[p] = z.fullRange(Integer.MIN_VALUE);
+                    z.max[p] = z.fullRange(Integer.MAX_VALUE);
+                    for (int fld : z.intFields) {
+                        z.min[p][fld] = in.readInt();
+                        z.max[p][fld] = in.readInt();
+                    }
+                }
+                return z;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
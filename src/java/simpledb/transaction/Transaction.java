@@ -51,7 +51,13 @@ public class Transaction {
             } 
 
             // Release locks and flush pages if needed
-            Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+            try {
+                Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+            } catch (UncheckedIOException e) {
+                // the commit failed and was turned into an abort: no commit record
+                started = false;
+                throw e.getCause();
+            }
 
             // write commit log record
             if (!abort) {
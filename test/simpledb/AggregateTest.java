@@ -1,6 +1,8 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
@@ -12,7 +14,11 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.execution.Aggregate;
 import simpledb.execution.Aggregator;
+import simpledb.execution.Gather;
 import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.PartialAggregate;
+import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 
@@ -191,6 +197,147 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /** tuples (i % groups, i) for i in [0, n), in a scrambled order */
+  private static OpIterator manyGroups(int n, int groups) {
+    int[] data = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      int v = (int) ((i * 7919L) % n);
+      data[2 * i] = v % groups;
+      data[2 * i + 1] = v;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /** @return the aggregate of each group, indexed by the group key */
+  private static int[] results(OpIterator op, int groups) throws Exception {
+    int[] res = new int[groups];
+    boolean[] seen = new boolean[groups];
+    op.open();
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertFalse(seen[t.getInt(0)]);
+      seen[t.getInt(0)] = true;
+      res[t.getInt(0)] = t.getInt(1);
+    }
+    op.close();
+    for (boolean s : seen)
+      assertTrue(s);
+    return res;
+  }
+
+  /**
+   * Unit test for an aggregate with more groups than its memory budget,
+   * whose partial aggregates are spilled and repartitioned
+   */
+  @Test public void spillGroups() throws Exception {
+    int n = 20000, groups = 5000;
+    for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.MIN}) {
+      int[] expected = results(new Aggregate(manyGroups(n, groups), 1, 0, op), groups);
+      Aggregate spilled = new Aggregate(manyGroups(n, groups), 1, 0, op);
+      // partitions of ~5000/16 groups have to be split again
+      spilled.setMemoryBudget(100);
+      assertArrayEquals(expected, results(spilled, groups));
+    }
+  }
+
+  /**
+   * Unit test for an aggregate over input ordered on its group field
+   */
+  @Test public void orderedInput() throws Exception {
+    int n = 3000, groups = 300;
+    int[] expected = results(new Aggregate(manyGroups(n, groups), 1, 0, Aggregator.Op.COUNT), groups);
+    Aggregate streamed = new Aggregate(new OrderBy(0, false, manyGroups(n, groups)), 1, 0,
+        Aggregator.Op.COUNT);
+    streamed.setMemoryBudget(1);
+    assertArrayEquals(expected, results(streamed, groups));
+    // groups come out in the order of the input
+    streamed.open();
+    assertEquals(groups - 1, streamed.next().getInt(0));
+    streamed.close();
+  }
+
+  /**
+   * Unit test for two-phase aggregation: partial aggregates of parts of the
+   * input, run in parallel and merged
+   */
+  @Test public void twoPhase() throws Exception {
+    int n = 6000, groups = 500;
+    for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.AVG, Aggregator.Op.COUNT, Aggregator.Op.MAX}) {
+      int[] expected = results(new Aggregate(manyGroups(n, groups), 1, 0, op), groups);
+      OpIterator[] parts = new OpIterator[3];
+      for (int i = 0; i < 3; i++) {
+        PartialAggregate p = new PartialAggregate(manyGroups(n, groups), 1, 0, op);
+        // states are returned before the part is done
+        p.setMemoryBudget(50);
+        parts[i] = p;
+      }
+      Aggregate merged = Aggregate.mergePartials(new Gather(parts),
+          manyGroups(n, groups).getTupleDesc(), 1, 0, op);
+      int[] actual = results(merged, groups);
+      for (int g = 0; g < groups; g++)
+        assertEquals(op == Aggregator.Op.COUNT ? 3 * expected[g] : expected[g], actual[g]);
+    }
+
+    // without grouping
+    Aggregate total = Aggregate.mergePartials(new Gather(
+        new PartialAggregate(manyGroups(n, groups), 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM),
+        new PartialAggregate(manyGroups(n, groups), 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM)),
+        manyGroups(n, groups).getTupleDesc(), 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+    total.open();
+    assertEquals(n * (n - 1), total.next().getInt(0));
+    assertFalse(total.hasNext());
+    total.close();
+  }
+
+  /**
+   * Unit test for several aggregates, including COUNT_DISTINCT, computed in
+   * one Aggregate
+   */
+  @Test public void multipleAggregates() throws Exception {
+    Aggregate op = new Aggregate(scan1, new int[]{1, 1, 1, 1}, 0,
+        new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.AVG,
+            Aggregator.Op.MAX, Aggregator.Op.COUNT_DISTINCT});
+    assertEquals(5, op.getTupleDesc().numFields());
+    assertEquals("count_distinct(" + scan1.getTupleDesc().getFieldName(1) + ")",
+        op.getTupleDesc().getFieldName(4));
+    op.open();
+    OpIterator expected = TestUtil.createTupleList(5,
+        new int[] { 1, 12, 4, 6, 3,
+                    3, 12, 4, 6, 3,
+                    5, 7, 7, 7, 1 });
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+
+    // COUNT_DISTINCT of strings and of the group keys, without grouping
+    Aggregate distinct = new Aggregate(scan2, new int[]{1, 0, 0}, Aggregator.NO_GROUPING,
+        new Aggregator.Op[]{Aggregator.Op.COUNT_DISTINCT, Aggregator.Op.COUNT_DISTINCT,
+            Aggregator.Op.COUNT});
+    distinct.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(3, new int[] { 1, 3, 7 }), distinct);
+    distinct.close();
+
+    // two-phase aggregation of several aggregates at once
+    int n = 6000, groups = 500;
+    int[] sums = results(new Aggregate(manyGroups(n, groups), 1, 0, Aggregator.Op.SUM), groups);
+    int[] mins = results(new Aggregate(manyGroups(n, groups), 1, 0, Aggregator.Op.MIN), groups);
+    int[] afields = {1, 1};
+    Aggregator.Op[] ops = {Aggregator.Op.SUM, Aggregator.Op.MIN};
+    Aggregate merged = Aggregate.mergePartials(new Gather(
+        new PartialAggregate(manyGroups(n, groups), afields, 0, ops),
+        new PartialAggregate(manyGroups(n, groups), afields, 0, ops)),
+        manyGroups(n, groups).getTupleDesc(), afields, 0, ops);
+    merged.open();
+    int seen = 0;
+    while (merged.hasNext()) {
+      Tuple t = merged.next();
+      assertEquals(2 * sums[t.getInt(0)], t.getInt(1));
+      assertEquals(mins[t.getInt(0)], t.getInt(2));
+      seen++;
+    }
+    merged.close();
+    assertEquals(groups, seen);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,58 @@
+package simpledb;
+
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.execution.BloomFilter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for BloomFilter: every key added passes, and few others do
+   */
+  @Test public void falsePositives() {
+    BloomFilter f = new BloomFilter(10000);
+    Random r = new Random(42);
+    int[] keys = new int[10000];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = r.nextInt();
+      f.add(keys[i]);
+    }
+    for (int key : keys)
+      assertTrue(f.mightContain(key));
+
+    int passed = 0;
+    for (int i = 0; i < 100000; i++)
+      if (f.mightContain(r.nextInt()))
+        passed++;
+    assertTrue("false positives: " + passed, passed < 2000);
+  }
+
+  /**
+   * Unit test for consecutive keys, as primary keys usually are
+   */
+  @Test public void consecutiveKeys() {
+    BloomFilter f = new BloomFilter(1000);
+    for (int i = 0; i < 1000; i++)
+      f.add(i);
+    for (int i = 0; i < 1000; i++)
+      assertTrue(f.mightContain(i));
+    int passed = 0;
+    for (int i = 1000; i < 101000; i++)
+      if (f.mightContain(i))
+        passed++;
+    assertTrue("false positives: " + passed, passed < 2000);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BloomFilterTest.class);
+  }
+}
@@ -4,6 +4,7 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -55,6 +56,107 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	}
     }
     
+    // class to count the syncs of the file, or to fail them
+    static class CountingHeapFile extends HeapFile {
+
+        int forces = 0;
+        boolean failForce = false;
+
+        public CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void force() throws IOException {
+            forces++;
+            if (failForce)
+                throw new IOException("cannot sync " + getFile());
+            super.force();
+        }
+    }
+
+    private CountingHeapFile countingFile() throws IOException {
+        File f = File.createTempFile("counting", ".dat");
+        SystemTestUtil.deleteOnExit(f);
+        Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        CountingHeapFile hf = new CountingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /**
+     * Commits a transaction that dirties two pages of a and one page of b
+     * under the given durability.
+     */
+    private void commitTwoFiles(BufferPool.Durability durability, CountingHeapFile a,
+            CountingHeapFile b) throws Exception {
+        Database.getBufferPool().setDurability(durability);
+        for (int i = 0; i < 600; ++i)
+            Database.getBufferPool().insertTuple(tid, a.getId(), Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().insertTuple(tid, b.getId(), Utility.getHeapTuple(1, 2));
+        a.forces = 0;
+        b.forces = 0;
+        Database.getBufferPool().transactionComplete(tid, true);
+    }
+
+    /**
+     * Unit test for the durability of commits: NONE never syncs, BATCH syncs
+     * every touched file once and STRICT syncs after every page
+     */
+    @Test public void durability() throws Exception {
+        CountingHeapFile a = countingFile();
+        CountingHeapFile b = countingFile();
+        commitTwoFiles(BufferPool.Durability.NONE, a, b);
+        assertEquals(0, a.forces);
+        assertEquals(0, b.forces);
+
+        a = countingFile();
+        b = countingFile();
+        commitTwoFiles(BufferPool.Durability.BATCH, a, b);
+        assertEquals(1, a.forces);
+        assertEquals(1, b.forces);
+
+        a = countingFile();
+        b = countingFile();
+        commitTwoFiles(BufferPool.Durability.STRICT, a, b);
+        assertEquals(2, a.forces);
+        assertEquals(1, b.forces);
+        assertEquals(2, a.numPages());
+    }
+
+    /**
+     * Unit test for a commit whose pages cannot be synced: it fails instead
+     * of reporting success, and the transaction's locks are released
+     */
+    @Test public void failedForce() throws Exception {
+        CountingHeapFile a = countingFile();
+        a.failForce = true;
+        Tuple t = Utility.getHeapTuple(1, 2);
+        Database.getBufferPool().insertTuple(tid, a.getId(), t);
+        PageId pid = t.getRecordId().getPageId();
+        Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        assertTrue(Database.getBufferPool().holdsLock(tid, pid));
+        try {
+            Database.getBufferPool().transactionComplete(tid, true);
+            fail("the commit should have failed");
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals(1, a.forces);
+        assertFalse(Database.getBufferPool().holdsLock(tid, pid));
+
+        // the page was written before the sync failed: the tuple must be
+        // gone from the file as well as from the pool
+        TransactionId reader = new TransactionId();
+        DbFileIterator it = a.iterator(reader);
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(reader);
+        HeapPage onDisk = (HeapPage) a.readPage(pid);
+        assertEquals(onDisk.getNumSlots(), onDisk.getNumEmptySlots());
+    }
+
     /**
      * Set up initial resources for each unit test.
      */
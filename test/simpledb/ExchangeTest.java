@@ -0,0 +1,273 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Broadcast;
+import simpledb.execution.Filter;
+import simpledb.execution.Gather;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.HashPartition;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.ParallelSeqScan;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.MorselCursor;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  /** tuples (key, i) for i in [from, to), with key = i % keys */
+  private static OpIterator range(int from, int to, int keys) {
+    int[] values = new int[2 * (to - from)];
+    for (int i = from; i < to; i++) {
+      values[2 * (i - from)] = i % keys;
+      values[2 * (i - from) + 1] = i;
+    }
+    return TestUtil.createTupleList(2, values);
+  }
+
+  /** an input that counts how often it is closed */
+  private static class CountingInput implements OpIterator {
+    private static final long serialVersionUID = 1L;
+    private final OpIterator child;
+    private final AtomicInteger closes;
+
+    CountingInput(OpIterator child, AtomicInteger closes) {
+      this.child = child;
+      this.closes = closes;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+      child.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+      return child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException {
+      return child.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+      child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+      return child.getTupleDesc();
+    }
+
+    public void close() {
+      child.close();
+      closes.incrementAndGet();
+    }
+  }
+
+  private static List<Tuple> drain(OpIterator it) throws Exception {
+    List<Tuple> tuples = new ArrayList<>();
+    while (it.hasNext())
+      tuples.add(it.next());
+    return tuples;
+  }
+
+  private static Set<Integer> secondFields(List<Tuple> tuples) {
+    Set<Integer> s = new HashSet<>();
+    for (Tuple t : tuples)
+      s.add(t.getInt(1));
+    return s;
+  }
+
+  /**
+   * Unit test for Gather: the union of its children, and rewind
+   */
+  @Test public void gather() throws Exception {
+    Gather g = new Gather(range(0, 1000, 7), range(1000, 1500, 7), range(1500, 5000, 7));
+    g.open();
+    List<Tuple> first = drain(g);
+    assertEquals(5000, first.size());
+    assertEquals(5000, secondFields(first).size());
+    g.rewind();
+    assertEquals(5000, drain(g).size());
+    g.close();
+  }
+
+  /**
+   * Unit test for HashPartition: every key goes to exactly one partition
+   */
+  @Test public void hashPartition() throws Exception {
+    int n = 4;
+    HashPartition[] parts = HashPartition.partition(0, n, range(0, 3000, 50), range(3000, 6000, 50));
+    Map<Integer, Integer> partitionOfKey = new HashMap<>();
+    int total = 0;
+    for (int i = 0; i < n; i++) {
+      parts[i].open();
+    }
+    // read one after the other, which only works because each partition
+    // fits in its channel; plans read them from different threads
+    for (int i = 0; i < n; i++) {
+      for (Tuple t : drain(parts[i])) {
+        Integer prev = partitionOfKey.put(t.getInt(0), i);
+        assertTrue(prev == null || prev == i);
+        total++;
+      }
+    }
+    for (int i = 0; i < n; i++)
+      parts[i].close();
+    assertEquals(6000, total);
+    assertEquals(50, partitionOfKey.size());
+  }
+
+  /**
+   * Unit test for a partition closed before the end of its stream: the
+   * producers stop, although the other partitions were never read, and
+   * those partitions end with an error instead of waiting
+   */
+  @Test public void closeEarly() throws Exception {
+    AtomicInteger closes = new AtomicInteger();
+    HashPartition[] parts = HashPartition.partition(0, 4,
+        new CountingInput(range(0, 100000, 1000), closes),
+        new CountingInput(range(100000, 200000, 1000), closes));
+    parts[0].open();
+    assertTrue(parts[0].hasNext());
+    parts[0].next();
+    parts[0].close();
+    assertEquals(2, closes.get());
+
+    parts[1].open();
+    try {
+      parts[1].hasNext();
+      fail("expected DbException");
+    } catch (DbException e) {
+      // expected
+    }
+    parts[1].close();
+
+    // reopening a closed partition starts over
+    parts[0].open();
+    parts[1].open();
+    for (int i = 2; i < 4; i++)
+      parts[i].open();
+    assertTrue(parts[0].hasNext());
+    for (int i = 0; i < 4; i++)
+      parts[i].close();
+    assertEquals(4, closes.get());
+  }
+
+  /**
+   * Unit test for Broadcast: every consumer sees all tuples, and the
+   * partitions of a gathered join
+   */
+  @Test public void broadcastJoin() throws Exception {
+    Broadcast[] small = Broadcast.broadcast(3, range(0, 10, 10));
+    OpIterator[] joins = new OpIterator[3];
+    for (int i = 0; i < 3; i++)
+      joins[i] = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+          small[i], range(1000 * i, 1000 * (i + 1), 20));
+    Gather g = new Gather(joins);
+    g.open();
+    // keys 0..9 of the 3000 probe tuples match one small tuple each
+    assertEquals(1500, drain(g).size());
+    g.close();
+  }
+
+  /**
+   * Unit test for a parallel scan of the page ranges of a heap file
+   */
+  @Test public void splitScan() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, f.getId(), "t");
+    SeqScan[] morsels = scan.split(4);
+    assertTrue(morsels.length > 1);
+    Gather g = new Gather(morsels);
+    g.open();
+    assertEquals(5000, drain(g).size());
+    g.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for ParallelSeqScan, with per-worker filters and partial
+   * counts, and rewind
+   */
+  @Test public void parallelSeqScan() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+    TransactionId tid = new TransactionId();
+    ParallelSeqScan all = new ParallelSeqScan(tid, f.getId(), "t", 4);
+    all.setMorselPages(2);
+    all.open();
+    assertEquals(20000, drain(all).size());
+    all.rewind();
+    assertEquals(20000, drain(all).size());
+    all.close();
+
+    Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(1 << 15));
+    Filter serial = new Filter(p, new SeqScan(tid, f.getId(), "t"));
+    serial.open();
+    int expected = drain(serial).size();
+    serial.close();
+
+    ParallelSeqScan counts = new ParallelSeqScan(tid, f.getId(), "t", 3,
+        in -> new Aggregate(new Filter(p, in), 0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT));
+    counts.open();
+    int total = 0;
+    for (Tuple t : drain(counts))
+      total += t.getInt(0);
+    counts.close();
+    assertEquals(expected, total);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for MorselCursor: every page is claimed once, also when one
+   * worker takes the morsels of the others
+   */
+  @Test public void morselCursor() {
+    MorselCursor c = new MorselCursor(0, 103, 3, 4);
+    boolean[] seen = new boolean[103];
+    int[] m;
+    while ((m = c.claim(2)) != null) {
+      for (int pg = m[0]; pg < m[1]; pg++) {
+        assertFalse(seen[pg]);
+        seen[pg] = true;
+      }
+    }
+    for (boolean s : seen)
+      assertTrue(s);
+    assertNull(c.claim(0));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
@@ -12,6 +12,7 @@ import simpledb.common.Utility;
 import simpledb.execution.Filter;
 import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate;
+import simpledb.execution.TupleBatch;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -114,6 +115,39 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * Unit test for a chain of Filters, which runs as one fused evaluator,
+   * by tuple and by batch
+   */
+  @Test public void filterChain() throws Exception {
+    for (boolean batches : new boolean[] { false, true }) {
+      this.scan = new TestUtil.MockScan(-5, 5, testWidth);
+      Filter op = new Filter(new Predicate(1, Predicate.Op.NOT_EQUALS, TestUtil.getField(0)),
+          new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, TestUtil.getField(-2)),
+              new Filter(new Predicate(2, Predicate.Op.LESS_THAN, TestUtil.getField(3)), scan)));
+      op.open();
+      int count = 0;
+      if (batches) {
+        TupleBatch b;
+        while ((b = op.nextBatch()) != null) {
+          for (int row = 0; row < b.size(); row++)
+            assertTrue(b.getInt(0, row) != 0);
+          count += b.size();
+        }
+      } else {
+        while (op.hasNext()) {
+          assertTrue(op.next().getInt(0) != 0);
+          count++;
+        }
+      }
+      // -2, -1, 1, 2
+      assertEquals(4, count);
+      op.rewind();
+      assertTrue(op.hasNext());
+      op.close();
+    }
+  }
+
   /**
    * Unit test for Filter.getNext() using an = predicate passing no tuples
    */
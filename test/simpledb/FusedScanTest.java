@@ -0,0 +1,111 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Filter;
+import simpledb.execution.FusedScan;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class FusedScanTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for a FusedScan, which must return the same tuples as the
+   * SeqScan, Filters and Project it replaces
+   */
+  @Test public void sameAsPipeline() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(4, 5000, 1000, null, new ArrayList<>());
+    TransactionId tid = new TransactionId();
+    Predicate p1 = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(200));
+    Predicate p2 = new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(700));
+
+    OpIterator pipeline = new Project(Arrays.asList(2, 0), new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+        new Filter(p2, new Filter(p1, new SeqScan(tid, f.getId(), "t"))));
+    FusedScan fused = new FusedScan(new SeqScan(tid, f.getId(), "t"), Arrays.asList(p1, p2),
+        new int[]{2, 0});
+    assertEquals(pipeline.getTupleDesc(), fused.getTupleDesc());
+    List<String> expected = TestUtil.rows(pipeline);
+    assertTrue(expected.size() > 0);
+    assertEquals(expected, TestUtil.rows(fused));
+    assertEquals(expected, TestUtil.batchRows(fused));
+
+    // the fields of a scan with a pushed-down projection are mapped back
+    // to the fields of the table
+    SeqScan projected = new SeqScan(tid, f.getId(), "t");
+    projected.setOutFields(new int[]{3, 0, 2});
+    fused = new FusedScan(projected, Arrays.asList(
+        new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(200)),
+        new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(700))), new int[]{2, 1});
+    assertEquals(expected, TestUtil.rows(fused));
+    assertEquals(3, projected.getOutFields().length);
+    assertTrue(projected.getPredicates().isEmpty());
+    assertEquals(2, fused.getPredicates().size());
+    assertEquals(2, fused.getFusedPredicates().size());
+
+    // filters only: the stored tuples are returned as they are
+    FusedScan filtered = new FusedScan(new SeqScan(tid, f.getId(), "t"), Arrays.asList(p1), null);
+    List<String> filteredRows = TestUtil.rows(filtered);
+    assertEquals(TestUtil.rows(new Filter(p1, new SeqScan(tid, f.getId(), "t"))), filteredRows);
+    assertEquals(filteredRows, TestUtil.batchRows(filtered));
+
+    // rewind starts over at the first page
+    filtered.open();
+    Tuple first = filtered.next();
+    while (filtered.hasNext())
+      filtered.next();
+    filtered.rewind();
+    assertEquals(first.toString(), filtered.next().toString());
+    filtered.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for a FusedScan on the probe side of a hash join, which
+   * pushes its Bloom filter down into the FusedScan itself
+   */
+  @Test public void probeSide() throws Exception {
+    HeapFile build = SystemTestUtil.createRandomHeapFile(2, 100, 1000, null, new ArrayList<>());
+    HeapFile probe = SystemTestUtil.createRandomHeapFile(3, 5000, 1000, null, new ArrayList<>());
+    TransactionId tid = new TransactionId();
+    Predicate p = new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(100));
+    JoinPredicate jp = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+
+    OpIterator pipeline = new HashEquiJoin(jp, new SeqScan(tid, build.getId(), "b"),
+        new Project(Arrays.asList(2, 1), new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+            new Filter(p, new SeqScan(tid, probe.getId(), "p"))));
+    FusedScan fused = new FusedScan(new SeqScan(tid, probe.getId(), "p"), Arrays.asList(p),
+        new int[]{2, 1});
+    HashEquiJoin join = new HashEquiJoin(jp, new SeqScan(tid, build.getId(), "b"), fused);
+    assertTrue(join.pushDownJoinFilter());
+    assertEquals(Arrays.asList(join.getJoinFilter()), fused.getJoinFilters());
+    assertEquals(TestUtil.rows(pipeline), TestUtil.rows(join));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(FusedScanTest.class);
+  }
+}
@@ -0,0 +1,193 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  /**
+   * Counts the rows produced by op, checking that the join columns match.
+   */
+  private static int countMatches(OpIterator op, int leftWidth) throws Exception {
+    int count = 0;
+    op.open();
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getInt(0), t.getInt(leftWidth));
+      count++;
+    }
+    op.close();
+    return count;
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext() when everything fits in memory
+   */
+  @Test public void eqJoin() throws Exception {
+    OpIterator scan1 = TestUtil.createTupleList(2,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    OpIterator scan2 = TestUtil.createTupleList(3,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    OpIterator expected = TestUtil.createTupleList(5,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for INT keys with many duplicates, which go through the
+   * open-addressing table and make it grow several times
+   */
+  @Test public void duplicateIntKeys() throws Exception {
+    int[] left = new int[6000];
+    for (int i = 0; i < left.length; i++)
+      left[i] = i % 2000;
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, TestUtil.createTupleList(1, left),
+        new TestUtil.MockScan(1000, 3000, 1));
+    assertEquals(3000, countMatches(op, 1));
+  }
+
+  /**
+   * Unit test for STRING keys, which use the generic hash map
+   */
+  @Test public void stringKeys() throws Exception {
+    OpIterator scan1 = TestUtil.createTupleList(2,
+        new Object[] { "a", 1, "b", 2, "a", 3 });
+    OpIterator scan2 = TestUtil.createTupleList(1,
+        new Object[] { "a", "c", "b" });
+    OpIterator expected = TestUtil.createTupleList(3,
+        new Object[] { "a", 1, "a",
+                       "a", 3, "a",
+                       "b", 2, "b" });
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for a build side larger than the memory budget, which makes
+   * the join partition both inputs to disk, twice.
+   */
+  @Test public void spilledJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred,
+        new TestUtil.MockScan(0, 4000, 1), new TestUtil.MockScan(2000, 6000, 2));
+    op.setMemoryBudget(100);
+    assertEquals(2000, countMatches(op, 1));
+
+    // rewind replays the partitions
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    op.rewind();
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    op.close();
+    assertEquals(4000, count);
+  }
+
+  /**
+   * Unit test for a memory budget of no tuples, which is raised to one.
+   */
+  @Test public void emptyBudget() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred,
+        new TestUtil.MockScan(0, 200, 1), new TestUtil.MockScan(100, 300, 2));
+    op.setMemoryBudget(0);
+    assertEquals(1, op.getMemoryBudget());
+    assertEquals(100, countMatches(op, 1));
+  }
+
+  /**
+   * Unit test for a single key with more duplicates than the memory budget,
+   * which cannot be split by partitioning.
+   */
+  @Test public void skewedJoin() throws Exception {
+    int[] left = new int[300];
+    for (int i = 0; i < left.length; i++)
+      left[i] = 7;
+    OpIterator scan1 = TestUtil.createTupleList(1, left);
+    OpIterator scan2 = TestUtil.createTupleList(1, new int[] { 7, 8, 7, 7 });
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    op.setMemoryBudget(50);
+    assertEquals(900, countMatches(op, 1));
+  }
+
+  /**
+   * Unit test for the Bloom filter a join pushes down into its probe scan:
+   * the join returns the same tuples, and the scan drops most of those
+   * without a match.
+   */
+  @Test public void joinFilter() throws Exception {
+    HeapFile small = SystemTestUtil.createRandomHeapFile(2, 50, 100000, null, new ArrayList<>());
+    HeapFile big = SystemTestUtil.createRandomHeapFile(2, 5000, 100000, null, new ArrayList<>());
+    TransactionId tid = new TransactionId();
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    int expected = countMatches(new HashEquiJoin(pred, new SeqScan(tid, small.getId()),
+        new SeqScan(tid, big.getId())), 2);
+
+    SeqScan probe = new SeqScan(tid, big.getId());
+    HashEquiJoin op = new HashEquiJoin(pred, new SeqScan(tid, small.getId()), probe);
+    assertTrue(op.pushDownJoinFilter());
+    assertEquals(expected, countMatches(op, 2));
+    assertTrue(op.getJoinFilter().getFilter() != null);
+
+    int passed = 0;
+    probe.open();
+    while (probe.hasNext()) {
+      probe.next();
+      passed++;
+    }
+    probe.close();
+    assertTrue(passed >= expected);
+    assertTrue(passed < 500);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
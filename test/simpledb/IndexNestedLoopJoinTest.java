@@ -0,0 +1,102 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  private static final int[] KEYS = { 3, 77, 499, -1, 3, 250 };
+
+  private BTreeFile f;
+  private List<List<Integer>> tuples;
+  private TransactionId tid;
+
+  /**
+   * Create a B+ tree with several levels and many duplicate keys
+   */
+  @Before public void setUp() throws Exception {
+    tuples = new ArrayList<>();
+    f = BTreeUtility.createRandomBTreeFile(2, 20000, 500, null, tuples, 0);
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private int expectedMatches(int col, int lower) {
+    int count = 0;
+    for (int key : KEYS)
+      for (List<Integer> t : tuples)
+        if (t.get(0) == key && t.get(col) >= lower)
+          count++;
+    return count;
+  }
+
+  private static int countMatches(IndexNestedLoopJoin op) throws Exception {
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getInt(0), t.getInt(1));
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.getNext(), including outer keys with
+   * no match and repeated outer keys
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    IndexNestedLoopJoin op = new IndexNestedLoopJoin(pred,
+        TestUtil.createTupleList(1, KEYS), new BTreeScan(tid, f.getId(), null));
+    op.open();
+    assertEquals(expectedMatches(0, Integer.MIN_VALUE), countMatches(op));
+    op.rewind();
+    assertEquals(expectedMatches(0, Integer.MIN_VALUE), countMatches(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for an inner scan with an index predicate, which is applied
+   * to the matches
+   */
+  @Test public void filteredInner() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    IndexPredicate ipred = new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ,
+        new IntField(77));
+    IndexNestedLoopJoin op = new IndexNestedLoopJoin(pred,
+        TestUtil.createTupleList(1, KEYS), new BTreeScan(tid, f.getId(), ipred));
+    op.open();
+    assertEquals(expectedMatches(0, 77), countMatches(op));
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 import java.util.NoSuchElementException;
 
@@ -13,6 +14,7 @@ import simpledb.common.Type;
 import simpledb.execution.Aggregator;
 import simpledb.execution.IntegerAggregator;
 import simpledb.execution.OpIterator;
+import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 
 public class IntegerAggregatorTest extends SimpleDbTestBase {
@@ -182,6 +184,38 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator with many groups, so that its hash table has to
+   * grow, and negative values
+   */
+  @Test public void manyGroups() throws Exception {
+    int groups = 5000;
+    int[] data = new int[4 * groups];
+    for (int i = 0; i < 2 * groups; i++) {
+      data[2 * i] = -(i % groups);
+      data[2 * i + 1] = i < groups ? -3 : -4;
+    }
+    OpIterator scan = TestUtil.createTupleList(width1, data);
+    scan.open();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    while (scan.hasNext())
+      agg.mergeTupleIntoGroup(scan.next());
+
+    OpIterator it = agg.iterator();
+    it.open();
+    boolean[] seen = new boolean[groups];
+    int count = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertFalse(seen[-t.getInt(0)]);
+      seen[-t.getInt(0)] = true;
+      // -7 / 2 rounds towards zero
+      assertEquals(-3, t.getInt(1));
+      count++;
+    }
+    assertEquals(groups, count);
+  }
+
   /**
    * JUnit suite target
    */
@@ -46,7 +46,7 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
             List<List<Integer>> tuples, int columns, String colPrefix)
             throws IOException {
         File temp = File.createTempFile("table", ".dat");
-        temp.deleteOnExit();
+        SystemTestUtil.deleteOnExit(temp);
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return Utility.openHeapFile(columns, colPrefix, temp);
     }
@@ -8,6 +8,7 @@ import junit.framework.JUnit4TestAdapter;
 import org.junit.Before;
 import org.junit.Test;
 
+import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.execution.Join;
 import simpledb.execution.JoinPredicate;
@@ -112,6 +113,32 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for a block that holds fewer tuples than the outer relation,
+   * so the inner relation is scanned once per block
+   */
+  @Test public void smallBlocks() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    Join op = new Join(pred, scan1, scan2);
+    op.setBlockSize(3 * Type.INT_TYPE.getLen() * width1);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+
+    int count = 0;
+    op = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new TestUtil.MockScan(0, 1000, 1), new TestUtil.MockScan(500, 1500, 1));
+    op.setBlockSize(100);
+    op.open();
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getInt(0), t.getInt(1));
+      count++;
+    }
+    op.close();
+    assertEquals(500, count);
+  }
+
   /**
    * JUnit suite target
    */
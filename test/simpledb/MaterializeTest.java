@@ -0,0 +1,68 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Materialize;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class MaterializeTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for late materialization: a join over the join field and
+   * record id of a table, followed by a Materialize of its other fields,
+   * must return the same tuples as the join of the whole table
+   */
+  @Test public void lateJoin() throws Exception {
+    HeapFile f1 = SystemTestUtil.createRandomHeapFile(3, 3000, 200, null, new ArrayList<>());
+    HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 500, 200, null, new ArrayList<>());
+    TransactionId tid = new TransactionId();
+    Type[] types = new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
+
+    OpIterator early = new Project(Arrays.asList(2, 4, 1), types,
+        new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+            new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b")));
+
+    SeqScan narrow = new SeqScan(tid, f1.getId(), "a");
+    narrow.addPredicate(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)));
+    narrow.setOutFields(new int[]{0});
+    narrow.setRidField(true);
+    assertEquals(2, narrow.getTupleDesc().numFields());
+    OpIterator join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        narrow, new SeqScan(tid, f2.getId(), "b"));
+    Materialize m = new Materialize(tid, f1.getId(), "a", new int[]{1, 2}, join);
+    assertEquals(6, m.getTupleDesc().numFields());
+    OpIterator late = new Project(Arrays.asList(5, 3, 4), types, m);
+
+    List<String> expected = TestUtil.rows(early);
+    assertTrue(expected.size() > 0);
+    assertEquals(expected, TestUtil.rows(late));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(MaterializeTest.class);
+  }
+}
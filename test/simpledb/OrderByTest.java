@@ -0,0 +1,97 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  private static int[] randomInts(int n, long seed) {
+    Random r = new Random(seed);
+    int[] values = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      values[2 * i] = r.nextInt(1000);
+      values[2 * i + 1] = i;
+    }
+    return values;
+  }
+
+  /**
+   * Reads all of op, checking that field 0 is in the given order, and
+   * returns the sum of field 1.
+   */
+  private static long checkSorted(OpIterator op, boolean asc, int expectedCount)
+      throws Exception {
+    int count = 0;
+    long sum = 0;
+    Integer prev = null;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      if (prev != null)
+        assertTrue(asc ? prev <= t.getInt(0) : prev >= t.getInt(0));
+      prev = t.getInt(0);
+      sum += t.getInt(1);
+      count++;
+    }
+    assertEquals(expectedCount, count);
+    return sum;
+  }
+
+  /**
+   * Unit test for an input that fits in the memory budget
+   */
+  @Test public void inMemory() throws Exception {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, randomInts(500, 1)));
+    op.open();
+    assertEquals(500L * 499 / 2, checkSorted(op, true, 500));
+    op.close();
+  }
+
+  /**
+   * Unit test for an input larger than the memory budget, which is sorted
+   * in runs on disk and merged; rewind replays the merge
+   */
+  @Test public void spilled() throws Exception {
+    OrderBy op = new OrderBy(0, false, TestUtil.createTupleList(2, randomInts(5000, 2)));
+    op.setMemoryBudget(100);
+    op.open();
+    assertEquals(5000L * 4999 / 2, checkSorted(op, false, 5000));
+    op.rewind();
+    assertEquals(5000L * 4999 / 2, checkSorted(op, false, 5000));
+    op.close();
+  }
+
+  /**
+   * Unit test for an input in reverse order, which makes replacement
+   * selection produce more runs than can be merged at once
+   */
+  @Test public void multiPassMerge() throws Exception {
+    int n = 3000;
+    int[] values = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      values[2 * i] = n - i;
+      values[2 * i + 1] = i;
+    }
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, values));
+    op.setMemoryBudget(10);
+    op.open();
+    assertEquals((long) n * (n - 1) / 2, checkSorted(op, true, n));
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
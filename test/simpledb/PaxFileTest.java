@@ -0,0 +1,241 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TupleBatch;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.PaxFile;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class PaxFileTest extends SimpleDbTestBase {
+
+  private static PaxFile createPaxFile(DbFileIterator it, TupleDesc td) throws Exception {
+    return createPaxFile(it, td, new int[0]);
+  }
+
+  private static PaxFile createPaxFile(DbFileIterator it, TupleDesc td, int[] encoded) throws Exception {
+    File f = File.createTempFile("pax", ".dat");
+    SystemTestUtil.deleteOnExit(f);
+    it.open();
+    PaxFile.convert(it, f, td, encoded);
+    it.close();
+    PaxFile pax = new PaxFile(f, td);
+    Database.getCatalog().addTable(pax, UUID.randomUUID().toString());
+    return pax;
+  }
+
+  private static SeqScan pushDown(SeqScan scan) {
+    scan.addPredicate(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(300)));
+    scan.addPredicate(new Predicate(4, Predicate.Op.LESS_THAN_OR_EQ, new IntField(600)));
+    scan.setOutFields(new int[]{5, 1});
+    return scan;
+  }
+
+  /**
+   * Unit test for scans of a PaxFile, which must return the same tuples as
+   * scans of the heap file it was converted from, with and without pushed
+   * down predicates and projections, tuple by tuple and in batches
+   */
+  @Test public void scan() throws Exception {
+    HeapFile heap = SystemTestUtil.createRandomHeapFile(6, 4000, 1000, null, new ArrayList<>());
+    TransactionId tid = new TransactionId();
+    PaxFile pax = createPaxFile(heap.iterator(tid), heap.getTupleDesc());
+    assertEquals(heap.numPages(), pax.numPages());
+
+    List<String> all = TestUtil.rows(new SeqScan(tid, heap.getId(), "t"));
+    assertEquals(4000, all.size());
+    assertEquals(all, TestUtil.rows(new SeqScan(tid, pax.getId(), "t")));
+    assertEquals(all, TestUtil.batchRows(new SeqScan(tid, pax.getId(), "t")));
+
+    List<String> expected = TestUtil.rows(pushDown(new SeqScan(tid, heap.getId(), "t")));
+    assertTrue(expected.size() > 0);
+    assertEquals(expected, TestUtil.rows(pushDown(new SeqScan(tid, pax.getId(), "t"))));
+    assertEquals(expected, TestUtil.batchRows(pushDown(new SeqScan(tid, pax.getId(), "t"))));
+
+    List<String> parts = new ArrayList<>();
+    for (SeqScan part : pushDown(new SeqScan(tid, pax.getId(), "t")).split(3))
+      parts.addAll(TestUtil.rows(part));
+    Collections.sort(parts);
+    assertEquals(expected, parts);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for inserts into and deletes from a PaxFile with a string
+   * field, through the buffer pool
+   */
+  @Test public void insertDelete() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE},
+        new String[]{"id", "name"});
+    TransactionId tid = new TransactionId();
+    File empty = File.createTempFile("empty", ".dat");
+    SystemTestUtil.deleteOnExit(empty);
+    PaxFile pax = createPaxFile(new HeapFile(empty, td).iterator(tid), td);
+    assertEquals(0, pax.numPages());
+    for (int i = 0; i < 100; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(i));
+      t.setField(1, new StringField("name" + i, Type.STRING_LEN));
+      Database.getBufferPool().insertTuple(tid, pax.getId(), t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    assertTrue(pax.numPages() > 1);
+
+    tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, pax.getId(), "p");
+    scan.addPredicate(new Predicate(1, Predicate.Op.EQUALS, new StringField("name42", Type.STRING_LEN)));
+    scan.open();
+    Tuple t = scan.next();
+    assertEquals(42, ((IntField) t.getField(0)).getValue());
+    assertTrue(!scan.hasNext());
+    scan.close();
+    Database.getBufferPool().deleteTuple(tid, t);
+    Database.getBufferPool().transactionComplete(tid);
+
+    tid = new TransactionId();
+    List<String> left = TestUtil.rows(new SeqScan(tid, pax.getId(), "p"));
+    assertEquals(99, left.size());
+    assertTrue(left.contains("41 name41 \n"));
+    assertTrue(!left.contains("42 name42 \n"));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private static String city(int i) {
+    return "city" + (i % 20);
+  }
+
+  /** @return a heap file of 3000 tuples (i, city(i), i % 100) */
+  private static HeapFile cities(TupleDesc td) throws Exception {
+    File txt = File.createTempFile("cities", ".txt");
+    txt.deleteOnExit();
+    try (FileWriter w = new FileWriter(txt)) {
+      for (int i = 0; i < 3000; i++)
+        w.write(i + "," + city(i) + "," + (i % 100) + "\n");
+    }
+    File f = File.createTempFile("cities", ".dat");
+    SystemTestUtil.deleteOnExit(f);
+    HeapFileEncoder.convert(txt, f, BufferPool.getPageSize(), 3,
+        new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+    HeapFile heap = new HeapFile(f, td);
+    Database.getCatalog().addTable(heap, UUID.randomUUID().toString());
+    return heap;
+  }
+
+  private static int countBatches(HashEquiJoin join) throws Exception {
+    int n = 0;
+    join.open();
+    TupleBatch b;
+    while ((b = join.nextBatch()) != null) {
+      for (int row = 0; row < b.size(); row++)
+        assertEquals(b.getString(1, row), b.getString(4, row));
+      n += b.size();
+    }
+    join.close();
+    return n;
+  }
+
+  /**
+   * Unit test for dictionary encoded fields: the codes take less room than
+   * the strings, equality predicates, grouping and hash join probes on them
+   * return the same tuples as on the strings, and the dictionary is saved
+   * with the pages that need it
+   */
+  @Test public void dictionary() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+        new String[]{"id", "city", "v"});
+    HeapFile heap = cities(td);
+    TransactionId tid = new TransactionId();
+    PaxFile plain = createPaxFile(heap.iterator(tid), td);
+    PaxFile pax = createPaxFile(heap.iterator(tid), td, new int[]{1});
+    assertEquals(20, pax.getDictionary(1).size());
+    assertTrue(pax.getDictionary(0) == null);
+    assertTrue(pax.numPages() * 5 < plain.numPages());
+
+    List<String> all = TestUtil.rows(new SeqScan(tid, heap.getId(), "c"));
+    assertEquals(all, TestUtil.rows(new SeqScan(tid, pax.getId(), "c")));
+    assertEquals(all, TestUtil.batchRows(new SeqScan(tid, pax.getId(), "c")));
+
+    SeqScan scan = new SeqScan(tid, pax.getId(), "c");
+    scan.addPredicate(new Predicate(1, Predicate.Op.EQUALS, new StringField("city7", Type.STRING_LEN)));
+    List<String> city7 = TestUtil.batchRows(scan);
+    assertEquals(150, city7.size());
+    assertTrue(city7.contains("7 city7 7 \n"));
+    scan = new SeqScan(tid, pax.getId(), "c");
+    scan.addPredicate(new Predicate(1, Predicate.Op.EQUALS, new StringField("nowhere", Type.STRING_LEN)));
+    assertEquals(0, TestUtil.batchRows(scan).size());
+
+    assertEquals(TestUtil.rows(new Aggregate(new SeqScan(tid, heap.getId(), "c"), 2, 1, Aggregator.Op.SUM)),
+        TestUtil.rows(new Aggregate(new SeqScan(tid, pax.getId(), "c"), 2, 1, Aggregator.Op.SUM)));
+
+    SeqScan build = new SeqScan(tid, heap.getId(), "b");
+    build.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)));
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+    assertEquals(1500, countBatches(new HashEquiJoin(pred, build, new SeqScan(tid, pax.getId(), "c"))));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for inserts of new values into a dictionary encoded field:
+   * the dictionary file is written with the pages, and read back by a new
+   * PaxFile over the same file
+   */
+  @Test public void dictionaryInsert() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+        new String[]{"id", "city", "v"});
+    HeapFile heap = cities(td);
+    TransactionId tid = new TransactionId();
+    PaxFile pax = createPaxFile(heap.iterator(tid), td, new int[]{1});
+    Database.getBufferPool().transactionComplete(tid);
+
+    tid = new TransactionId();
+    Tuple t = new Tuple(td);
+    t.setField(0, new IntField(3000));
+    t.setField(1, new StringField("elsewhere", Type.STRING_LEN));
+    t.setField(2, new IntField(0));
+    Database.getBufferPool().insertTuple(tid, pax.getId(), t);
+    Database.getBufferPool().transactionComplete(tid);
+    PaxFile reopened = new PaxFile(pax.getFile(), td);
+    assertEquals(21, reopened.getDictionary(1).size());
+    Database.getCatalog().addTable(reopened, UUID.randomUUID().toString());
+    tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, reopened.getId(), "c");
+    scan.addPredicate(new Predicate(1, Predicate.Op.EQUALS, new StringField("elsewhere", Type.STRING_LEN)));
+    assertEquals(Collections.singletonList("3000 elsewhere 0 \n"), TestUtil.rows(scan));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PaxFileTest.class);
+  }
+}
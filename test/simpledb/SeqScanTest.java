@@ -0,0 +1,84 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class SeqScanTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for predicates and a projection pushed down into a SeqScan,
+   * which must return the same tuples as the Filters and Project above a
+   * plain scan
+   */
+  @Test public void pushDown() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, 1000, null, new ArrayList<>());
+    TransactionId tid = new TransactionId();
+    Predicate p1 = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(200));
+    Predicate p2 = new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(700));
+
+    OpIterator pipeline = new Project(Arrays.asList(2, 0), new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+        new Filter(p2, new Filter(p1, new SeqScan(tid, f.getId(), "t"))));
+    SeqScan pushed = new SeqScan(tid, f.getId(), "t");
+    pushed.addPredicate(p1);
+    pushed.addPredicate(p2);
+    pushed.setOutFields(new int[]{2, 0});
+    assertEquals(pipeline.getTupleDesc(), pushed.getTupleDesc());
+    List<String> expected = TestUtil.rows(pipeline);
+    assertTrue(expected.size() > 0);
+    assertEquals(expected, TestUtil.rows(pushed));
+    assertEquals(expected, TestUtil.batchRows(pushed));
+
+    // predicates only: the stored tuples are returned as they are
+    SeqScan filtered = new SeqScan(tid, f.getId(), "t");
+    filtered.addPredicate(p1);
+    List<String> filteredRows = TestUtil.rows(filtered);
+    assertEquals(TestUtil.rows(new Filter(p1, new SeqScan(tid, f.getId(), "t"))), filteredRows);
+    assertEquals(filteredRows, TestUtil.batchRows(filtered));
+
+    // the parts of a split scan apply the pushed-down predicate
+    List<String> parts = new ArrayList<>();
+    for (SeqScan part : filtered.split(3))
+      parts.addAll(TestUtil.rows(part));
+    Collections.sort(parts);
+    assertEquals(filteredRows, parts);
+
+    // rewind starts over at the first page
+    filtered.open();
+    Tuple first = filtered.next();
+    while (filtered.hasNext())
+      filtered.next();
+    filtered.rewind();
+    assertEquals(first.toString(), filtered.next().toString());
+    filtered.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SeqScanTest.class);
+  }
+}
@@ -0,0 +1,110 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.SortMergeJoin;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  OpIterator scan1;
+  OpIterator scan2;
+
+  /**
+   * Initialize each unit test. Neither input is sorted on column 0 and
+   * both contain duplicate keys.
+   */
+  @Before public void createTupleLists() {
+    this.scan1 = TestUtil.createTupleList(2,
+        new int[] { 5, 1,
+                    1, 2,
+                    3, 3,
+                    5, 4,
+                    7, 5 });
+    this.scan2 = TestUtil.createTupleList(2,
+        new int[] { 3, 10,
+                    1, 20,
+                    5, 30,
+                    2, 40,
+                    5, 50,
+                    9, 60 });
+  }
+
+  private int count(OpIterator op) throws Exception {
+    int n = 0;
+    op.open();
+    while (op.hasNext()) {
+      op.next();
+      n++;
+    }
+    op.close();
+    return n;
+  }
+
+  /**
+   * Checks SortMergeJoin against the nested loop Join for one operator
+   */
+  private void checkOp(Predicate.Op op) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    OpIterator expected = new Join(pred, scan1, scan2);
+    OpIterator actual = new SortMergeJoin(pred, scan1, scan2);
+    int n = count(expected);
+    assertEquals(n, count(actual));
+    expected.open();
+    actual.open();
+    TestUtil.matchAllTuples(expected, actual);
+    actual.close();
+    expected.close();
+  }
+
+  @Test public void eqJoin() throws Exception {
+    checkOp(Predicate.Op.EQUALS);
+  }
+
+  @Test public void inequalityJoins() throws Exception {
+    checkOp(Predicate.Op.LESS_THAN);
+    checkOp(Predicate.Op.LESS_THAN_OR_EQ);
+    checkOp(Predicate.Op.GREATER_THAN);
+    checkOp(Predicate.Op.GREATER_THAN_OR_EQ);
+    checkOp(Predicate.Op.NOT_EQUALS);
+  }
+
+  /**
+   * Unit test for an outer input that is already sorted and is streamed
+   */
+  @Test public void sortedOuter() throws Exception {
+    OrderBy sorted = new OrderBy(0, true, scan1);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    // 1 matches once, 3 once, each 5 twice
+    assertEquals(6, count(new SortMergeJoin(pred, sorted, scan2)));
+
+    SortMergeJoin op = new SortMergeJoin(pred, sorted, scan2);
+    op.open();
+    while (op.hasNext())
+      op.next();
+    op.rewind();
+    int n = 0;
+    while (op.hasNext()) {
+      op.next();
+      n++;
+    }
+    op.close();
+    assertEquals(6, n);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -1,8 +1,11 @@
 package simpledb;
 
 import simpledb.common.*;
+import simpledb.execution.BatchOpIterator;
 import simpledb.execution.OpIterator;
+import simpledb.execution.TupleBatch;
 import simpledb.storage.*;
+import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -151,6 +154,38 @@ public class TestUtil {
         }
     }
 
+    /**
+     * Opens it, reads all its tuples and closes it.
+     *
+     * @return the tuples of it as strings, sorted
+     */
+    public static List<String> rows(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        List<String> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * Like {@link #rows}, but reads the tuples of it a batch at a time.
+     */
+    public static List<String> batchRows(BatchOpIterator it)
+            throws DbException, TransactionAbortedException {
+        List<String> rows = new ArrayList<>();
+        it.open();
+        TupleBatch b;
+        while ((b = it.nextBatch()) != null)
+            for (int row = 0; row < b.size(); row++)
+                rows.add(b.getTuple(row).toString());
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
     /**
      * Verifies that the OpIterator has been exhausted of all elements.
      */
@@ -377,7 +412,7 @@ public class TestUtil {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            emptyFile.deleteOnExit();
+            SystemTestUtil.deleteOnExit(emptyFile);
         }
 
         protected void setUp() throws Exception {
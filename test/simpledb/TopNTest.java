@@ -0,0 +1,100 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.TopN;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  private static OpIterator randomInts(int n) {
+    Random r = new Random(7);
+    int[] values = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      values[2 * i] = r.nextInt(100);
+      values[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, values);
+  }
+
+  /**
+   * Checks that top returns the same sort keys as the first tuples of a
+   * full sort, and returns how many tuples it returned.
+   */
+  private static int compareWithSort(TopN top, OrderBy sorted) throws Exception {
+    top.open();
+    sorted.open();
+    int count = 0;
+    while (top.hasNext()) {
+      Tuple t = top.next();
+      assertEquals(sorted.next().getInt(0), t.getInt(0));
+      count++;
+    }
+    top.close();
+    sorted.close();
+    return count;
+  }
+
+  /**
+   * Unit test for TopN in both orders
+   */
+  @Test public void firstTuples() throws Exception {
+    assertEquals(10, compareWithSort(new TopN(0, true, 10, randomInts(1000)),
+        new OrderBy(0, true, randomInts(1000))));
+    assertEquals(25, compareWithSort(new TopN(0, false, 25, randomInts(1000)),
+        new OrderBy(0, false, randomInts(1000))));
+  }
+
+  /**
+   * Unit test for limits of zero and larger than the input
+   */
+  @Test public void edgeLimits() throws Exception {
+    TopN top = new TopN(0, true, 0, randomInts(50));
+    top.open();
+    assertFalse(top.hasNext());
+    top.close();
+
+    assertEquals(50, compareWithSort(new TopN(0, true, 80, randomInts(50)),
+        new OrderBy(0, true, randomInts(50))));
+  }
+
+  /**
+   * Unit test for Limit, including rewind
+   */
+  @Test public void limit() throws Exception {
+    Limit op = new Limit(3, randomInts(50));
+    op.open();
+    assertEquals(3, countAll(op));
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    assertEquals(3, countAll(op));
+    op.close();
+  }
+
+  private static int countAll(OpIterator op) throws Exception {
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
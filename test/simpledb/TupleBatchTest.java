@@ -0,0 +1,166 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.BatchToRow;
+import simpledb.execution.CompiledPredicate;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.TupleBatch;
+import simpledb.storage.CompactTuple;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for TupleBatch.addTuple() and TupleBatch.getTuple()
+   */
+  @Test public void addAndGet() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    OpIterator expected = TestUtil.createTupleList(2,
+        new Object[] { 1, "a", 2, "", 3, "hello" });
+    TupleBatch batch = new TupleBatch(td, 3);
+    expected.open();
+    while (expected.hasNext())
+      batch.addTuple(expected.next());
+    assertTrue(batch.isFull());
+    assertEquals(2, batch.getInt(0, 1));
+    assertEquals("hello", batch.getString(1, 2));
+    assertEquals(0, batch.compareString(1, 0, "a".getBytes()));
+    assertTrue(batch.compareString(1, 1, "a".getBytes()) < 0);
+
+    expected.rewind();
+    for (int row = 0; row < batch.size(); row++)
+      assertTrue(TestUtil.compareTuples(expected.next(), batch.getTuple(row)));
+  }
+
+  /**
+   * Strings that are not ASCII read back the same from serialized bytes, a
+   * CompactTuple and a batch, and compiled predicates match them
+   */
+  @Test public void nonAsciiStrings() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+    StringField f = new StringField("caf\u00e9", Type.STRING_LEN);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    f.serialize(new DataOutputStream(out));
+    CompactTuple t = new CompactTuple(td);
+    t.setField(0, f);
+    assertArrayEquals(out.toByteArray(), t.getData());
+    assertEquals(f, Type.STRING_TYPE.parse(
+        new DataInputStream(new ByteArrayInputStream(t.getData()))));
+    assertEquals("caf\u00e9", t.getString(0));
+
+    TupleBatch batch = new TupleBatch(td, 2);
+    batch.addTuple(t);
+    Tuple plain = new Tuple(td);
+    plain.setField(0, f);
+    batch.addTuple(plain);
+    assertEquals("caf\u00e9", batch.getString(0, 0));
+    assertEquals("caf\u00e9", batch.getString(0, 1));
+    CompiledPredicate p = CompiledPredicate.compile(
+        new Predicate(0, Predicate.Op.EQUALS, f));
+    assertEquals(2, p.filter(batch, new int[2]));
+  }
+
+  /**
+   * Unit test for Filter.nextBatch() across batch boundaries
+   */
+  @Test public void filterBatches() throws Exception {
+    Predicate pred = new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(100));
+    Filter op = new Filter(pred, new TestUtil.MockScan(0, 3000, 2));
+    op.open();
+    int count = 0;
+    TupleBatch batch;
+    while ((batch = op.nextBatch()) != null) {
+      assertTrue(batch.size() > 0);
+      for (int row = 0; row < batch.size(); row++)
+        assertEquals(101 + count++, batch.getInt(0, row));
+    }
+    assertEquals(2899, count);
+    assertNull(op.nextBatch());
+    op.close();
+  }
+
+  /**
+   * Unit test for Project.nextBatch()
+   */
+  @Test public void projectBatches() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(3,
+        new int[] { 1, 2, 3,
+                    4, 5, 6 });
+    Project op = new Project(Arrays.asList(2, 0),
+        new Type[] { Type.INT_TYPE, Type.INT_TYPE }, scan);
+    OpIterator expected = TestUtil.createTupleList(2,
+        new int[] { 3, 1,
+                    6, 4 });
+    BatchToRow actual = new BatchToRow(op);
+    actual.open();
+    expected.open();
+    TestUtil.compareDbIterators(expected, actual);
+    actual.close();
+  }
+
+  /**
+   * Unit test for HashEquiJoin.nextBatch()
+   */
+  @Test public void hashJoinBatches() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred,
+        new TestUtil.MockScan(0, 2000, 1), new TestUtil.MockScan(1000, 3000, 2));
+    op.open();
+    int count = 0;
+    TupleBatch batch;
+    while ((batch = op.nextBatch()) != null) {
+      for (int row = 0; row < batch.size(); row++) {
+        assertEquals(batch.getInt(0, row), batch.getInt(1, row));
+        count++;
+      }
+    }
+    assertEquals(1000, count);
+    op.close();
+  }
+
+  /**
+   * Unit test for Aggregate consuming its child in batches
+   */
+  @Test public void aggregateBatches() throws Exception {
+    Aggregate op = new Aggregate(new TestUtil.MockScan(0, 2500, 1), 0,
+        Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+    BatchToRow actual = new BatchToRow(op);
+    actual.open();
+    Tuple t = actual.next();
+    assertEquals(2500 * 2499 / 2, ((IntField) t.getField(0)).getValue());
+    assertTrue(TestUtil.checkExhausted(actual));
+    actual.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TupleBatchTest.class);
+  }
+}
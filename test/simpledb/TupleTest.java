@@ -5,6 +5,7 @@ import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
 
+import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -59,6 +60,29 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for CompactTuple field access and CompactTuple.concat()
+     */
+    @Test public void compactFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Tuple tup = new CompactTuple(td);
+        tup.setField(0, new IntField(-7));
+        tup.setField(1, new StringField("abc", Type.STRING_LEN));
+
+        assertEquals(-7, tup.getInt(0));
+        assertEquals("abc", tup.getString(1));
+        assertEquals(new IntField(-7), tup.getField(0));
+        assertEquals(new StringField("abc", Type.STRING_LEN), tup.getField(1));
+
+        Tuple other = new Tuple(Utility.getTupleDesc(1));
+        other.setField(0, new IntField(42));
+        TupleDesc merged = TupleDesc.merge(td, other.getTupleDesc());
+        Tuple joined = CompactTuple.concat(merged, tup, other);
+        assertEquals(-7, joined.getInt(0));
+        assertEquals("abc", joined.getString(1));
+        assertEquals(42, joined.getInt(2));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,156 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class VarcharTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 2000;
+
+  private static TupleDesc td(Type name) {
+    return new TupleDesc(new Type[]{Type.INT_TYPE, name}, new String[]{"id", "name"});
+  }
+
+  /** @return a table of ROWS tuples (i, "name" + i) with a name field of the given type */
+  private static HeapFile table(Type name) throws IOException {
+    File txt = File.createTempFile("varchar", ".txt");
+    txt.deleteOnExit();
+    try (FileWriter w = new FileWriter(txt)) {
+      for (int i = 0; i < ROWS; i++)
+        w.write(i + ",name" + i + "\n");
+    }
+    File f = File.createTempFile("varchar", ".dat");
+    SystemTestUtil.deleteOnExit(f);
+    HeapFileEncoder.convert(txt, f, BufferPool.getPageSize(), 2, new Type[]{Type.INT_TYPE, name});
+    HeapFile hf = new HeapFile(f, td(name));
+    Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+    return hf;
+  }
+
+  private static List<String> rows(TransactionId tid, HeapFile f) throws Exception {
+    List<String> rows = new ArrayList<>();
+    SeqScan scan = new SeqScan(tid, f.getId());
+    scan.open();
+    while (scan.hasNext())
+      rows.add(scan.next().toString());
+    scan.close();
+    Collections.sort(rows);
+    return rows;
+  }
+
+  private static Tuple tuple(TupleDesc td, int id, String name) {
+    Tuple t = new Tuple(td);
+    t.setField(0, new IntField(id));
+    t.setField(1, new StringField(name, Type.STRING_LEN));
+    return t;
+  }
+
+  /**
+   * Unit test for the sizes of a TupleDesc with a VARCHAR field: tuples
+   * take the most room in memory, and less on average
+   */
+  @Test public void sizes() {
+    TupleDesc td = td(Type.VARCHAR_TYPE);
+    assertFalse(td.isFixedSize());
+    assertTrue(td(Type.STRING_TYPE).isFixedSize());
+    assertEquals(4 + 4 + Type.STRING_LEN, td.getMaxSize());
+    assertEquals(4 + 4 + Type.VARCHAR_ESTIMATED_LEN, td.getSize());
+    assertEquals(td(Type.STRING_TYPE).getSize(), td.getMaxSize());
+  }
+
+  /**
+   * Unit test for slotted pages: short VARCHAR values take less room than
+   * STRING ones, so the table takes fewer pages, and reads back the same
+   */
+  @Test public void slotted() throws Exception {
+    HeapFile fixed = table(Type.STRING_TYPE);
+    HeapFile varchar = table(Type.VARCHAR_TYPE);
+    assertTrue(varchar.numPages() * 5 < fixed.numPages());
+
+    TransactionId tid = new TransactionId();
+    List<String> all = rows(tid, varchar);
+    assertEquals(ROWS, all.size());
+    assertEquals(rows(tid, fixed), all);
+    Database.getBufferPool().transactionComplete(tid);
+
+    HeapPageId pid = new HeapPageId(varchar.getId(), 0);
+    HeapPage page = (HeapPage) varchar.readPage(pid);
+    assertEquals(page.getPageData().length, BufferPool.getPageSize());
+    HeapPage copy = new HeapPage(pid, page.getPageData());
+    assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+    for (int i = 0; i < page.getNumSlots(); i++)
+      assertEquals(String.valueOf(page.getSlotTuple(i)), String.valueOf(copy.getSlotTuple(i)));
+  }
+
+  /**
+   * Unit test for inserts into and deletes from slotted pages: a page takes
+   * tuples for as long as their records fit, and a delete makes room
+   */
+  @Test public void insertDelete() throws Exception {
+    TupleDesc td = td(Type.VARCHAR_TYPE);
+    File f = File.createTempFile("varchar", ".dat");
+    SystemTestUtil.deleteOnExit(f);
+    HeapFile hf = new HeapFile(f, td);
+    Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+    HeapPageId pid = new HeapPageId(hf.getId(), 0);
+    HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+    String wide = String.format("%0" + Type.STRING_LEN + "d", 0);
+    List<Tuple> inserted = new ArrayList<>();
+    Tuple t = tuple(td, 0, wide);
+    while (page.hasRoomFor(t)) {
+      page.insertTuple(t);
+      inserted.add(t);
+      t = tuple(td, inserted.size(), wide);
+    }
+    int perPage = inserted.size();
+    assertEquals((BufferPool.getPageSize() - 4) / (4 + 4 + 4 + Type.STRING_LEN), perPage);
+    assertTrue(page.getNumEmptySlots() > 0);
+    assertTrue(page.hasRoomFor(tuple(td, 0, "")));
+
+    page.deleteTuple(inserted.get(3));
+    assertTrue(page.hasRoomFor(t));
+    page.insertTuple(t);
+    assertEquals(3, t.getRecordId().getTupleNumber());
+
+    HeapPage copy = new HeapPage(pid, page.getPageData());
+    assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+    assertEquals(wide, copy.getSlotTuple(3).getString(1));
+    assertEquals(perPage, ((IntField) copy.getSlotTuple(3).getField(0)).getValue());
+    assertFalse(copy.hasRoomFor(t));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(VarcharTest.class);
+  }
+}
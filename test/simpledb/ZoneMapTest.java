@@ -0,0 +1,172 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.CompiledPredicate;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.ZoneMap;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 10000;
+
+  /** @return a table of ROWS tuples (i, i % 7), loaded in order of i */
+  private static HeapFile orderedTable() throws Exception {
+    List<List<Integer>> tuples = new ArrayList<>();
+    for (int i = 0; i < ROWS; i++)
+      tuples.add(Arrays.asList(i, i % 7));
+    File f = File.createTempFile("zonemap", ".dat");
+    SystemTestUtil.deleteOnExit(f);
+    HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+    return Utility.openHeapFile(2, f);
+  }
+
+  private static int count(OpIterator it) throws Exception {
+    int n = 0;
+    it.open();
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    it.close();
+    return n;
+  }
+
+  /**
+   * Unit test for page skipping: once the pages of a table ordered on a
+   * field have been read, a range predicate on it rules out all but a few
+   * of them, and the scan still returns every matching tuple
+   */
+  @Test public void skipPages() throws Exception {
+    HeapFile f = orderedTable();
+    TransactionId tid = new TransactionId();
+    assertEquals(ROWS, count(new SeqScan(tid, f.getId())));
+
+    Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(300));
+    CompiledPredicate c = CompiledPredicate.compile(p);
+    ZoneMap zones = f.getZoneMap();
+    int candidates = 0;
+    for (int i = 0; i < f.numPages(); i++)
+      if (zones.mayMatch(i, c))
+        candidates++;
+    int perPage = HeapPage.slotsPerPage(f.getTupleDesc());
+    assertEquals((300 + perPage - 1) / perPage, candidates);
+
+    SeqScan scan = new SeqScan(tid, f.getId());
+    scan.addPredicate(p);
+    assertEquals(300, count(scan));
+    assertEquals(count(new Filter(new Predicate(1, Predicate.Op.EQUALS, new IntField(3)),
+        new SeqScan(tid, f.getId()))), count(filtered(tid, f, 1, 3)));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private static SeqScan filtered(TransactionId tid, HeapFile f, int field, int v) {
+    SeqScan scan = new SeqScan(tid, f.getId());
+    scan.addPredicate(new Predicate(field, Predicate.Op.EQUALS, new IntField(v)));
+    return scan;
+  }
+
+  /**
+   * Unit test for the upkeep of the zone map: inserted tuples widen the
+   * range of their page right away, while deletes only count once they are
+   * committed, so that other transactions still read and lock a page
+   * emptied by a delete that is not committed yet
+   */
+  @Test public void insertDelete() throws Exception {
+    HeapFile f = orderedTable();
+    TransactionId tid = new TransactionId();
+    count(new SeqScan(tid, f.getId()));
+    Database.getBufferPool().transactionComplete(tid);
+
+    // the only page with room is the last one
+    ZoneMap zones = f.getZoneMap();
+    int last = f.numPages() - 1;
+    int liveBefore = zones.getLive(last);
+    tid = new TransactionId();
+    Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[]{-5, 100}));
+    assertEquals(liveBefore + 1, zones.getLive(last));
+    assertEquals(1, count(filtered(tid, f, 0, -5)));
+    assertEquals(1, count(filtered(tid, f, 1, 100)));
+    Database.getBufferPool().transactionComplete(tid);
+
+    tid = new TransactionId();
+    SeqScan first = filtered(tid, f, 0, 0);
+    first.open();
+    Tuple t = first.next();
+    first.close();
+    int page = t.getRecordId().getPageId().getPageNumber();
+    int live = zones.getLive(page);
+    Database.getBufferPool().deleteTuple(tid, t);
+    assertEquals(live, zones.getLive(page));
+    assertEquals(0, count(filtered(tid, f, 0, 0)));
+    Database.getBufferPool().transactionComplete(tid, false);
+    assertEquals(live, zones.getLive(page));
+
+    tid = new TransactionId();
+    assertEquals(1, count(filtered(tid, f, 0, 0)));
+    first = filtered(tid, f, 0, 0);
+    first.open();
+    t = first.next();
+    first.close();
+    Database.getBufferPool().deleteTuple(tid, t);
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(live - 1, zones.getLive(page));
+  }
+
+  /**
+   * Unit test for the zone map file: it is written when the table is
+   * forced, read back by a new HeapFile over the same file, and removed
+   * when a page is written again
+   */
+  @Test public void persist() throws Exception {
+    HeapFile f = orderedTable();
+    TransactionId tid = new TransactionId();
+    Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[]{-5, 100}));
+    Database.getBufferPool().transactionComplete(tid);
+    File zm = new File(f.getFile().getPath() + HeapFile.ZONE_MAP_SUFFIX);
+    assertTrue(zm.exists());
+
+    HeapFile reopened = Utility.openHeapFile(2, f.getFile());
+    ZoneMap zones = reopened.getZoneMap();
+    int last = reopened.numPages() - 1;
+    assertTrue(zones.getLive(last) > 0);
+    Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0));
+    assertTrue(zones.mayMatch(last, CompiledPredicate.compile(p)));
+    assertFalse(zones.mayMatch(0, CompiledPredicate.compile(p)));
+
+    reopened.writePage(reopened.readPage(new HeapPageId(reopened.getId(), 0)));
+    assertFalse(zm.exists());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ZoneMapTest.class);
+  }
+}
@@ -128,8 +128,12 @@ public class LogTest extends SimpleDbTestBase {
         // adds to the catalog.
         file1 = new File("simple1.db");
         file1.delete();
+        new File(file1.getPath() + HeapFile.ZONE_MAP_SUFFIX).delete();
+        SystemTestUtil.deleteOnExit(file1);
         file2 = new File("simple2.db");
         file2.delete();
+        new File(file2.getPath() + HeapFile.ZONE_MAP_SUFFIX).delete();
+        SystemTestUtil.deleteOnExit(file2);
         hf1 = Utility.createEmptyHeapFile(file1.getAbsolutePath(), 2);
         hf2 = Utility.createEmptyHeapFile(file2.getAbsolutePath(), 2);
     }
@@ -85,11 +85,22 @@ public class SystemTestUtil {
 
         // Convert the tuples list to a heap file and open it
         File temp = File.createTempFile("table", ".dat");
-        temp.deleteOnExit();
+        deleteOnExit(temp);
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return temp;
     }
 
+    /**
+     * Deletes a table file on exit, along with the files its DbFile may
+     * write next to it: the zone map of a HeapFile and the dictionaries of
+     * a PaxFile.
+     */
+    public static void deleteOnExit(File f) {
+        f.deleteOnExit();
+        new File(f.getPath() + HeapFile.ZONE_MAP_SUFFIX).deleteOnExit();
+        new File(f.getPath() + PaxFile.DICTIONARY_SUFFIX).deleteOnExit();
+    }
+
     public static List<Integer> tupleToList(Tuple tuple) {
         List<Integer> list = new ArrayList<>();
         for (int i = 0; i < tuple.getTupleDesc().numFields(); ++i) {